@@ -0,0 +1,78 @@
+package com.codahale.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of the {@link Stopwatch} accounting each timed JDBC call
+ * pays (its bucket and rows) with that of the single running total a bare
+ * start and stop maintains, and with the call and query counts connections
+ * can ask for with the {@code stopwatch.calls} and {@code stopwatch.queries}
+ * settings. It lives in the library's package, as that accounting is
+ * package-private; the clock isn't read, so only the accounting is measured.
+ *
+ * @author coda
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StopwatchAccountingBenchmark {
+	private static final long ELAPSED = 250000;
+
+	private final String fingerprint = FingerprintCache.getInstance().fingerprint("SELECT * FROM accounts WHERE id = 1");
+	private long now;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		Stopwatch.getInstance().reset();
+	}
+
+	@Benchmark
+	public void singleTotal() {
+		final Stopwatch stopwatch = Stopwatch.getInstance();
+		now += ELAPSED;
+		stopwatch.start(now);
+		stopwatch.stop(now + ELAPSED);
+	}
+
+	@Benchmark
+	public void execution() {
+		final Stopwatch stopwatch = Stopwatch.getInstance();
+		now += ELAPSED;
+		stopwatch.begin(now);
+		stopwatch.stop(now + ELAPSED, Category.QUERY, ELAPSED, 0, 1);
+	}
+
+	@Benchmark
+	public void fetch() {
+		final Stopwatch stopwatch = Stopwatch.getInstance();
+		now += ELAPSED;
+		stopwatch.begin(now);
+		stopwatch.stop(now + ELAPSED, Category.FETCH, ELAPSED, 1, 1);
+	}
+
+	@Benchmark
+	public void countedExecution() {
+		final Stopwatch stopwatch = Stopwatch.getInstance();
+		now += ELAPSED;
+		stopwatch.begin(now);
+		stopwatch.stop(now + ELAPSED, Category.QUERY, ELAPSED, 0, 1);
+		stopwatch.countCall(ELAPSED, 1);
+		stopwatch.countQuery(fingerprint, ELAPSED, 1);
+	}
+}
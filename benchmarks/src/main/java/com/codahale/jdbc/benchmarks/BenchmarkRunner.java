@@ -0,0 +1,37 @@
+package com.codahale.jdbc.benchmarks;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation
+ * rate per operation, at 1, 4, and as many threads as there are processors.
+ * Any standard JMH command-line options are passed through; if {@code -t} is
+ * given, only that thread count is run.
+ * 
+ * @author coda
+ *
+ */
+public final class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		final CommandLineOptions options = new CommandLineOptions(args);
+
+		final Set<Integer> threads = new TreeSet<Integer>();
+		if (options.getThreads().hasValue()) {
+			threads.add(options.getThreads().get());
+		} else {
+			threads.add(1);
+			threads.add(4);
+			threads.add(Runtime.getRuntime().availableProcessors());
+		}
+
+		for (int n : threads) {
+			new Runner(new OptionsBuilder().parent(options).threads(n).addProfiler(GCProfiler.class).build()).run();
+		}
+	}
+}
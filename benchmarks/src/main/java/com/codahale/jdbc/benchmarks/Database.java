@@ -0,0 +1,91 @@
+package com.codahale.jdbc.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.codahale.jdbc.Instrumenter;
+
+/**
+ * A per-thread, in-memory HSQLDB database with a single {@code funk} table,
+ * accessed either directly or through one of the {@link Instrumenter}
+ * wrappers. Each thread gets its own database so that the benchmarks
+ * measure the wrapper rather than HSQLDB's locking.
+ * 
+ * @author coda
+ *
+ */
+@State(Scope.Thread)
+public class Database {
+	private static final AtomicInteger DATABASES = new AtomicInteger();
+
+	/**
+	 * {@code raw} for the unwrapped HSQLDB connection, {@code proxy} for
+	 * {@link Instrumenter#instrument(Class, Object)}, or {@code delegate} for
+	 * {@link Instrumenter#delegate(Class, Object)}.
+	 */
+	@Param({ "raw", "proxy", "delegate" })
+	public String wrapper;
+
+	/**
+	 * The number of rows in the table.
+	 */
+	@Param({ "10000" })
+	public int rows;
+
+	public Connection connection;
+	public PreparedStatement query, update, scan;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		final Connection raw = DriverManager.getConnection("jdbc:hsqldb:mem:benchmark" + DATABASES.incrementAndGet(), "sa", "");
+
+		final Statement ddl = raw.createStatement();
+		ddl.execute("CREATE TABLE funk (id INTEGER PRIMARY KEY, name VARCHAR(64))");
+		ddl.close();
+
+		final PreparedStatement insert = raw.prepareStatement("INSERT INTO funk (id, name) VALUES (?, ?)");
+		for (int i = 0; i < rows; i++) {
+			insert.setInt(1, i);
+			insert.setString(2, "funk #" + i);
+			insert.addBatch();
+		}
+		insert.executeBatch();
+		insert.close();
+
+		if ("proxy".equals(wrapper)) {
+			this.connection = Instrumenter.instrument(Connection.class, raw);
+		} else if ("delegate".equals(wrapper)) {
+			this.connection = Instrumenter.delegate(Connection.class, raw);
+		} else {
+			this.connection = raw;
+		}
+
+		this.query = connection.prepareStatement("SELECT id, name FROM funk WHERE id = ?");
+		this.update = connection.prepareStatement("UPDATE funk SET name = ? WHERE id = ?");
+		this.scan = connection.prepareStatement("SELECT id, name FROM funk");
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws SQLException {
+		query.close();
+		update.close();
+		scan.close();
+
+		final Statement shutdown = connection.createStatement();
+		shutdown.execute("SHUTDOWN");
+		shutdown.close();
+		connection.close();
+	}
+}
@@ -0,0 +1,71 @@
+package com.codahale.jdbc.benchmarks;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures statement execution and result set iteration against raw and
+ * instrumented connections.
+ * 
+ * @author coda
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementBenchmark {
+	private static final int BATCH_SIZE = 10;
+
+	@Benchmark
+	public int executeQuery(Database db) throws SQLException {
+		db.query.setInt(1, 42);
+		final ResultSet results = db.query.executeQuery();
+		try {
+			results.next();
+			return results.getInt(1);
+		} finally {
+			results.close();
+		}
+	}
+
+	@Benchmark
+	public int executeUpdate(Database db) throws SQLException {
+		db.update.setString(1, "funky");
+		db.update.setInt(2, 42);
+		return db.update.executeUpdate();
+	}
+
+	@Benchmark
+	public int[] executeBatch(Database db) throws SQLException {
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			db.update.setString(1, "funky");
+			db.update.setInt(2, i);
+			db.update.addBatch();
+		}
+		return db.update.executeBatch();
+	}
+
+	@Benchmark
+	public void iterateResultSet(Database db, Blackhole blackhole) throws SQLException {
+		final ResultSet results = db.scan.executeQuery();
+		try {
+			while (results.next()) {
+				blackhole.consume(results.getInt(1));
+			}
+		} finally {
+			results.close();
+		}
+	}
+}
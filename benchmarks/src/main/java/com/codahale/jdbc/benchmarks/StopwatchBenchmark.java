@@ -0,0 +1,34 @@
+package com.codahale.jdbc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.jdbc.Stopwatch;
+
+/**
+ * Measures the cost of a bare {@link Stopwatch#start()}/{@link Stopwatch#stop()}
+ * pair, which every timed JDBC call pays.
+ * 
+ * @author coda
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StopwatchBenchmark {
+	@Benchmark
+	public void startStop() {
+		final Stopwatch stopwatch = Stopwatch.getInstance();
+		stopwatch.start();
+		stopwatch.stop();
+	}
+}
@@ -0,0 +1,330 @@
+package com.codahale.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Process-wide statistics on writes, keyed by the
+ * {@link SqlNormalizer fingerprint} of their SQL: how big batches are, how
+ * many rows batches and updates affect and how fast, and how often a
+ * single-row update is run over and over where one batch would do.
+ * <pre>
+ * for (Map.Entry&lt;String, BatchStatistics.Snapshot&gt; e : BatchStatistics.getInstance().snapshot().entrySet()) {
+ *     if (e.getValue().getUnbatchedRunCount() &gt; 0) {
+ *         System.out.println("Could be batched: " + e.getKey());
+ *     }
+ * }
+ * </pre>
+ * A run of unbatched updates is {@value #MIN_RUN_LENGTH} or more updates of
+ * one row each with the same fingerprint, made one after the other by the
+ * same thread with no other update or batch between them.
+ * <p>
+ * Writes whose SQL is unknown, and writes of any queries beyond the first
+ * {@value #MAX_QUERIES}, are recorded under {@link #OTHER}.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class BatchStatistics {
+	/**
+	 * A copy of the statistics for one query at a point in time.
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final long[] values;
+
+		Snapshot(long[] values) {
+			this.values = values;
+		}
+
+		/**
+		 * Returns the number of batches executed.
+		 */
+		public long getBatchCount() {
+			return values[BATCHES];
+		}
+
+		/**
+		 * Returns the number of statements added to those batches.
+		 */
+		public long getBatchedStatementCount() {
+			return values[STATEMENTS];
+		}
+
+		/**
+		 * Returns the mean number of statements per batch.
+		 */
+		public double getMeanBatchSize() {
+			return (values[BATCHES] == 0) ? 0.0 : (double) values[STATEMENTS] / values[BATCHES];
+		}
+
+		/**
+		 * Returns the largest batch executed.
+		 */
+		public long getMaxBatchSize() {
+			return values[MAX_SIZE];
+		}
+
+		/**
+		 * Returns the number of batches of between {@code 2^i} and
+		 * {@code 2^(i+1) - 1} statements, for {@code i} from {@code 0} up to
+		 * {@value BatchStatistics#SIZE_BUCKETS} {@code - 1}. Empty batches
+		 * are counted with batches of one, and the last bucket holds all the
+		 * larger batches.
+		 */
+		public long[] getBatchSizeCounts() {
+			final long[] counts = new long[SIZE_BUCKETS];
+			System.arraycopy(values, SIZES, counts, 0, SIZE_BUCKETS);
+			return counts;
+		}
+
+		/**
+		 * Returns the number of updates executed on their own.
+		 */
+		public long getUpdateCount() {
+			return values[UPDATES];
+		}
+
+		/**
+		 * Returns the number of rows affected by batches and updates, as
+		 * reported by the driver.
+		 */
+		public long getRowsAffected() {
+			return values[ROWS];
+		}
+
+		/**
+		 * Returns the time spent executing batches and updates, in
+		 * nanoseconds.
+		 */
+		public long getElapsedNanos() {
+			return values[NANOS];
+		}
+
+		/**
+		 * Returns the number of rows affected per second spent executing
+		 * batches and updates.
+		 */
+		public double getRowsPerSecond() {
+			return (values[NANOS] == 0) ? 0.0 : values[ROWS] * 1e9 / values[NANOS];
+		}
+
+		/**
+		 * Returns the number of runs of single-row updates which could have
+		 * been batched.
+		 */
+		public long getUnbatchedRunCount() {
+			return values[RUNS];
+		}
+
+		/**
+		 * Returns the number of updates in those runs.
+		 */
+		public long getUnbatchedUpdateCount() {
+			return values[RUN_UPDATES];
+		}
+	}
+
+	/**
+	 * The single-row updates the current thread has just made.
+	 */
+	@NotThreadSafe
+	private static final class Run {
+		String query;
+		int length;
+	}
+
+	/**
+	 * The key under which writes of unknown queries, and of queries beyond
+	 * the first {@value #MAX_QUERIES}, are recorded.
+	 */
+	public static final String OTHER = "(other)";
+	static final int MIN_RUN_LENGTH = 5;
+	static final int SIZE_BUCKETS = 16;
+	private static final int MAX_QUERIES = 1000;
+	private static final int BATCHES = 0, STATEMENTS = 1, MAX_SIZE = 2, UPDATES = 3, ROWS = 4, NANOS = 5, RUNS = 6,
+			RUN_UPDATES = 7, SIZES = 8, VALUES = SIZES + SIZE_BUCKETS;
+	private static final BatchStatistics INSTANCE = new BatchStatistics();
+
+	/**
+	 * Returns the {@link BatchStatistics} instance.
+	 */
+	public static BatchStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the total number of rows affected, according to the update
+	 * counts returned by {@link java.sql.Statement#executeBatch()}. Counts of
+	 * {@link java.sql.Statement#SUCCESS_NO_INFO} and
+	 * {@link java.sql.Statement#EXECUTE_FAILED} add nothing.
+	 */
+	static long rowsAffected(int[] counts) {
+		long rows = 0;
+		if (counts != null) {
+			for (int count : counts) {
+				if (count > 0) {
+					rows += count;
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the total number of rows affected, according to the update
+	 * counts returned by {@link java.sql.Statement#executeLargeBatch()}.
+	 */
+	static long rowsAffected(long[] counts) {
+		long rows = 0;
+		if (counts != null) {
+			for (long count : counts) {
+				if (count > 0) {
+					rows += count;
+				}
+			}
+		}
+		return rows;
+	}
+
+	private static int bucketOf(int size) {
+		final int bucket = 31 - Integer.numberOfLeadingZeros(size);
+		if (bucket < 0) {
+			return 0;
+		}
+		return Math.min(bucket, SIZE_BUCKETS - 1);
+	}
+
+	private final ConcurrentMap<String, AtomicLongArray> queries;
+	private final ThreadLocal<Run> runs;
+
+	private BatchStatistics() {
+		this.queries = new ConcurrentHashMap<String, AtomicLongArray>();
+		this.runs = new ThreadLocal<Run>() {
+			@Override
+			protected Run initialValue() {
+				return new Run();
+			}
+		};
+	}
+
+	/**
+	 * Records the execution of a batch of {@code size} statements.
+	 *
+	 * @param query
+	 *            the fingerprint of the SQL batched, or {@code null} if
+	 *            unknown
+	 * @param size
+	 *            the number of statements added to the batch
+	 * @param rows
+	 *            the number of rows the batch affected
+	 * @param nanoseconds
+	 *            how long it took, in nanoseconds
+	 * @param weight
+	 *            the number of executions it was sampled from
+	 */
+	public void recordBatch(String query, int size, long rows, long nanoseconds, int weight) {
+		final AtomicLongArray values = get(query);
+		values.addAndGet(BATCHES, weight);
+		values.addAndGet(STATEMENTS, (long) size * weight);
+		values.addAndGet(ROWS, rows * weight);
+		values.addAndGet(NANOS, nanoseconds * weight);
+		values.addAndGet(SIZES + bucketOf(size), weight);
+		long max = values.get(MAX_SIZE);
+		while (size > max && !values.compareAndSet(MAX_SIZE, max, size)) {
+			max = values.get(MAX_SIZE);
+		}
+
+		final Run run = runs.get();
+		run.query = null;
+		run.length = 0;
+	}
+
+	/**
+	 * Records the execution of an update on its own.
+	 *
+	 * @param query
+	 *            the fingerprint of the SQL executed, or {@code null} if
+	 *            unknown
+	 * @param rows
+	 *            the number of rows the update affected
+	 * @param nanoseconds
+	 *            how long it took, in nanoseconds
+	 * @param weight
+	 *            the number of executions it was sampled from
+	 */
+	public void recordUpdate(String query, long rows, long nanoseconds, int weight) {
+		final AtomicLongArray values = get(query);
+		values.addAndGet(UPDATES, weight);
+		values.addAndGet(ROWS, rows * weight);
+		values.addAndGet(NANOS, nanoseconds * weight);
+
+		final Run run = runs.get();
+		if (rows != 1 || query == null) {
+			run.query = null;
+			run.length = 0;
+		} else if (query.equals(run.query)) {
+			run.length++;
+			if (run.length == MIN_RUN_LENGTH) {
+				values.incrementAndGet(RUNS);
+				values.addAndGet(RUN_UPDATES, MIN_RUN_LENGTH);
+			} else if (run.length > MIN_RUN_LENGTH) {
+				values.incrementAndGet(RUN_UPDATES);
+			}
+		} else {
+			run.query = query;
+			run.length = 1;
+		}
+	}
+
+	/**
+	 * Returns a snapshot of each query's statistics.
+	 */
+	public Map<String, Snapshot> snapshot() {
+		final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+		for (Map.Entry<String, AtomicLongArray> entry : queries.entrySet()) {
+			final AtomicLongArray values = entry.getValue();
+			final long[] copy = new long[VALUES];
+			for (int i = 0; i < VALUES; i++) {
+				copy[i] = values.get(i);
+			}
+			snapshots.put(entry.getKey(), new Snapshot(copy));
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Discards all recorded statistics.
+	 */
+	public void clear() {
+		queries.clear();
+	}
+
+	private AtomicLongArray get(String query) {
+		final AtomicLongArray values = queries.get((query == null) ? OTHER : query);
+		if (values != null) {
+			return values;
+		}
+		return create((query == null) ? OTHER : query);
+	}
+
+	private AtomicLongArray create(String query) {
+		final String key = (queries.size() < MAX_QUERIES) ? query : OTHER;
+		final AtomicLongArray values = queries.get(key);
+		if (values != null) {
+			return values;
+		}
+
+		final AtomicLongArray created = new AtomicLongArray(VALUES);
+		final AtomicLongArray existing = queries.putIfAbsent(key, created);
+		return (existing == null) ? created : existing;
+	}
+}
@@ -0,0 +1,37 @@
+package com.codahale.jdbc;
+
+/**
+ * The coarse buckets into which {@link Stopwatch} divides a thread's database
+ * time.
+ *
+ * @author coda
+ *
+ */
+public enum Bucket {
+	/**
+	 * Time spent executing statements.
+	 */
+	EXECUTION,
+
+	/**
+	 * Time spent fetching rows from result sets.
+	 */
+	FETCH,
+
+	/**
+	 * Time spent establishing connections or borrowing them from a pool.
+	 */
+	CONNECTION,
+
+	/**
+	 * Time spent committing and rolling back transactions.
+	 */
+	TRANSACTION,
+
+	/**
+	 * Time spent serving queries from the result cache, configured by the
+	 * {@code resultcache.queries} setting, instead of the database. Unlike
+	 * the others, it isn't part of the total elapsed time.
+	 */
+	CACHE
+}
@@ -0,0 +1,118 @@
+package com.codahale.jdbc;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * The number of JDBC calls made, the time spent in them, the slowest, and a
+ * coarse histogram of their latencies, for one thread's {@link Stopwatch} or
+ * for all of them in {@link StopwatchStatistics}. It tells one 500ms query
+ * apart from 5,000 queries of 0.1ms each.
+ * <p>
+ * Latencies are counted in {@value #BUCKETS} buckets whose upper bounds
+ * double from about 65µs ({@code 2^16} ns) to about 17s ({@code 2^34} ns),
+ * plus one for anything slower, so that a call is bucketed with a single
+ * leading-zero count.
+ *
+ * @author coda
+ *
+ */
+@Immutable
+public final class CallDistribution {
+	/**
+	 * The number of latency buckets.
+	 */
+	public static final int BUCKETS = 20;
+	private static final int LOWEST_BIT = 16;
+
+	/**
+	 * Returns the bucket a call which took {@code nanoseconds} is counted in.
+	 */
+	static int indexOf(long nanoseconds) {
+		final int bits = 64 - Long.numberOfLeadingZeros(Math.max(nanoseconds - 1, 0)) - LOWEST_BIT;
+		return (bits <= 0) ? 0 : Math.min(bits, BUCKETS - 1);
+	}
+
+	/**
+	 * Returns the upper bound of the bucket with {@code index}, in
+	 * nanoseconds, or {@link Long#MAX_VALUE} for the last.
+	 */
+	public static long getUpperBound(int index) {
+		return (index >= BUCKETS - 1) ? Long.MAX_VALUE : 1L << (LOWEST_BIT + index);
+	}
+
+	private final long count, total, max;
+	private final long[] buckets;
+
+	CallDistribution(long count, long total, long max, long[] buckets) {
+		this.count = count;
+		this.total = total;
+		this.max = max;
+		this.buckets = buckets;
+	}
+
+	/**
+	 * Returns the number of calls.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the total time spent in calls, in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return total;
+	}
+
+	/**
+	 * Returns the slowest call, in nanoseconds.
+	 */
+	public long getMaxNanos() {
+		return max;
+	}
+
+	/**
+	 * Returns the mean time spent in a call, in nanoseconds.
+	 */
+	public double getMean() {
+		return (count == 0) ? 0 : total / (double) count;
+	}
+
+	/**
+	 * Returns the number of calls counted in the bucket with {@code index}.
+	 *
+	 * @see #getUpperBound(int)
+	 */
+	public long getBucketCount(int index) {
+		return buckets[index];
+	}
+
+	/**
+	 * Returns the upper bound, in nanoseconds, of the bucket in which the
+	 * call at {@code percentile} percent falls, or the slowest call if
+	 * that's lower.
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long recorded = 0;
+		for (long n : buckets) {
+			recorded += n;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * recorded));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return Math.min(getUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return count + " calls, " + (total / 1000000) + "ms total, " + (max / 1000000) + "ms max";
+	}
+}
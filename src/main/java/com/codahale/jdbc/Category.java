@@ -0,0 +1,78 @@
+package com.codahale.jdbc;
+
+/**
+ * The kinds of JDBC calls which are timed.
+ *
+ * @author coda
+ *
+ */
+public enum Category {
+	/**
+	 * {@code executeQuery}.
+	 */
+	QUERY(Bucket.EXECUTION),
+
+	/**
+	 * {@code executeUpdate} and {@code executeLargeUpdate}.
+	 */
+	UPDATE(Bucket.EXECUTION),
+
+	/**
+	 * {@code executeBatch} and {@code executeLargeBatch}.
+	 */
+	BATCH(Bucket.EXECUTION),
+
+	/**
+	 * {@code execute}, which may either query or update.
+	 */
+	EXECUTE(Bucket.EXECUTION),
+
+	/**
+	 * {@link java.sql.ResultSet#next()}.
+	 */
+	FETCH(Bucket.FETCH),
+
+	/**
+	 * Bulk reads from {@link java.sql.Blob}s, {@link java.sql.Clob}s,
+	 * {@link java.sql.SQLXML}s, and column streams.
+	 */
+	LOB(Bucket.FETCH),
+
+	/**
+	 * {@link java.sql.Driver#connect(String, java.util.Properties)}.
+	 */
+	CONNECT(Bucket.CONNECTION),
+
+	/**
+	 * {@link javax.sql.DataSource#getConnection()}, which usually means
+	 * waiting for a pooled connection.
+	 */
+	BORROW(Bucket.CONNECTION),
+
+	/**
+	 * {@link java.sql.Connection#commit()},
+	 * {@link java.sql.Connection#rollback()},
+	 * {@link java.sql.Connection#setAutoCommit(boolean)}, and setting and
+	 * releasing savepoints.
+	 */
+	TRANSACTION(Bucket.TRANSACTION),
+
+	/**
+	 * {@code executeQuery} served from the result cache, without going to the
+	 * database.
+	 */
+	CACHED(Bucket.CACHE);
+
+	private final Bucket bucket;
+
+	private Category(Bucket bucket) {
+		this.bucket = bucket;
+	}
+
+	/**
+	 * Returns the {@link Stopwatch} bucket calls of this kind are timed in.
+	 */
+	public Bucket getBucket() {
+		return bucket;
+	}
+}
@@ -0,0 +1,181 @@
+package com.codahale.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Process-wide connect latencies and failures, keyed by the database
+ * connected to, to watch for connection storms against each host:
+ * <pre>
+ * for (Map.Entry&lt;String, ConnectionStatistics.Snapshot&gt; e : ConnectionStatistics.getInstance().snapshot().entrySet()) {
+ *     System.out.println(e.getKey() + ": failures=" + e.getValue().getFailureRate());
+ * }
+ * </pre>
+ * Databases are named by their JDBC URL up to any {@code ?} or {@code ;}
+ * parameters, which often hold credentials. To keep memory bounded, at most
+ * {@value #MAX_TARGETS} distinct databases are tracked; connections to any
+ * others are recorded under {@link #OTHER}.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class ConnectionStatistics {
+	/**
+	 * A copy of the statistics for one database at a point in time.
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final LatencyHistogram.Snapshot latency;
+		private final long failures;
+
+		Snapshot(LatencyHistogram.Snapshot latency, long failures) {
+			this.latency = latency;
+			this.failures = failures;
+		}
+
+		/**
+		 * Returns the latency of all attempts to connect, successful or not.
+		 */
+		public LatencyHistogram.Snapshot getLatency() {
+			return latency;
+		}
+
+		/**
+		 * Returns the number of attempts to connect.
+		 */
+		public long getCount() {
+			return latency.getCount();
+		}
+
+		/**
+		 * Returns the number of attempts to connect which failed.
+		 */
+		public long getFailureCount() {
+			return failures;
+		}
+
+		/**
+		 * Returns the fraction of attempts to connect which failed.
+		 */
+		public double getFailureRate() {
+			final long count = getCount();
+			return (count == 0) ? 0.0 : (double) failures / count;
+		}
+	}
+
+	private static final class Target {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong failures = new AtomicLong();
+	}
+
+	/**
+	 * The key under which databases beyond the first {@value #MAX_TARGETS}
+	 * are recorded.
+	 */
+	public static final String OTHER = "(other)";
+	private static final int MAX_TARGETS = 100;
+	private static final ConnectionStatistics INSTANCE = new ConnectionStatistics();
+
+	/**
+	 * Returns the {@link ConnectionStatistics} instance.
+	 */
+	public static ConnectionStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the name connections to {@code url} are recorded under.
+	 */
+	static String nameOf(String url) {
+		int end = url.length();
+		for (int i = 0; i < end; i++) {
+			final char c = url.charAt(i);
+			if (c == '?' || c == ';') {
+				end = i;
+			}
+		}
+		return url.substring(0, end);
+	}
+
+	private final ConcurrentMap<String, Target> targets;
+
+	private ConnectionStatistics() {
+		this.targets = new ConcurrentHashMap<String, Target>();
+	}
+
+	/**
+	 * Records an attempt to connect to {@code target}.
+	 *
+	 * @param target
+	 *            the database connected to
+	 * @param nanoseconds
+	 *            how long it took, in nanoseconds
+	 * @param succeeded
+	 *            {@code false} if it failed
+	 */
+	public void record(String target, long nanoseconds, boolean succeeded) {
+		record(target, nanoseconds, succeeded, 1);
+	}
+
+	/**
+	 * Records a sampled attempt to connect to {@code target} which stands for
+	 * {@code weight} attempts.
+	 *
+	 * @param target
+	 *            the database connected to
+	 * @param nanoseconds
+	 *            how long it took, in nanoseconds
+	 * @param succeeded
+	 *            {@code false} if it failed
+	 * @param weight
+	 *            the number of attempts it was sampled from
+	 */
+	public void record(String target, long nanoseconds, boolean succeeded, int weight) {
+		Target t = targets.get(target);
+		if (t == null) {
+			t = create(target);
+		}
+		t.latency.record(nanoseconds, weight);
+		if (!succeeded) {
+			t.failures.addAndGet(weight);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of each database's statistics.
+	 */
+	public Map<String, Snapshot> snapshot() {
+		final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+		for (Map.Entry<String, Target> entry : targets.entrySet()) {
+			final Target target = entry.getValue();
+			snapshots.put(entry.getKey(), new Snapshot(target.latency.snapshot(), target.failures.get()));
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Discards all recorded statistics.
+	 */
+	public void clear() {
+		targets.clear();
+	}
+
+	private Target create(String target) {
+		final String key = (targets.size() < MAX_TARGETS) ? target : OTHER;
+		final Target existing = targets.get(key);
+		if (existing != null) {
+			return existing;
+		}
+
+		final Target created = new Target();
+		final Target raced = targets.putIfAbsent(key, created);
+		return (raced == null) ? created : raced;
+	}
+}
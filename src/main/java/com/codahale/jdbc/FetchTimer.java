@@ -0,0 +1,173 @@
+package com.codahale.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Times the fetching of a whole {@link ResultSet} rather than each call to
+ * {@link ResultSet#next()}, for connections whose {@link Profile} asks for it.
+ * <p>
+ * With {@link Profile.FetchTiming#RESULT_SET}, the clock is read once when
+ * {@code next()} is first called and once more when it returns
+ * {@code false}, throws, or the result set is closed; rows are counted in
+ * between. With {@link Profile.FetchTiming#BOUNDARY}, only the calls which
+ * cross a fetch-size boundary, and so may go to the database for more rows,
+ * are timed; if the driver doesn't report a fetch size, the whole result set
+ * is timed instead.
+ * <p>
+ * Either way, each timing is recorded as a single {@link Category#FETCH}
+ * call covering all the rows fetched since the last one, and as one
+ * {@link JdbcEvents.Fetch} event if a flight recording is running.
+ * <p>
+ * Calls timed on the same thread while a whole result set is being timed,
+ * such as the queries of an N+1 loop, are recorded on their own, so their
+ * time is taken out of the result set's. Each thread's timed calls are only
+ * added up while it's timing a result set itself, so a result set which is
+ * never closed or read to the end only costs its own thread that addition.
+ *
+ * @author coda
+ *
+ */
+@NotThreadSafe
+final class FetchTimer {
+	/**
+	 * Returns a timer for a result set on a connection with {@code profile},
+	 * or {@code null} if its calls to {@code next()} should each be timed.
+	 */
+	static FetchTimer create(Profile profile, String fingerprint) {
+		if (profile.fetchTiming == Profile.FetchTiming.CALL) {
+			return null;
+		}
+		return new FetchTimer(profile, fingerprint);
+	}
+
+	// the number of result sets the thread is timing whole, and the time
+	// spent in calls it has timed on their own since it started
+	private static final int OPEN = 0, TIMED = 1;
+	private static final ThreadLocal<long[]> THREADS = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
+
+	/**
+	 * Adds {@code elapsed} nanoseconds, spent in a call which was recorded
+	 * on its own, to the current thread's timed calls, if it's timing a
+	 * whole result set.
+	 */
+	static void timed(long elapsed) {
+		final long[] thread = THREADS.get();
+		if (thread[OPEN] > 0) {
+			thread[TIMED] += elapsed;
+		}
+	}
+
+	private final Profile profile;
+	private final String fingerprint;
+	private boolean started, finished, open;
+	private int fetchSize;
+	private long start, rows, pending, timed;
+	// the state of the thread which began timing
+	private long[] thread;
+	// a JdbcEvents.Fetch, if one was begun; typed so that this class never
+	// needs jdk.jfr
+	private Object event;
+
+	private FetchTimer(Profile profile, String fingerprint) {
+		this.profile = profile;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Calls {@link ResultSet#next()} on {@code resultSet}, timing it if need
+	 * be.
+	 */
+	boolean next(ResultSet resultSet) throws SQLException {
+		if (!started) {
+			begin(resultSet);
+		}
+
+		final long call = (fetchSize > 0 && !finished && (rows % fetchSize) == 0) ? System.nanoTime() : Recorder.SKIPPED;
+		if (call != Recorder.SKIPPED && FlightRecording.active) {
+			event = JdbcEvents.beginFetch();
+		}
+		boolean row = false, succeeded = false;
+		try {
+			row = resultSet.next();
+			succeeded = true;
+			return row;
+		} finally {
+			if (row) {
+				rows++;
+				pending++;
+			}
+			if (call != Recorder.SKIPPED) {
+				record(System.nanoTime() - call, succeeded);
+			}
+			if (!row) {
+				finish(succeeded);
+			}
+		}
+	}
+
+	/**
+	 * Records anything not yet recorded, as the result set is being closed.
+	 */
+	void close() {
+		finish(true);
+	}
+
+	private void begin(ResultSet resultSet) throws SQLException {
+		started = true;
+		if (profile.callSampleRate > 1 && !profile.sampleCall()) {
+			finished = true;
+			return;
+		}
+
+		if (profile.fetchTiming == Profile.FetchTiming.BOUNDARY) {
+			fetchSize = resultSet.getFetchSize();
+		}
+		if (fetchSize <= 0) {
+			open = true;
+			thread = THREADS.get();
+			thread[OPEN]++;
+			timed = thread[TIMED];
+			start = System.nanoTime();
+			if (FlightRecording.active) {
+				event = JdbcEvents.beginFetch();
+			}
+		}
+	}
+
+	private void finish(boolean succeeded) {
+		if (!started || finished) {
+			return;
+		}
+		finished = true;
+
+		if (open) {
+			final long elapsed = System.nanoTime() - start;
+			long nested = 0;
+			if (thread == THREADS.get()) {
+				nested = Math.min(Math.max(thread[TIMED] - timed, 0), elapsed);
+				thread[OPEN]--;
+			}
+			open = false;
+			record(elapsed - nested, succeeded);
+		} else if (pending > 0) {
+			record(0, succeeded);
+		}
+	}
+
+	private void record(long elapsed, boolean succeeded) {
+		Recorder.recordFetch(profile, fingerprint, elapsed, pending, succeeded);
+		if (event != null) {
+			JdbcEvents.endFetch(event, profile, fingerprint, pending, succeeded);
+			event = null;
+		}
+		pending = 0;
+	}
+}
@@ -0,0 +1,162 @@
+package com.codahale.jdbc;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A bounded cache from raw SQL to its interned {@link SqlNormalizer}
+ * fingerprint, so that a query executed over and over is normalized once.
+ * <p>
+ * Eviction is least-recently-used, approximated with the second-chance
+ * (CLOCK) algorithm: a hit only sets a flag on its entry, so lookups never
+ * lock, and when the cache is full the oldest entry which hasn't been hit
+ * since it was last considered is evicted. The hit, miss, and eviction counts
+ * show whether the cache is big enough for applications which build SQL
+ * dynamically.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class FingerprintCache {
+	private static final class Entry {
+		final String fingerprint;
+		volatile boolean referenced;
+
+		Entry(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	private static final int DEFAULT_CAPACITY = 5000;
+	private static final FingerprintCache INSTANCE = new FingerprintCache(DEFAULT_CAPACITY);
+
+	/**
+	 * Returns the {@link FingerprintCache} instance used by
+	 * {@link Instrumenter}.
+	 */
+	public static FingerprintCache getInstance() {
+		return INSTANCE;
+	}
+
+	private final ConcurrentMap<String, Entry> entries;
+	private final Queue<String> clock;
+	private final AtomicInteger size;
+	private final LongAdder hits, misses, evictions;
+	private volatile int capacity;
+
+	/**
+	 * Creates a new {@link FingerprintCache}.
+	 *
+	 * @param capacity
+	 *            the maximum number of statements to cache
+	 */
+	public FingerprintCache(int capacity) {
+		this.entries = new ConcurrentHashMap<String, Entry>();
+		this.clock = new ConcurrentLinkedQueue<String>();
+		this.size = new AtomicInteger();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the fingerprint of {@code sql}, or {@code null} if
+	 * {@code sql} is {@code null}.
+	 */
+	public String fingerprint(String sql) {
+		if (sql == null) {
+			return null;
+		}
+
+		final Entry entry = entries.get(sql);
+		if (entry != null) {
+			hits.increment();
+			if (!entry.referenced) {
+				entry.referenced = true;
+			}
+			return entry.fingerprint;
+		}
+
+		misses.increment();
+		final String fingerprint = SqlNormalizer.normalize(sql).intern();
+		if (entries.putIfAbsent(sql, new Entry(fingerprint)) == null) {
+			clock.offer(sql);
+			size.incrementAndGet();
+			while (size.get() > capacity && evict()) {
+				// keep evicting until there's room
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the maximum number of statements cached.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Sets the maximum number of statements cached. If the cache is larger,
+	 * it will shrink as new statements are added.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the number of statements currently cached.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups which had to normalize their SQL.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of statements evicted to make room for others.
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	private boolean evict() {
+		String sql;
+		while ((sql = clock.poll()) != null) {
+			final Entry entry = entries.get(sql);
+			if (entry == null) {
+				continue;
+			}
+
+			if (entry.referenced) {
+				entry.referenced = false;
+				clock.offer(sql);
+			} else if (entries.remove(sql, entry)) {
+				size.decrementAndGet();
+				evictions.increment();
+				return true;
+			}
+		}
+		return false;
+	}
+}
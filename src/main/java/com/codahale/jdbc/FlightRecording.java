@@ -0,0 +1,34 @@
+package com.codahale.jdbc;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Whether Java Flight Recorder is recording, so that {@link Recorder} only
+ * touches {@link JdbcEvents} while it is. Nothing here refers to
+ * {@code jdk.jfr}, so on a runtime without it this class loads just the
+ * same, and {@link #active} is simply never set.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+final class FlightRecording {
+	/**
+	 * {@code true} while any flight recording is running.
+	 */
+	static volatile boolean active;
+
+	static {
+		try {
+			JdbcEvents.register();
+		} catch (LinkageError e) {
+			// no jdk.jfr module in this runtime
+		} catch (SecurityException e) {
+			// not allowed to listen to the flight recorder
+		}
+	}
+
+	private FlightRecording() {
+		// flag only
+	}
+}
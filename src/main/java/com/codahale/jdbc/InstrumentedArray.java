@@ -0,0 +1,91 @@
+package com.codahale.jdbc;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * An {@link Array} which delegates directly to an underlying array,
+ * without reflection. The {@link ResultSet}s it returns are
+ * instrumented in the same way.
+ * 
+ * @author coda
+ *
+ */
+public class InstrumentedArray implements Array, Instrumented {
+	static Array wrap(Array array, Profile profile) {
+		if (array == null) {
+			return null;
+		}
+		return new InstrumentedArray(array, profile);
+	}
+
+	private final Array array;
+	private final Profile profile;
+
+	InstrumentedArray(Array array, Profile profile) {
+		this.array = array;
+		this.profile = profile;
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return array.getClass();
+	}
+
+	@Override
+	public void free() throws SQLException {
+		array.free();
+	}
+
+	@Override
+	public Object getArray() throws SQLException {
+		return array.getArray();
+	}
+
+	@Override
+	public Object getArray(Map<String, Class<?>> map) throws SQLException {
+		return array.getArray(map);
+	}
+
+	@Override
+	public Object getArray(long index, int count) throws SQLException {
+		return array.getArray(index, count);
+	}
+
+	@Override
+	public Object getArray(long index, int count, Map<String, Class<?>> map) throws SQLException {
+		return array.getArray(index, count, map);
+	}
+
+	@Override
+	public int getBaseType() throws SQLException {
+		return array.getBaseType();
+	}
+
+	@Override
+	public String getBaseTypeName() throws SQLException {
+		return array.getBaseTypeName();
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return InstrumentedResultSet.wrap(array.getResultSet(), null, profile);
+	}
+
+	@Override
+	public ResultSet getResultSet(Map<String, Class<?>> map) throws SQLException {
+		return InstrumentedResultSet.wrap(array.getResultSet(map), null, profile);
+	}
+
+	@Override
+	public ResultSet getResultSet(long index, int count) throws SQLException {
+		return InstrumentedResultSet.wrap(array.getResultSet(index, count), null, profile);
+	}
+
+	@Override
+	public ResultSet getResultSet(long index, int count, Map<String, Class<?>> map) throws SQLException {
+		return InstrumentedResultSet.wrap(array.getResultSet(index, count, map), null, profile);
+	}
+}
@@ -0,0 +1,108 @@
+package com.codahale.jdbc;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+
+/**
+ * A {@link Blob} which delegates directly to an underlying blob, without
+ * reflection, and logs the time spent reading it in {@link Stopwatch}. The
+ * streams it returns are instrumented in the same way.
+ * 
+ * @author coda
+ *
+ */
+public class InstrumentedBlob implements Blob, Instrumented {
+	static Blob wrap(Blob blob, Profile profile) {
+		if (blob == null) {
+			return null;
+		}
+		return new InstrumentedBlob(blob, profile);
+	}
+
+	private final Blob blob;
+	private final Profile profile;
+
+	InstrumentedBlob(Blob blob, Profile profile) {
+		this.blob = blob;
+		this.profile = profile;
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return blob.getClass();
+	}
+
+	@Override
+	public void free() throws SQLException {
+		blob.free();
+	}
+
+	@Override
+	public InputStream getBinaryStream() throws SQLException {
+		return InstrumentedInputStream.wrap(blob.getBinaryStream(), profile);
+	}
+
+	@Override
+	public InputStream getBinaryStream(long pos, long length) throws SQLException {
+		return InstrumentedInputStream.wrap(blob.getBinaryStream(pos, length), profile);
+	}
+
+	@Override
+	public byte[] getBytes(long pos, int length) throws SQLException {
+		final long start = Recorder.start(profile, Category.LOB);
+		boolean succeeded = false;
+		byte[] result = null;
+		try {
+			result = blob.getBytes(pos, length);
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopRead(profile, start, (result == null) ? 0 : result.length, succeeded);
+		}
+	}
+
+	@Override
+	public long length() throws SQLException {
+		final long start = Recorder.start(profile, Category.LOB);
+		boolean succeeded = false;
+		try {
+			final long result = blob.length();
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopRead(profile, start, 0, succeeded);
+		}
+	}
+
+	@Override
+	public long position(Blob pattern, long start) throws SQLException {
+		return blob.position(pattern, start);
+	}
+
+	@Override
+	public long position(byte[] pattern, long start) throws SQLException {
+		return blob.position(pattern, start);
+	}
+
+	@Override
+	public OutputStream setBinaryStream(long pos) throws SQLException {
+		return blob.setBinaryStream(pos);
+	}
+
+	@Override
+	public int setBytes(long pos, byte[] bytes) throws SQLException {
+		return blob.setBytes(pos, bytes);
+	}
+
+	@Override
+	public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException {
+		return blob.setBytes(pos, bytes, offset, len);
+	}
+
+	@Override
+	public void truncate(long len) throws SQLException {
+		blob.truncate(len);
+	}
+}
@@ -0,0 +1,123 @@
+package com.codahale.jdbc;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.NClob;
+import java.sql.SQLException;
+
+/**
+ * A {@link Clob} which delegates directly to an underlying clob, without
+ * reflection, and logs the time spent reading it in {@link Stopwatch}. The
+ * streams and readers it returns are instrumented in the same way.
+ * 
+ * @author coda
+ *
+ */
+public class InstrumentedClob implements Clob, Instrumented {
+	static Clob wrap(Clob clob, Profile profile) {
+		if (clob == null) {
+			return null;
+		} else if (clob instanceof NClob) {
+			return new InstrumentedNClob((NClob) clob, profile);
+		}
+		return new InstrumentedClob(clob, profile);
+	}
+
+	private final Clob clob;
+	private final Profile profile;
+
+	InstrumentedClob(Clob clob, Profile profile) {
+		this.clob = clob;
+		this.profile = profile;
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return clob.getClass();
+	}
+
+	@Override
+	public void free() throws SQLException {
+		clob.free();
+	}
+
+	@Override
+	public InputStream getAsciiStream() throws SQLException {
+		return InstrumentedInputStream.wrap(clob.getAsciiStream(), profile);
+	}
+
+	@Override
+	public Reader getCharacterStream() throws SQLException {
+		return InstrumentedReader.wrap(clob.getCharacterStream(), profile);
+	}
+
+	@Override
+	public Reader getCharacterStream(long pos, long length) throws SQLException {
+		return InstrumentedReader.wrap(clob.getCharacterStream(pos, length), profile);
+	}
+
+	@Override
+	public String getSubString(long pos, int length) throws SQLException {
+		final long start = Recorder.start(profile, Category.LOB);
+		boolean succeeded = false;
+		String result = null;
+		try {
+			result = clob.getSubString(pos, length);
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopRead(profile, start, (result == null) ? 0 : 2L * result.length(), succeeded);
+		}
+	}
+
+	@Override
+	public long length() throws SQLException {
+		final long start = Recorder.start(profile, Category.LOB);
+		boolean succeeded = false;
+		try {
+			final long result = clob.length();
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopRead(profile, start, 0, succeeded);
+		}
+	}
+
+	@Override
+	public long position(Clob searchstr, long start) throws SQLException {
+		return clob.position(searchstr, start);
+	}
+
+	@Override
+	public long position(String searchstr, long start) throws SQLException {
+		return clob.position(searchstr, start);
+	}
+
+	@Override
+	public OutputStream setAsciiStream(long pos) throws SQLException {
+		return clob.setAsciiStream(pos);
+	}
+
+	@Override
+	public Writer setCharacterStream(long pos) throws SQLException {
+		return clob.setCharacterStream(pos);
+	}
+
+	@Override
+	public int setString(long pos, String str) throws SQLException {
+		return clob.setString(pos, str);
+	}
+
+	@Override
+	public int setString(long pos, String str, int offset, int len) throws SQLException {
+		return clob.setString(pos, str, offset, len);
+	}
+
+	@Override
+	public void truncate(long len) throws SQLException {
+		clob.truncate(len);
+	}
+}
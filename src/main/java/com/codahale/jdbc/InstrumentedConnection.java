@@ -0,0 +1,510 @@
+package com.codahale.jdbc;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Connection} which delegates directly to an underlying
+ * connection, without reflection, and logs the time spent committing,
+ * rolling back, and setting auto-commit and savepoints in {@link Stopwatch}. The {@link Statement}s,
+ * {@link DatabaseMetaData}s, and {@link Array}s it returns are
+ * instrumented in the same way.
+ * 
+ * @author coda
+ *
+ */
+public class InstrumentedConnection implements Connection, Instrumented {
+	static Connection wrap(Connection connection, Profile profile) {
+		if (connection == null) {
+			return null;
+		}
+		return new InstrumentedConnection(connection, profile);
+	}
+
+	private final Connection connection;
+	private final Profile profile;
+	private final Runnable onClose;
+	private final StatementCache statementCache;
+
+	InstrumentedConnection(Connection connection, Profile profile) {
+		this(connection, profile, null);
+	}
+
+	InstrumentedConnection(Connection connection, Profile profile, Runnable onClose) {
+		this.connection = connection;
+		this.profile = profile;
+		this.onClose = onClose;
+		this.statementCache = StatementCache.create(profile);
+		if (profile.transaction != null) {
+			profile.transaction.attach(connection);
+		}
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return connection.getClass();
+	}
+
+	@Override
+	public void abort(Executor executor) throws SQLException {
+		try {
+			if (profile.transaction != null) {
+				profile.transaction.end(false);
+			}
+			final SQLException failure = closeStatementCache();
+			try {
+				connection.abort(executor);
+			} catch (SQLException e) {
+				if (failure != null) {
+					e.addSuppressed(failure);
+				}
+				throw e;
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			invalidateWrites();
+			if (onClose != null) {
+				onClose.run();
+			}
+		}
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		connection.clearWarnings();
+	}
+
+	@Override
+	public void close() throws SQLException {
+		try {
+			if (profile.transaction != null) {
+				profile.transaction.end(false);
+			}
+			final SQLException failure = closeStatementCache();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				if (failure != null) {
+					e.addSuppressed(failure);
+				}
+				throw e;
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			invalidateWrites();
+			if (onClose != null) {
+				onClose.run();
+			}
+		}
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		final long start = Recorder.start(profile, Category.TRANSACTION);
+		boolean succeeded = false;
+		try {
+			connection.commit();
+			succeeded = true;
+			if (profile.transaction != null) {
+				profile.transaction.end(true);
+			}
+		} finally {
+			invalidateWrites();
+			Recorder.stop(profile, Category.TRANSACTION, null, start, succeeded);
+		}
+	}
+
+	@Override
+	public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+		return InstrumentedArray.wrap(connection.createArrayOf(typeName, elements), profile);
+	}
+
+	@Override
+	public Blob createBlob() throws SQLException {
+		return connection.createBlob();
+	}
+
+	@Override
+	public Clob createClob() throws SQLException {
+		return connection.createClob();
+	}
+
+	@Override
+	public NClob createNClob() throws SQLException {
+		return connection.createNClob();
+	}
+
+	@Override
+	public SQLXML createSQLXML() throws SQLException {
+		return connection.createSQLXML();
+	}
+
+	@Override
+	public Statement createStatement() throws SQLException {
+		return new InstrumentedStatement(connection.createStatement(), this, null, profile);
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+		return new InstrumentedStatement(connection.createStatement(resultSetType, resultSetConcurrency), this, null, profile);
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return new InstrumentedStatement(connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability), this, null, profile);
+	}
+
+	@Override
+	public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+		return connection.createStruct(typeName, attributes);
+	}
+
+	@Override
+	public boolean getAutoCommit() throws SQLException {
+		return connection.getAutoCommit();
+	}
+
+	@Override
+	public String getCatalog() throws SQLException {
+		return connection.getCatalog();
+	}
+
+	@Override
+	public Properties getClientInfo() throws SQLException {
+		return connection.getClientInfo();
+	}
+
+	@Override
+	public String getClientInfo(String name) throws SQLException {
+		return connection.getClientInfo(name);
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		return connection.getHoldability();
+	}
+
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return new InstrumentedDatabaseMetaData(connection.getMetaData(), this, profile);
+	}
+
+	@Override
+	public int getNetworkTimeout() throws SQLException {
+		return connection.getNetworkTimeout();
+	}
+
+	@Override
+	public String getSchema() throws SQLException {
+		return connection.getSchema();
+	}
+
+	@Override
+	public int getTransactionIsolation() throws SQLException {
+		return connection.getTransactionIsolation();
+	}
+
+	@Override
+	public Map<String, Class<?>> getTypeMap() throws SQLException {
+		return connection.getTypeMap();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return connection.getWarnings();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return connection.isClosed();
+	}
+
+	@Override
+	public boolean isReadOnly() throws SQLException {
+		return connection.isReadOnly();
+	}
+
+	@Override
+	public boolean isValid(int timeout) throws SQLException {
+		return connection.isValid(timeout);
+	}
+
+	@Override
+	public boolean isWrapperFor(java.lang.Class<?> iface) throws SQLException {
+		return connection.isWrapperFor(iface);
+	}
+
+	@Override
+	public String nativeSQL(String sql) throws SQLException {
+		return connection.nativeSQL(sql);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		if (statementCache != null) {
+			return (CallableStatement) prepareCached(new StatementCache.Key(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0));
+		}
+		return new InstrumentedCallableStatement(connection.prepareCall(sql), this, FingerprintCache.getInstance().fingerprint(sql), profile);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		if (statementCache != null) {
+			return (CallableStatement) prepareCached(new StatementCache.Key(sql, true, resultSetType, resultSetConcurrency, 0));
+		}
+		return new InstrumentedCallableStatement(connection.prepareCall(sql, resultSetType, resultSetConcurrency), this, FingerprintCache.getInstance().fingerprint(sql), profile);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		if (statementCache != null) {
+			return (CallableStatement) prepareCached(new StatementCache.Key(sql, true, resultSetType, resultSetConcurrency, resultSetHoldability));
+		}
+		return new InstrumentedCallableStatement(connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability), this, FingerprintCache.getInstance().fingerprint(sql), profile);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		if (statementCache != null) {
+			return prepareCached(new StatementCache.Key(sql, false, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0));
+		}
+		return prepared(connection.prepareStatement(sql), sql);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+		return prepared(connection.prepareStatement(sql, columnNames), sql);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		return prepared(connection.prepareStatement(sql, autoGeneratedKeys), sql);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+		return prepared(connection.prepareStatement(sql, columnIndexes), sql);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		if (statementCache != null) {
+			return prepareCached(new StatementCache.Key(sql, false, resultSetType, resultSetConcurrency, 0));
+		}
+		return prepared(connection.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		if (statementCache != null) {
+			return prepareCached(new StatementCache.Key(sql, false, resultSetType, resultSetConcurrency, resultSetHoldability));
+		}
+		return prepared(connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+	}
+
+	@Override
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		final long start = Recorder.start(profile, Category.TRANSACTION);
+		boolean succeeded = false;
+		try {
+			connection.releaseSavepoint(savepoint);
+			succeeded = true;
+		} finally {
+			Recorder.stop(profile, Category.TRANSACTION, null, start, succeeded);
+		}
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		final long start = Recorder.start(profile, Category.TRANSACTION);
+		boolean succeeded = false;
+		try {
+			connection.rollback();
+			succeeded = true;
+			if (profile.transaction != null) {
+				profile.transaction.end(false);
+			}
+		} finally {
+			invalidateWrites();
+			Recorder.stop(profile, Category.TRANSACTION, null, start, succeeded);
+		}
+	}
+
+	@Override
+	public void rollback(Savepoint savepoint) throws SQLException {
+		final long start = Recorder.start(profile, Category.TRANSACTION);
+		boolean succeeded = false;
+		try {
+			connection.rollback(savepoint);
+			succeeded = true;
+		} finally {
+			Recorder.stop(profile, Category.TRANSACTION, null, start, succeeded);
+		}
+	}
+
+	@Override
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		final long start = Recorder.start(profile, Category.TRANSACTION);
+		boolean succeeded = false;
+		try {
+			connection.setAutoCommit(autoCommit);
+			succeeded = true;
+			if (profile.transaction != null) {
+				profile.transaction.setAutoCommit(autoCommit);
+			}
+		} finally {
+			invalidateWrites();
+			Recorder.stop(profile, Category.TRANSACTION, null, start, succeeded);
+		}
+	}
+
+	@Override
+	public void setCatalog(String catalog) throws SQLException {
+		connection.setCatalog(catalog);
+	}
+
+	@Override
+	public void setClientInfo(Properties properties) throws SQLClientInfoException {
+		connection.setClientInfo(properties);
+	}
+
+	@Override
+	public void setClientInfo(String name, String value) throws SQLClientInfoException {
+		connection.setClientInfo(name, value);
+	}
+
+	@Override
+	public void setHoldability(int holdability) throws SQLException {
+		connection.setHoldability(holdability);
+	}
+
+	@Override
+	public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+		connection.setNetworkTimeout(executor, milliseconds);
+	}
+
+	@Override
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		connection.setReadOnly(readOnly);
+	}
+
+	@Override
+	public Savepoint setSavepoint() throws SQLException {
+		final long start = Recorder.start(profile, Category.TRANSACTION);
+		boolean succeeded = false;
+		try {
+			final Savepoint savepoint = connection.setSavepoint();
+			succeeded = true;
+			return savepoint;
+		} finally {
+			savepointSet(start, succeeded);
+		}
+	}
+
+	@Override
+	public Savepoint setSavepoint(String name) throws SQLException {
+		final long start = Recorder.start(profile, Category.TRANSACTION);
+		boolean succeeded = false;
+		try {
+			final Savepoint savepoint = connection.setSavepoint(name);
+			succeeded = true;
+			return savepoint;
+		} finally {
+			savepointSet(start, succeeded);
+		}
+	}
+
+	@Override
+	public void setSchema(String schema) throws SQLException {
+		connection.setSchema(schema);
+	}
+
+	@Override
+	public void setTransactionIsolation(int level) throws SQLException {
+		connection.setTransactionIsolation(level);
+	}
+
+	@Override
+	public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+		connection.setTypeMap(map);
+	}
+
+	@Override
+	public <T> T unwrap(java.lang.Class<T> iface) throws SQLException {
+		return connection.unwrap(iface);
+	}
+
+	private void savepointSet(long start, boolean succeeded) {
+		Recorder.stop(profile, Category.TRANSACTION, null, start, succeeded);
+		if (succeeded && profile.transaction != null) {
+			// a savepoint can only be set inside a transaction
+			profile.transaction.executed(null, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Invalidates the cached results of the tables written to in the
+	 * transaction again, as it has ended.
+	 */
+	private void invalidateWrites() {
+		if (profile.invalidations != null) {
+			profile.invalidations.ended();
+		}
+	}
+
+	/**
+	 * Closes the idle statements in the cache, if any, returning what that
+	 * threw rather than throwing it, so the connection is closed regardless.
+	 */
+	private SQLException closeStatementCache() {
+		if (statementCache != null) {
+			try {
+				statementCache.close();
+			} catch (SQLException e) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	private InstrumentedPreparedStatement prepareCached(StatementCache.Key key) throws SQLException {
+		final StatementCache.Entry entry = statementCache.prepare(connection, key);
+		final String fingerprint = FingerprintCache.getInstance().fingerprint(key.sql);
+		final InstrumentedPreparedStatement instrumented;
+		if (key.callable) {
+			instrumented = new InstrumentedCallableStatement((CallableStatement) entry.statement, this, fingerprint, profile);
+		} else {
+			instrumented = new InstrumentedPreparedStatement(entry.statement, this, fingerprint, profile);
+			instrumented.cacheResults(key.sql);
+		}
+		instrumented.cacheIn(statementCache, entry);
+		return instrumented;
+	}
+
+	private PreparedStatement prepared(PreparedStatement statement, String sql) {
+		final InstrumentedPreparedStatement instrumented = new InstrumentedPreparedStatement(statement, this, FingerprintCache.getInstance().fingerprint(sql), profile);
+		instrumented.cacheResults(sql);
+		return instrumented;
+	}
+}
@@ -0,0 +1,87 @@
+package com.codahale.jdbc;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * An {@link InputStream} over a column or large object which logs the time
+ * spent in bulk reads, and the bytes read, in {@link Stopwatch}.
+ * <p>
+ * Only {@link #read(byte[], int, int)} is timed. Single-byte reads are
+ * counted, but not timed, so that code which reads a byte at a time doesn't
+ * read the clock for each one; their bytes are added with those of the next
+ * bulk read or when the stream is closed.
+ * 
+ * @author coda
+ *
+ */
+@NotThreadSafe
+public class InstrumentedInputStream extends FilterInputStream implements Instrumented {
+	static InputStream wrap(InputStream stream, Profile profile) {
+		if (stream == null) {
+			return null;
+		}
+		return new InstrumentedInputStream(stream, profile);
+	}
+
+	private final Profile profile;
+	private long pending;
+
+	InstrumentedInputStream(InputStream stream, Profile profile) {
+		super(stream);
+		this.profile = profile;
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return in.getClass();
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = in.read();
+		if (b >= 0) {
+			pending++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		final long start = Recorder.start(profile, Category.LOB);
+		boolean succeeded = false;
+		int n = 0;
+		try {
+			n = in.read(b, off, len);
+			succeeded = true;
+			return n;
+		} finally {
+			Recorder.stopRead(profile, start, Math.max(n, 0), succeeded);
+			flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			in.close();
+		} finally {
+			flush();
+		}
+	}
+
+	private void flush() {
+		if (pending > 0) {
+			Recorder.recordBytes(profile, pending, 1);
+			pending = 0;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.codahale.jdbc;
+
+import java.sql.NClob;
+
+/**
+ * An {@link NClob} which delegates directly to an underlying nclob, without
+ * reflection, and logs the time spent reading it in {@link Stopwatch}.
+ * 
+ * @author coda
+ *
+ */
+public class InstrumentedNClob extends InstrumentedClob implements NClob {
+	static NClob wrap(NClob nclob, Profile profile) {
+		if (nclob == null) {
+			return null;
+		}
+		return new InstrumentedNClob(nclob, profile);
+	}
+
+	InstrumentedNClob(NClob nclob, Profile profile) {
+		super(nclob, profile);
+	}
+}
@@ -0,0 +1,83 @@
+package com.codahale.jdbc;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A {@link Reader} over a column or large object which logs the time spent
+ * in bulk reads, and the bytes read, in {@link Stopwatch}. Characters are
+ * counted as two bytes each.
+ * <p>
+ * Only {@link #read(char[], int, int)} is timed. Single-character reads are
+ * counted, but not timed, so that code which reads a character at a time
+ * doesn't read the clock for each one; their bytes are added with those of
+ * the next bulk read or when the reader is closed.
+ * 
+ * @author coda
+ *
+ */
+@NotThreadSafe
+public class InstrumentedReader extends FilterReader implements Instrumented {
+	static Reader wrap(Reader reader, Profile profile) {
+		if (reader == null) {
+			return null;
+		}
+		return new InstrumentedReader(reader, profile);
+	}
+
+	private final Profile profile;
+	private long pending;
+
+	InstrumentedReader(Reader reader, Profile profile) {
+		super(reader);
+		this.profile = profile;
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return in.getClass();
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int c = in.read();
+		if (c >= 0) {
+			pending += 2;
+		}
+		return c;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		final long start = Recorder.start(profile, Category.LOB);
+		boolean succeeded = false;
+		int n = 0;
+		try {
+			n = in.read(cbuf, off, len);
+			succeeded = true;
+			return n;
+		} finally {
+			Recorder.stopRead(profile, start, 2L * Math.max(n, 0), succeeded);
+			flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			in.close();
+		} finally {
+			flush();
+		}
+	}
+
+	private void flush() {
+		if (pending > 0) {
+			Recorder.recordBytes(profile, pending, 1);
+			pending = 0;
+		}
+	}
+}
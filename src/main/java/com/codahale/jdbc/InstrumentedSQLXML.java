@@ -0,0 +1,95 @@
+package com.codahale.jdbc;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+
+/**
+ * An {@link SQLXML} which delegates directly to an underlying value, without
+ * reflection, and logs the time spent reading it in {@link Stopwatch}. The
+ * streams and readers it returns are instrumented in the same way.
+ * 
+ * @author coda
+ *
+ */
+public class InstrumentedSQLXML implements SQLXML, Instrumented {
+	static SQLXML wrap(SQLXML xml, Profile profile) {
+		if (xml == null) {
+			return null;
+		}
+		return new InstrumentedSQLXML(xml, profile);
+	}
+
+	private final SQLXML xml;
+	private final Profile profile;
+
+	InstrumentedSQLXML(SQLXML xml, Profile profile) {
+		this.xml = xml;
+		this.profile = profile;
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return xml.getClass();
+	}
+
+	@Override
+	public void free() throws SQLException {
+		xml.free();
+	}
+
+	@Override
+	public InputStream getBinaryStream() throws SQLException {
+		return InstrumentedInputStream.wrap(xml.getBinaryStream(), profile);
+	}
+
+	@Override
+	public Reader getCharacterStream() throws SQLException {
+		return InstrumentedReader.wrap(xml.getCharacterStream(), profile);
+	}
+
+	@Override
+	public <T extends Source> T getSource(Class<T> sourceClass) throws SQLException {
+		return xml.getSource(sourceClass);
+	}
+
+	@Override
+	public String getString() throws SQLException {
+		final long start = Recorder.start(profile, Category.LOB);
+		boolean succeeded = false;
+		String result = null;
+		try {
+			result = xml.getString();
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopRead(profile, start, (result == null) ? 0 : 2L * result.length(), succeeded);
+		}
+	}
+
+	@Override
+	public OutputStream setBinaryStream() throws SQLException {
+		return xml.setBinaryStream();
+	}
+
+	@Override
+	public Writer setCharacterStream() throws SQLException {
+		return xml.setCharacterStream();
+	}
+
+	@Override
+	public <T extends Result> T setResult(Class<T> resultClass) throws SQLException {
+		return xml.setResult(resultClass);
+	}
+
+	@Override
+	public void setString(String value) throws SQLException {
+		xml.setString(value);
+	}
+}
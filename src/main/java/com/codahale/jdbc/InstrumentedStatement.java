@@ -0,0 +1,540 @@
+package com.codahale.jdbc;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * A {@link Statement} which delegates directly to an underlying
+ * statement, without reflection, and logs the time spent executing
+ * queries in {@link Stopwatch}.
+ * 
+ * @author coda
+ *
+ */
+public class InstrumentedStatement implements Statement, Instrumented {
+	static Statement wrap(Statement statement, Connection connection, Profile profile) {
+		if (statement == null) {
+			return null;
+		} else if (statement instanceof CallableStatement) {
+			return new InstrumentedCallableStatement((CallableStatement) statement, connection, null, profile);
+		} else if (statement instanceof PreparedStatement) {
+			return new InstrumentedPreparedStatement((PreparedStatement) statement, connection, null, profile);
+		}
+		return new InstrumentedStatement(statement, connection, null, profile);
+	}
+
+	private Statement statement;
+	private final Connection connection;
+	final Profile profile;
+	String fingerprint;
+	int batchSize;
+	// the cache to put the statement back in when it's closed, if any
+	private StatementCache cache;
+	private StatementCache.Entry cacheEntry;
+	private boolean released;
+	// the StatementCache changes made to the statement's options
+	private int changes;
+
+	InstrumentedStatement(Statement statement, Connection connection, String fingerprint, Profile profile) {
+		this.statement = statement;
+		this.connection = connection;
+		this.profile = profile;
+		this.fingerprint = fingerprint;
+	}
+
+	@Override
+	public Class<?> getOriginalClass() {
+		return released ? cacheEntry.statement.getClass() : statement.getClass();
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		statement.addBatch(sql);
+		batchSize++;
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		statement.cancel();
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		statement.clearBatch();
+		this.batchSize = 0;
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		statement.clearWarnings();
+	}
+
+	/**
+	 * Makes {@link #close()} put the statement of {@code entry} back in
+	 * {@code cache}, rather than closing it.
+	 */
+	void cacheIn(StatementCache cache, StatementCache.Entry entry) {
+		this.cache = cache;
+		this.cacheEntry = entry;
+	}
+
+	/**
+	 * Stops delegating to the statement, which has been put back in its
+	 * cache, so that any further call fails as if it had been closed.
+	 */
+	void detach() {
+		this.statement = StatementCache.CLOSED;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if (cache == null) {
+			statement.close();
+		} else if (!released) {
+			released = true;
+			detach();
+			final PreparedStatement cached = cacheEntry.statement;
+			if (batchSize > 0) {
+				cached.clearBatch();
+			}
+			cache.release(cacheEntry, changes);
+		}
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		statement.closeOnCompletion();
+		changes |= StatementCache.DISCARD;
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.EXECUTE);
+		boolean succeeded = false;
+		try {
+			final boolean result = statement.execute(sql);
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stop(profile, Category.EXECUTE, fingerprint, start, succeeded);
+		}
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.EXECUTE);
+		boolean succeeded = false;
+		try {
+			final boolean result = statement.execute(sql, columnNames);
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stop(profile, Category.EXECUTE, fingerprint, start, succeeded);
+		}
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.EXECUTE);
+		boolean succeeded = false;
+		try {
+			final boolean result = statement.execute(sql, autoGeneratedKeys);
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stop(profile, Category.EXECUTE, fingerprint, start, succeeded);
+		}
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.EXECUTE);
+		boolean succeeded = false;
+		try {
+			final boolean result = statement.execute(sql, columnIndexes);
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stop(profile, Category.EXECUTE, fingerprint, start, succeeded);
+		}
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		final int size = batchSize;
+		this.batchSize = 0;
+		final long start = Recorder.start(profile, Category.BATCH);
+		boolean succeeded = false;
+		int[] result = null;
+		try {
+			result = statement.executeBatch();
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopBatch(profile, fingerprint, start, size, BatchStatistics.rowsAffected(result), succeeded);
+		}
+	}
+
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		final int size = batchSize;
+		this.batchSize = 0;
+		final long start = Recorder.start(profile, Category.BATCH);
+		boolean succeeded = false;
+		long[] result = null;
+		try {
+			result = statement.executeLargeBatch();
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopBatch(profile, fingerprint, start, size, BatchStatistics.rowsAffected(result), succeeded);
+		}
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final long result = statement.executeLargeUpdate(sql);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final long result = statement.executeLargeUpdate(sql, columnNames);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final long result = statement.executeLargeUpdate(sql, autoGeneratedKeys);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final long result = statement.executeLargeUpdate(sql, columnIndexes);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		if (profile.resultCache != null && profile.resultCache.isCacheable(fingerprint)) {
+			return executeCachedQuery(new ResultCache.Key(sql, fingerprint, null), sql);
+		}
+		final long start = Recorder.start(profile, Category.QUERY);
+		boolean succeeded = false;
+		try {
+			final ResultSet result = InstrumentedResultSet.wrap(statement.executeQuery(sql), this, profile);
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stop(profile, Category.QUERY, fingerprint, start, succeeded);
+		}
+	}
+
+	/**
+	 * Returns the results of the query for {@code key} from the connection's
+	 * {@link ResultCache}, or executes it, either as {@code sql} or, if
+	 * that's {@code null}, as this prepared statement, and reads them
+	 * through into the cache.
+	 */
+	ResultSet executeCachedQuery(ResultCache.Key key, String sql) throws SQLException {
+		final ResultSet cached = profile.resultCache.get(profile, key);
+		if (cached != null) {
+			return cached;
+		}
+
+		final long generation = profile.resultCache.generation();
+		final ResultSet results;
+		final long start = Recorder.start(profile, Category.QUERY);
+		boolean succeeded = false;
+		try {
+			results = (sql == null) ? ((PreparedStatement) statement).executeQuery() : statement.executeQuery(sql);
+			succeeded = true;
+		} finally {
+			Recorder.stop(profile, Category.QUERY, fingerprint, start, succeeded);
+		}
+		return profile.resultCache.put(profile, key, generation, results);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final int result = statement.executeUpdate(sql);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final int result = statement.executeUpdate(sql, columnNames);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final int result = statement.executeUpdate(sql, autoGeneratedKeys);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		this.fingerprint = FingerprintCache.getInstance().fingerprint(sql);
+		final long start = Recorder.start(profile, Category.UPDATE);
+		boolean succeeded = false;
+		long rows = 0;
+		try {
+			final int result = statement.executeUpdate(sql, columnIndexes);
+			rows = result;
+			succeeded = true;
+			return result;
+		} finally {
+			Recorder.stopUpdate(profile, fingerprint, start, rows, succeeded);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (connection == null) {
+			return InstrumentedConnection.wrap(statement.getConnection(), profile);
+		}
+		return connection;
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return statement.getFetchDirection();
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return statement.getFetchSize();
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return InstrumentedResultSet.wrap(statement.getGeneratedKeys(), this, profile);
+	}
+
+	@Override
+	public long getLargeMaxRows() throws SQLException {
+		return statement.getLargeMaxRows();
+	}
+
+	@Override
+	public long getLargeUpdateCount() throws SQLException {
+		return statement.getLargeUpdateCount();
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return statement.getMaxFieldSize();
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		return statement.getMaxRows();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return statement.getMoreResults();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return statement.getMoreResults(current);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return statement.getQueryTimeout();
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return InstrumentedResultSet.wrap(statement.getResultSet(), this, profile);
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return statement.getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return statement.getResultSetHoldability();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return statement.getResultSetType();
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return statement.getUpdateCount();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return statement.getWarnings();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return statement.isCloseOnCompletion();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return released || statement.isClosed();
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return statement.isPoolable();
+	}
+
+	@Override
+	public boolean isWrapperFor(java.lang.Class<?> iface) throws SQLException {
+		return statement.isWrapperFor(iface);
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		statement.setCursorName(name);
+		changes |= StatementCache.DISCARD;
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		statement.setEscapeProcessing(enable);
+		changes |= StatementCache.DISCARD;
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		statement.setFetchDirection(direction);
+		changes |= StatementCache.RESET;
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		statement.setFetchSize(rows);
+		changes |= StatementCache.RESET;
+	}
+
+	@Override
+	public void setLargeMaxRows(long max) throws SQLException {
+		statement.setLargeMaxRows(max);
+		changes |= StatementCache.RESET;
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		statement.setMaxFieldSize(max);
+		changes |= StatementCache.RESET;
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		statement.setMaxRows(max);
+		changes |= StatementCache.RESET;
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		statement.setPoolable(poolable);
+		changes |= StatementCache.DISCARD;
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		statement.setQueryTimeout(seconds);
+		changes |= StatementCache.RESET;
+	}
+
+	@Override
+	public <T> T unwrap(java.lang.Class<T> iface) throws SQLException {
+		return statement.unwrap(iface);
+	}
+}
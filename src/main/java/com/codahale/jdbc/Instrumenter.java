@@ -1,96 +1,627 @@
 package com.codahale.jdbc;
 
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Array;
+import java.sql.Blob;
 import java.sql.CallableStatement;
+import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.NClob;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLXML;
 import java.sql.Statement;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A dynamic wrapper which instruments {@link Connection}s, {@link Array}s,
  * {@link CallableStatement}s, {@link DatabaseMetaData}s,
  * {@link PreparedStatement}s, {@link ResultSet}s, and {@link Statement}s to
- * log the time spent performing database queries in {@link Stopwatch}.
+ * log the time spent performing database queries in {@link Stopwatch}, along
+ * with the {@link Blob}s, {@link Clob}s, {@link SQLXML}s, and streams they
+ * return, to log the time spent reading them.
+ * <p>
+ * {@link #instrument(Class, Object)} wraps objects in dynamic proxies, which
+ * handle any JDBC interface but pay for reflective dispatch on every call.
+ * {@link #delegate(Class, Object)} wraps them in concrete delegating classes
+ * (e.g. {@link InstrumentedConnection}) instead, which is much cheaper for
+ * hot loops over large {@link ResultSet}s.
+ * <p>
+ * Either way, the {@link FingerprintCache fingerprint} of the SQL each
+ * statement is prepared or executed with is carried along so that executions
+ * are also recorded in {@link QueryStatistics}.
+ * <p>
+ * The proxy path does as little as it can per call. What to do for each
+ * {@link Method} (whether to time it, which category it falls in, whether
+ * its first argument is SQL, and how to wrap its return value) is worked out
+ * the first time it's called and then found with a single identity lookup.
+ * The proxy class and constructor for each implementation class and
+ * interface set are created once and cached in a {@link ClassValue}.
  * 
  * @author coda
  *
  */
 public class Instrumenter implements InvocationHandler {
-	private static final Class<?>[] ARRAY_INTERFACES = new Class[] { Array.class, Instrumented.class };
-	private static final Class<?>[] CALLABLE_STATEMENT_INTERFACES = new Class[] { CallableStatement.class, Instrumented.class };
-	private static final Class<?>[] CONNECTION_INTERFACES = new Class[] { Connection.class, Instrumented.class };
-	private static final Class<?>[] DATABASE_META_DATA_INTERFACES = new Class[] { DatabaseMetaData.class, Instrumented.class };
-	private static final Class<?>[] PREPARED_STATEMENT_INTERFACES = new Class[] { PreparedStatement.class, Instrumented.class };
-	private static final Class<?>[] RESULT_SET_INTERFACES = new Class[] { ResultSet.class, Instrumented.class };
-	private static final Class<?>[] STATEMENT_INTERFACES = new Class[] { Statement.class, Instrumented.class };
-	private static final Set<String> TIMED_METHODS = new HashSet<String>(5);
-	{{
-		TIMED_METHODS.add("execute");
-		TIMED_METHODS.add("executeQuery");
-		TIMED_METHODS.add("executeUpdate");
-		TIMED_METHODS.add("executeBatch");
-		TIMED_METHODS.add("next");
-	}}
+	/**
+	 * The kinds of object which are wrapped, and the interfaces their proxies
+	 * implement. Large objects and streams are always wrapped in delegating
+	 * classes, as streams are classes rather than interfaces, and only when
+	 * they're read from the database ({@code get...}), so that those created
+	 * to be written ({@code createBlob()} and so on) can still be passed back
+	 * to the driver.
+	 */
+	private enum Kind {
+		ARRAY(Array.class, true),
+		CALLABLE_STATEMENT(CallableStatement.class, true),
+		CONNECTION(Connection.class, true),
+		DATABASE_META_DATA(DatabaseMetaData.class, true),
+		PREPARED_STATEMENT(PreparedStatement.class, true),
+		RESULT_SET(ResultSet.class, true),
+		STATEMENT(Statement.class, true),
+		BLOB(Blob.class, false),
+		NCLOB(NClob.class, false),
+		CLOB(Clob.class, false),
+		SQLXML(SQLXML.class, false),
+		INPUT_STREAM(InputStream.class, false),
+		READER(Reader.class, false),
+		NONE(null, false);
+
+		static Kind of(Class<?> klass) {
+			for (Kind kind : values()) {
+				if (kind.type != null && kind.type.isAssignableFrom(klass)) {
+					return kind;
+				}
+			}
+			return NONE;
+		}
+
+		final Class<?> type;
+		final Class<?>[] interfaces;
+		final boolean proxied;
+
+		private Kind(Class<?> type, boolean proxied) {
+			this.type = type;
+			this.interfaces = new Class<?>[] { type, Instrumented.class };
+			this.proxied = proxied;
+		}
+	}
+
+	/**
+	 * What to do when a method is called on a proxy.
+	 */
+	private static final class Plan {
+		static final int NONE = 0, ORIGINAL_CLASS = 1, NEXT = 2, CLOSE = 3, ABORT = 4, ADD_BATCH = 5, CLEAR_BATCH = 6,
+				PREPARE_STATEMENT = 7, PREPARE_CALL = 8, IS_CLOSED = 9, SET_PARAMETER = 10, SET_NULL = 11,
+				CLEAR_PARAMETERS = 12, COMMIT = 13, ROLLBACK = 14, SET_AUTO_COMMIT = 15, SET_SAVEPOINT = 16,
+				GET_CONNECTION = 17, GET_STATEMENT = 18;
+
+		final Category category;
+		final boolean sql;
+		final boolean getter;
+		final Kind returnKind;
+		final int special;
+		// the StatementCache change the method makes to a statement's options
+		final int change;
+
+		Plan(Method method) {
+			final String name = method.getName();
+			final Class<?>[] parameters = method.getParameterTypes();
+			this.category = TIMED_METHODS.get(name);
+			this.sql = SQL_METHODS.contains(name) && parameters.length > 0 && parameters[0] == String.class;
+			this.getter = name.startsWith("get") && parameters.length > 0 && (parameters[0] == int.class || parameters[0] == String.class);
+			final Kind returnKind = KINDS.get(method.getReturnType());
+			this.returnKind = (returnKind.proxied || name.startsWith("get")) ? returnKind : Kind.NONE;
+			this.change = StatementCache.changeOf(name, parameters.length);
+			if (name.equals("getOriginalClass") && parameters.length == 0) {
+				this.special = ORIGINAL_CLASS;
+			} else if (name.equals("next") && parameters.length == 0) {
+				this.special = NEXT;
+			} else if (name.equals("close") && parameters.length == 0) {
+				this.special = CLOSE;
+			} else if (name.equals("abort") && parameters.length == 1) {
+				this.special = ABORT;
+			} else if (name.equals("addBatch")) {
+				this.special = ADD_BATCH;
+			} else if (name.equals("clearBatch")) {
+				this.special = CLEAR_BATCH;
+			} else if (name.equals("prepareStatement") && this.sql) {
+				this.special = PREPARE_STATEMENT;
+			} else if (name.equals("prepareCall") && this.sql) {
+				this.special = PREPARE_CALL;
+			} else if (name.equals("isClosed") && parameters.length == 0) {
+				this.special = IS_CLOSED;
+			} else if (name.equals("commit") && parameters.length == 0) {
+				this.special = COMMIT;
+			} else if (name.equals("rollback") && parameters.length == 0) {
+				this.special = ROLLBACK;
+			} else if (name.equals("setAutoCommit")) {
+				this.special = SET_AUTO_COMMIT;
+			} else if (name.equals("setSavepoint")) {
+				this.special = SET_SAVEPOINT;
+			} else if (name.equals("setNull") && parameters.length > 1 && parameters[0] == int.class) {
+				this.special = SET_NULL;
+			} else if (name.startsWith("set") && parameters.length > 1 && parameters[0] == int.class) {
+				this.special = SET_PARAMETER;
+			} else if (name.equals("clearParameters")) {
+				this.special = CLEAR_PARAMETERS;
+			} else if (name.equals("getConnection") && parameters.length == 0) {
+				this.special = GET_CONNECTION;
+			} else if (name.equals("getStatement") && parameters.length == 0) {
+				this.special = GET_STATEMENT;
+			} else {
+				this.special = NONE;
+			}
+		}
+	}
+
+	/**
+	 * A proxy class for one implementation class and {@link Kind}, with the
+	 * {@link Plan}s of the methods called on it so far.
+	 */
+	private static final class ProxyType {
+		private final Constructor<?> constructor;
+		private volatile Map<Method, Plan> plans = new IdentityHashMap<Method, Plan>();
+
+		@SuppressWarnings("deprecation")
+		ProxyType(ClassLoader classLoader, Kind kind) throws NoSuchMethodException {
+			this.constructor = Proxy.getProxyClass(classLoader, kind.interfaces).getConstructor(InvocationHandler.class);
+		}
+
+		Object newInstance(InvocationHandler handler) {
+			try {
+				return constructor.newInstance(handler);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException("Can't create proxy!", e.getCause());
+			} catch (ReflectiveOperationException e) {
+				throw new RuntimeException("Can't create proxy!", e);
+			}
+		}
+
+		Plan plan(Method method) {
+			final Plan plan = plans.get(method);
+			if (plan != null) {
+				return plan;
+			}
+			return add(method);
+		}
+
+		private synchronized Plan add(Method method) {
+			Plan plan = plans.get(method);
+			if (plan == null) {
+				// copy on write, since each proxy class has a fixed number of
+				// methods and reads vastly outnumber writes
+				final Map<Method, Plan> copy = new IdentityHashMap<Method, Plan>(plans);
+				plan = new Plan(method);
+				copy.put(method, plan);
+				plans = copy;
+			}
+			return plan;
+		}
+	}
+
+	private static final Map<String, Category> TIMED_METHODS = new HashMap<String, Category>(12);
+	private static final Set<String> SQL_METHODS = new HashSet<String>(7);
+	private static final ClassValue<Kind> KINDS = new ClassValue<Kind>() {
+		@Override
+		protected Kind computeValue(Class<?> type) {
+			return Kind.of(type);
+		}
+	};
+	private static final ClassValue<AtomicReferenceArray<ProxyType>> PROXY_TYPES = new ClassValue<AtomicReferenceArray<ProxyType>>() {
+		@Override
+		protected AtomicReferenceArray<ProxyType> computeValue(Class<?> type) {
+			return new AtomicReferenceArray<ProxyType>(Kind.values().length);
+		}
+	};
+	static {
+		TIMED_METHODS.put("execute", Category.EXECUTE);
+		TIMED_METHODS.put("executeQuery", Category.QUERY);
+		TIMED_METHODS.put("executeUpdate", Category.UPDATE);
+		TIMED_METHODS.put("executeBatch", Category.BATCH);
+		TIMED_METHODS.put("executeLargeUpdate", Category.UPDATE);
+		TIMED_METHODS.put("executeLargeBatch", Category.BATCH);
+		TIMED_METHODS.put("next", Category.FETCH);
+		TIMED_METHODS.put("commit", Category.TRANSACTION);
+		TIMED_METHODS.put("rollback", Category.TRANSACTION);
+		TIMED_METHODS.put("setAutoCommit", Category.TRANSACTION);
+		TIMED_METHODS.put("setSavepoint", Category.TRANSACTION);
+		TIMED_METHODS.put("releaseSavepoint", Category.TRANSACTION);
+		
+		SQL_METHODS.add("prepareStatement");
+		SQL_METHODS.add("prepareCall");
+		SQL_METHODS.add("addBatch");
+		SQL_METHODS.add("execute");
+		SQL_METHODS.add("executeQuery");
+		SQL_METHODS.add("executeUpdate");
+		SQL_METHODS.add("executeLargeUpdate");
+	}
 
-	@SuppressWarnings("unchecked")
 	public static <T> T instrument(Class<? extends T> klass, Object object) {
+		return instrument(KINDS.get(klass), object, null, Profile.DEFAULT, null);
+	}
+
+	static <T> T instrument(Class<? extends T> klass, Object object, Profile profile) {
+		return instrument(KINDS.get(klass), object, null, profile, null);
+	}
+
+	/**
+	 * Wraps {@code object} in a proxy which runs {@code onClose} when it's
+	 * closed.
+	 */
+	static <T> T instrument(Class<? extends T> klass, Object object, Profile profile, Runnable onClose) {
+		return instrument(KINDS.get(klass), object, null, profile, onClose);
+	}
+
+	private static <T> T instrument(Kind kind, Object object, String fingerprint, Profile profile, Runnable onClose) {
+		return instrument(kind, object, fingerprint, profile, onClose, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T instrument(Kind kind, Object object, String fingerprint, Profile profile, Runnable onClose,
+			Object owner) {
+		switch (kind) {
+			case NONE:
+				return (T) object;
+			case BLOB:
+				return (T) InstrumentedBlob.wrap((Blob) object, profile);
+			case NCLOB:
+				return (T) InstrumentedNClob.wrap((NClob) object, profile);
+			case CLOB:
+				return (T) InstrumentedClob.wrap((Clob) object, profile);
+			case SQLXML:
+				return (T) InstrumentedSQLXML.wrap((SQLXML) object, profile);
+			case INPUT_STREAM:
+				return (T) InstrumentedInputStream.wrap((InputStream) object, profile);
+			case READER:
+				return (T) InstrumentedReader.wrap((Reader) object, profile);
+			default:
+				if (object == null) {
+					return null;
+				}
+		}
+
+		final ProxyType type = proxyType(object.getClass(), kind);
+		return (T) type.newInstance(new Instrumenter(object, fingerprint, profile, type, onClose, owner));
+	}
+
+	private static ProxyType proxyType(Class<?> implementation, Kind kind) {
+		final AtomicReferenceArray<ProxyType> types = PROXY_TYPES.get(implementation);
+		ProxyType type = types.get(kind.ordinal());
+		if (type == null) {
+			try {
+				type = new ProxyType(implementation.getClassLoader(), kind);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException("Can't create proxy!", e);
+			}
+			if (!types.compareAndSet(kind.ordinal(), null, type)) {
+				type = types.get(kind.ordinal());
+			}
+		}
+		return type;
+	}
+
+	public static <T> T delegate(Class<? extends T> klass, Object object) {
+		return delegate(klass, object, Profile.DEFAULT);
+	}
+
+	static <T> T delegate(Class<? extends T> klass, Object object, Profile profile) {
+		return delegate(klass, object, profile, null);
+	}
+
+	/**
+	 * Wraps {@code object} in a delegating wrapper which, if it's a
+	 * {@link Connection}, runs {@code onClose} when it's closed.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T delegate(Class<? extends T> klass, Object object, Profile profile, Runnable onClose) {
 		if (object == null) {
 			return null;
 		}
-		
-		final Instrumenter wrapper = new Instrumenter(object);
-		final ClassLoader classLoader = object.getClass().getClassLoader();
-
-		if (Array.class.isAssignableFrom(klass)) {
-			return (T) Proxy.newProxyInstance(classLoader, ARRAY_INTERFACES, wrapper);
-		} else if (CallableStatement.class.isAssignableFrom(klass)) {
-			return (T) Proxy.newProxyInstance(classLoader, CALLABLE_STATEMENT_INTERFACES, wrapper);
-		} else if (Connection.class.isAssignableFrom(klass)) {
-			return (T) Proxy.newProxyInstance(classLoader, CONNECTION_INTERFACES, wrapper);
-		} else if (DatabaseMetaData.class.isAssignableFrom(klass)) {
-			return (T) Proxy.newProxyInstance(classLoader, DATABASE_META_DATA_INTERFACES, wrapper);
-		} else if (PreparedStatement.class.isAssignableFrom(klass)) {
-			return (T) Proxy.newProxyInstance(classLoader, PREPARED_STATEMENT_INTERFACES, wrapper);
-		} else if (ResultSet.class.isAssignableFrom(klass)) {
-			return (T) Proxy.newProxyInstance(classLoader, RESULT_SET_INTERFACES, wrapper);
-		} else if (Statement.class.isAssignableFrom(klass)) {
-			return (T) Proxy.newProxyInstance(classLoader, STATEMENT_INTERFACES, wrapper);
-		} else {
-			return (T) object;
+
+		switch (KINDS.get(klass)) {
+			case ARRAY:
+				return (T) new InstrumentedArray((Array) object, profile);
+			case CALLABLE_STATEMENT:
+				return (T) new InstrumentedCallableStatement((CallableStatement) object, null, null, profile);
+			case CONNECTION:
+				return (T) new InstrumentedConnection((Connection) object, profile, onClose);
+			case DATABASE_META_DATA:
+				return (T) new InstrumentedDatabaseMetaData((DatabaseMetaData) object, null, profile);
+			case PREPARED_STATEMENT:
+				return (T) new InstrumentedPreparedStatement((PreparedStatement) object, null, null, profile);
+			case RESULT_SET:
+				return (T) InstrumentedResultSet.wrap((ResultSet) object, null, profile);
+			case STATEMENT:
+				return (T) new InstrumentedStatement((Statement) object, null, null, profile);
+			case BLOB:
+				return (T) new InstrumentedBlob((Blob) object, profile);
+			case NCLOB:
+				return (T) new InstrumentedNClob((NClob) object, profile);
+			case CLOB:
+				return (T) new InstrumentedClob((Clob) object, profile);
+			case SQLXML:
+				return (T) new InstrumentedSQLXML((SQLXML) object, profile);
+			case INPUT_STREAM:
+				return (T) new InstrumentedInputStream((InputStream) object, profile);
+			case READER:
+				return (T) new InstrumentedReader((Reader) object, profile);
+			default:
+				return (T) object;
 		}
 	}
 
 	private final Object object;
+	private final Profile profile;
+	private final ProxyType type;
+	private final FetchTimer fetchTimer;
+	private final PayloadMeter payloadMeter;
+	private final Runnable onClose;
+	// the proxy which created this one, such as a statement's connection or
+	// a result set's statement, if any
+	private final Object owner;
+	private final StatementCache statementCache;
+	private final Transaction transaction;
+	private final ResultCache.Invalidations invalidations;
+	private String fingerprint;
+	private int batchSize;
+	// the cache to put a statement back in when it's closed, if any
+	private StatementCache cache;
+	private StatementCache.Entry cacheEntry;
+	private boolean released;
+	// the StatementCache changes made to the statement's options
+	private int changes;
+	// the parameters bound to a prepared statement whose results are cached
+	private ResultCache.Parameters parameters;
 
-	private Instrumenter(Object object) {
+	private Instrumenter(Object object, String fingerprint, Profile profile, ProxyType type, Runnable onClose,
+			Object owner) {
 		this.object = object;
+		this.profile = profile;
+		this.type = type;
+		this.onClose = onClose;
+		this.owner = owner;
+		this.fetchTimer = (object instanceof ResultSet) ? FetchTimer.create(profile, fingerprint) : null;
+		this.payloadMeter = (object instanceof ResultSet) ? PayloadMeter.create(profile, fingerprint) : null;
+		this.statementCache = (object instanceof Connection) ? StatementCache.create(profile) : null;
+		this.transaction = (object instanceof Connection) ? profile.transaction : null;
+		this.invalidations = (object instanceof Connection) ? profile.invalidations : null;
+		if (transaction != null) {
+			transaction.attach((Connection) object);
+		}
+		this.fingerprint = fingerprint;
 	}
 
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		if (method.getName().equals("getOriginalClass")) {
+		final Plan plan = type.plan(method);
+		if (plan.special == Plan.ORIGINAL_CLASS) {
 			return object.getClass();
 		}
 		
-		final boolean isTimed = TIMED_METHODS.contains(method.getName());
+		if (transaction != null && (plan.special == Plan.CLOSE || plan.special == Plan.ABORT)) {
+			transaction.end(false);
+		}
+		
+		// what closing a connection's idle statements threw, to be thrown once
+		// the connection itself is closed
+		SQLException cacheFailure = null;
+		if (statementCache != null) {
+			if (plan.special == Plan.PREPARE_STATEMENT || plan.special == Plan.PREPARE_CALL) {
+				final StatementCache.Key key = StatementCache.Key.of(plan.special == Plan.PREPARE_CALL, args);
+				if (key != null) {
+					return prepareCached(proxy, plan.returnKind, key);
+				}
+			} else if (plan.special == Plan.CLOSE || plan.special == Plan.ABORT) {
+				try {
+					statementCache.close();
+				} catch (SQLException e) {
+					cacheFailure = e;
+				}
+			}
+		} else if (cache != null) {
+			if (released) {
+				if (plan.special == Plan.CLOSE) {
+					return null;
+				} else if (plan.special == Plan.IS_CLOSED) {
+					return Boolean.TRUE;
+				} else if (method.getDeclaringClass() != Object.class) {
+					throw new SQLException("Statement is closed");
+				}
+			} else if (plan.special == Plan.CLOSE) {
+				released = true;
+				if (batchSize > 0) {
+					((Statement) object).clearBatch();
+				}
+				cache.release(cacheEntry, changes);
+				return null;
+			}
+			changes |= plan.change;
+		}
+		
+		// hand back the proxy this one came from rather than wrapping its
+		// object again, as the delegating classes do
+		if ((plan.special == Plan.GET_CONNECTION && owner instanceof Connection)
+				|| (plan.special == Plan.GET_STATEMENT && owner instanceof Statement)) {
+			return owner;
+		}
+		
+		if (parameters != null) {
+			if (plan.special == Plan.SET_PARAMETER) {
+				parameters.bind(args);
+			} else if (plan.special == Plan.SET_NULL) {
+				parameters.bind((Integer) args[0], null);
+			} else if (plan.special == Plan.CLEAR_PARAMETERS) {
+				parameters.clear();
+			}
+		}
+		
+		if (payloadMeter != null) {
+			if (plan.getter) {
+				final Object value = invoke(proxy, plan, method, args);
+				payloadMeter.read(PayloadMeter.sizeOf(value));
+				return value;
+			} else if (plan.special == Plan.CLOSE) {
+				payloadMeter.close();
+			} else if (plan.special == Plan.NEXT && fetchTimer != null) {
+				final boolean row = fetchTimer.next((ResultSet) object);
+				payloadMeter.next(row);
+				return row;
+			}
+		}
 
-		if (isTimed) {
-			Stopwatch.getInstance().start();
+		if (fetchTimer != null) {
+			if (plan.special == Plan.NEXT) {
+				return fetchTimer.next((ResultSet) object);
+			} else if (plan.special == Plan.CLOSE) {
+				fetchTimer.close();
+			}
+		}
+		
+		String fingerprint = this.fingerprint;
+		if (plan.sql) {
+			fingerprint = FingerprintCache.getInstance().fingerprint((String) args[0]);
+			if (object instanceof Statement) {
+				this.fingerprint = fingerprint;
+			}
+		}
+		
+		final Category category = plan.category;
+		if (category == Category.QUERY && profile.resultCache != null) {
+			final ResultCache.Key key;
+			if (plan.sql) {
+				key = profile.resultCache.isCacheable(fingerprint) ? new ResultCache.Key((String) args[0], fingerprint, null) : null;
+			} else {
+				key = (parameters == null) ? null : parameters.key();
+			}
+			if (key != null) {
+				return executeCachedQuery(method, args, key);
+			}
+		}
+		int batchSize = 0;
+		if (category == Category.BATCH) {
+			batchSize = this.batchSize;
+			this.batchSize = 0;
 		}
+		final long start = (category != null) ? Recorder.start(profile, category) : 0;
+		boolean succeeded = false;
+		Object result = null;
 
 		try {
-			return instrument(method.getReturnType(), method.invoke(object, args));
+			result = instrument(plan.returnKind, method.invoke(object, args), fingerprint, profile, null, proxy);
+			succeeded = true;
+			if (transaction != null) {
+				transacted(plan.special, args);
+			}
+			if (plan.special == Plan.PREPARE_STATEMENT && result != null && profile.resultCache != null) {
+				((Instrumenter) Proxy.getInvocationHandler(result)).parameters = ResultCache.Parameters.create(profile, (String) args[0], fingerprint);
+			} else if (plan.special == Plan.ADD_BATCH) {
+				this.batchSize++;
+			} else if (plan.special == Plan.CLEAR_BATCH) {
+				this.batchSize = 0;
+			}
+			if (cacheFailure != null) {
+				throw cacheFailure;
+			}
+			return result;
+		} catch (InvocationTargetException e) {
+			if (cacheFailure != null) {
+				e.getCause().addSuppressed(cacheFailure);
+			}
+			throw e.getCause();
 		} finally {
-			if (isTimed) {
-				Stopwatch.getInstance().stop();
+			if (onClose != null && (plan.special == Plan.CLOSE || plan.special == Plan.ABORT)) {
+				onClose.run();
 			}
+			if (invalidations != null && (plan.special == Plan.COMMIT || plan.special == Plan.ROLLBACK
+					|| plan.special == Plan.SET_AUTO_COMMIT || plan.special == Plan.CLOSE || plan.special == Plan.ABORT)) {
+				invalidations.ended();
+			}
+			if (category == Category.FETCH) {
+				if (payloadMeter != null) {
+					payloadMeter.next(Boolean.TRUE.equals(result));
+				}
+				Recorder.stopFetch(profile, fingerprint, start, Boolean.TRUE.equals(result), succeeded);
+			} else if (category == Category.UPDATE) {
+				Recorder.stopUpdate(profile, fingerprint, start, (result instanceof Number) ? ((Number) result).longValue() : 0, succeeded);
+			} else if (category == Category.BATCH) {
+				Recorder.stopBatch(profile, fingerprint, start, batchSize, rowsAffected(result), succeeded);
+			} else if (category != null) {
+				Recorder.stop(profile, category, fingerprint, start, succeeded);
+			}
+		}
+	}
+
+	private Object prepareCached(Object proxy, Kind kind, StatementCache.Key key) throws SQLException {
+		final StatementCache.Entry entry = statementCache.prepare((Connection) object, key);
+		final ProxyType type = proxyType(entry.statement.getClass(), kind);
+		final Instrumenter handler = new Instrumenter(entry.statement, FingerprintCache.getInstance().fingerprint(key.sql), profile, type, null, proxy);
+		handler.cache = statementCache;
+		handler.cacheEntry = entry;
+		if (!key.callable) {
+			handler.parameters = ResultCache.Parameters.create(profile, key.sql, handler.fingerprint);
+		}
+		return type.newInstance(handler);
+	}
+
+	private void transacted(int special, Object[] args) {
+		if (special == Plan.COMMIT) {
+			transaction.end(true);
+		} else if (special == Plan.ROLLBACK) {
+			transaction.end(false);
+		} else if (special == Plan.SET_AUTO_COMMIT) {
+			transaction.setAutoCommit((Boolean) args[0]);
+		} else if (special == Plan.SET_SAVEPOINT) {
+			// a savepoint can only be set inside a transaction
+			transaction.executed(null, System.nanoTime());
+		}
+	}
+
+	private Object executeCachedQuery(Method method, Object[] args, ResultCache.Key key) throws Throwable {
+		final ResultSet cached = profile.resultCache.get(profile, key);
+		if (cached != null) {
+			return cached;
+		}
+
+		final long generation = profile.resultCache.generation();
+		final Object results;
+		final long start = Recorder.start(profile, Category.QUERY);
+		boolean succeeded = false;
+		try {
+			results = method.invoke(object, args);
+			succeeded = true;
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			Recorder.stop(profile, Category.QUERY, key.fingerprint, start, succeeded);
+		}
+		return profile.resultCache.put(profile, key, generation, (ResultSet) results);
+	}
+
+	private Object invoke(Object proxy, Plan plan, Method method, Object[] args) throws Throwable {
+		try {
+			return instrument(plan.returnKind, method.invoke(object, args), fingerprint, profile, null, proxy);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static long rowsAffected(Object counts) {
+		if (counts instanceof int[]) {
+			return BatchStatistics.rowsAffected((int[]) counts);
 		}
+		return BatchStatistics.rowsAffected((long[]) counts);
 	}
 }
@@ -0,0 +1,173 @@
+package com.codahale.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A {@link DataSource} which instruments the connections of an underlying
+ * one, usually a connection pool, to monitor performance:
+ * <pre>
+ * final Properties settings = new Properties();
+ * settings.setProperty("perf.dispatch", "delegate");
+ * final DataSource dataSource = new InstrumentingDataSource(pool, settings);
+ * </pre>
+ * The time spent waiting in {@link #getConnection()} is recorded as
+ * {@link Category#BORROW}, apart from the time spent using the connection,
+ * and in a histogram of its own. The number of connections borrowed and not
+ * yet closed is tracked too, as a pool's saturation shows up there first.
+ * <p>
+ * Settings are the same as {@link InstrumentingDriver}'s {@code perf.}
+ * properties, and are read once, so borrowing a connection doesn't involve
+ * the {@link java.sql.DriverManager}. {@code sample.connections} is ignored,
+ * since every connection must be wrapped to know when it's returned, and
+ * each data source has a result cache of its own, as it can't tell which
+ * database it's connected to.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public class InstrumentingDataSource implements DataSource {
+	/**
+	 * Marks a borrowed connection as returned, once.
+	 */
+	private final class Lease implements Runnable {
+		private final AtomicBoolean returned = new AtomicBoolean();
+
+		@Override
+		public void run() {
+			if (returned.compareAndSet(false, true)) {
+				borrowed.decrementAndGet();
+			}
+		}
+	}
+
+	private final DataSource dataSource;
+	private final Profile profile;
+	private final boolean delegate;
+	private final AtomicInteger borrowed = new AtomicInteger();
+	private final LatencyHistogram borrowLatency = new LatencyHistogram();
+
+	/**
+	 * Creates a new {@link InstrumentingDataSource} with the default settings.
+	 *
+	 * @param dataSource
+	 *            the data source to instrument
+	 */
+	public InstrumentingDataSource(DataSource dataSource) {
+		this(dataSource, new Properties());
+	}
+
+	/**
+	 * Creates a new {@link InstrumentingDataSource}.
+	 *
+	 * @param dataSource
+	 *            the data source to instrument
+	 * @param settings
+	 *            {@code perf.}-prefixed settings, as for
+	 *            {@link InstrumentingDriver}
+	 */
+	public InstrumentingDataSource(DataSource dataSource, Properties settings) {
+		final Settings parsed = Settings.parse(null, settings);
+		this.dataSource = dataSource;
+		this.profile = Profile.of(parsed, null);
+		this.delegate = "delegate".equalsIgnoreCase(parsed.get("dispatch", "proxy"));
+	}
+
+	/**
+	 * Returns the number of connections borrowed and not yet closed.
+	 */
+	public int getBorrowedCount() {
+		return borrowed.get();
+	}
+
+	/**
+	 * Returns a snapshot of the time spent waiting for connections.
+	 */
+	public LatencyHistogram.Snapshot getBorrowLatency() {
+		return borrowLatency.snapshot();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getConnection(null, null, false);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection(username, password, true);
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return dataSource.getLogWriter();
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return dataSource.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return dataSource.getParentLogger();
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		dataSource.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		dataSource.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return dataSource.unwrap(iface);
+	}
+
+	private Connection getConnection(String username, String password, boolean authenticated) throws SQLException {
+		final Profile profile = this.profile.forConnection(null);
+		final long start = Recorder.start(profile, Category.BORROW);
+		boolean succeeded = false;
+		final Connection connection;
+		try {
+			connection = authenticated ? dataSource.getConnection(username, password) : dataSource.getConnection();
+			succeeded = true;
+		} finally {
+			final long elapsed = Recorder.stop(profile, Category.BORROW, null, start, succeeded);
+			if (elapsed >= 0) {
+				borrowLatency.record(elapsed, profile.callSampleRate);
+			}
+		}
+
+		if (connection == null) {
+			return null;
+		}
+		borrowed.incrementAndGet();
+		if (delegate) {
+			return Instrumenter.delegate(Connection.class, connection, profile, new Lease());
+		}
+		return Instrumenter.instrument(Connection.class, connection, profile, new Lease());
+	}
+}
@@ -2,30 +2,88 @@ package com.codahale.jdbc;
 
 import java.sql.Connection;
 import java.sql.Driver;
+import java.sql.DriverAction;
 import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import net.jcip.annotations.Immutable;
+
 /**
  * A JDBC driver which instruments an underlying {@link Driver} to monitor
  * performance.
+ * <p>
+ * The rewritten URL, underlying driver, and instrumentation settings for
+ * each {@code jdbc:perf-} URL are resolved once and cached, since
+ * {@link DriverManager#getDriver(String)} asks every registered driver
+ * whether it accepts the URL. A cached driver is resolved again after
+ * {@value #RESOLUTION_TTL_SECONDS} seconds, after any failure to connect
+ * through it (including its declining the URL), and when this driver itself
+ * is deregistered; once {@value #MAX_TARGETS} URLs are cached, the one
+ * resolved longest ago is dropped to make room. The settings are parsed
+ * again only for connections whose properties include {@code perf.}
+ * settings.
+ * <p>
+ * The latency and failures of connecting to each database are recorded in
+ * {@link ConnectionStatistics}.
  * 
  * @author coda
  *
  */
 public class InstrumentingDriver implements Driver {
-	private static final Pattern URL_MATCHER = Pattern.compile("^jdbc:perf-([a-z0-9]+):", Pattern.CASE_INSENSITIVE);
+	/**
+	 * A {@code jdbc:perf-} URL, resolved.
+	 */
+	@Immutable
+	private static final class Target {
+		final String url;
+		final String options;
+		final String name;
+		final Driver driver;
+		final Settings settings;
+		final Profile profile;
+		final long resolvedAt;
+
+		Target(String url, String options, Driver driver) {
+			this.url = url;
+			this.options = options;
+			this.name = ConnectionStatistics.nameOf(url);
+			this.driver = driver;
+			this.settings = Settings.parse(options, null);
+			this.profile = Profile.of(settings, url);
+			this.resolvedAt = System.nanoTime();
+		}
+	}
+
+	private static final Pattern URL_MATCHER = Pattern.compile("^jdbc:perf-([a-z0-9]+)((?:;[a-z0-9.]+=[^;:]*)*):", Pattern.CASE_INSENSITIVE);
+	private static final int RESOLUTION_TTL_SECONDS = 10;
+	private static final long RESOLUTION_TTL = TimeUnit.SECONDS.toNanos(RESOLUTION_TTL_SECONDS);
+	private static final int MAX_TARGETS = 1000;
 	static {
 		try {
-			DriverManager.registerDriver(new InstrumentingDriver());
+			final InstrumentingDriver driver = new InstrumentingDriver();
+			DriverManager.registerDriver(driver, new DriverAction() {
+				@Override
+				public void deregister() {
+					driver.targets.clear();
+				}
+			});
 		} catch (SQLException e) {
 			throw new RuntimeException("Can't register driver!", e);
 		}
 	}
 
+	private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<String, Target>();
+
 	/**
 	 * @throws SQLException
 	 *             if something goes wrong
@@ -36,14 +94,24 @@ public class InstrumentingDriver implements Driver {
 
 	@Override
 	public boolean acceptsURL(String url) throws SQLException {
-		return URL_MATCHER.matcher(url).find();
+		return targets.containsKey(url) || URL_MATCHER.matcher(url).find();
 	}
 
 	@Override
 	public Connection connect(String url, Properties info) throws SQLException {
-		final String originalUrl = getOriginalUrl(url);
-		final Driver driver = DriverManager.getDriver(originalUrl);
-		return Instrumenter.instrument(Connection.class, driver.connect(originalUrl, info));
+		final Target target = getTarget(url);
+		final boolean configured = Settings.isConfigured(info);
+		final Settings settings = configured ? Settings.parse(target.options, info) : target.settings;
+		final Profile settingsProfile = configured ? Profile.of(settings, target.url) : target.profile;
+		if (!settingsProfile.sampleConnection()) {
+			return connect(url, target, Settings.strip(info));
+		}
+		final Profile profile = settingsProfile.forConnection(target.name);
+		final Connection connection = connect(url, target, Settings.strip(info), profile);
+		if ("delegate".equalsIgnoreCase(settings.get("dispatch", "proxy"))) {
+			return Instrumenter.delegate(Connection.class, connection, profile);
+		}
+		return Instrumenter.instrument(Connection.class, connection, profile);
 	}
 
 	@Override
@@ -56,11 +124,15 @@ public class InstrumentingDriver implements Driver {
 		return 1;
 	}
 
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
 	@Override
 	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
-		final String originalUrl = getOriginalUrl(url);
-		final Driver driver = DriverManager.getDriver(originalUrl);
-		return driver.getPropertyInfo(originalUrl, info);
+		final Target target = getTarget(url);
+		return target.driver.getPropertyInfo(target.url, Settings.strip(info));
 	}
 
 	@Override
@@ -68,17 +140,66 @@ public class InstrumentingDriver implements Driver {
 		return false;
 	}
 
-	private String getOriginalDriverName(String url) {
+	private Connection connect(String url, Target target, Properties info) throws SQLException {
+		boolean succeeded = false;
 		try {
-			final Matcher matcher = URL_MATCHER.matcher(url);
-			matcher.find();
-			return matcher.group(1);
-		} catch (IllegalStateException e) {
+			final Connection connection = target.driver.connect(target.url, info);
+			succeeded = (connection != null);
+			return connection;
+		} finally {
+			if (!succeeded) {
+				targets.remove(url, target);
+			}
+		}
+	}
+
+	private Connection connect(String url, Target target, Properties info, Profile profile) throws SQLException {
+		final long start = Recorder.start(profile, Category.CONNECT);
+		boolean succeeded = false;
+		try {
+			final Connection connection = connect(url, target, info);
+			succeeded = (connection != null);
+			return connection;
+		} finally {
+			final long elapsed = Recorder.stop(profile, Category.CONNECT, null, start, succeeded);
+			if (elapsed >= 0) {
+				ConnectionStatistics.getInstance().record(target.name, elapsed, succeeded, profile.weight);
+			}
+		}
+	}
+
+	private Target getTarget(String url) throws SQLException {
+		final Target target = targets.get(url);
+		if (target != null && System.nanoTime() - target.resolvedAt < RESOLUTION_TTL) {
+			return target;
+		}
+		return resolve(url);
+	}
+
+	private Target resolve(String url) throws SQLException {
+		final Matcher matcher = URL_MATCHER.matcher(url);
+		if (!matcher.find()) {
 			throw new IllegalArgumentException(url + " is not an instrumentable JDBC URL.");
 		}
+
+		final String originalUrl = "jdbc:" + matcher.group(1) + ":" + url.substring(matcher.end());
+		final Target target = new Target(originalUrl, matcher.group(2), DriverManager.getDriver(originalUrl));
+		if (targets.size() >= MAX_TARGETS) {
+			evictOldest();
+		}
+		targets.put(url, target);
+		return target;
 	}
 
-	private String getOriginalUrl(String url) {
-		return URL_MATCHER.matcher(url).replaceAll("jdbc:" + getOriginalDriverName(url) + "://");
+	private void evictOldest() {
+		Map.Entry<String, Target> oldest = null;
+		for (Map.Entry<String, Target> entry : targets.entrySet()) {
+			if (oldest == null || entry.getValue().resolvedAt - oldest.getValue().resolvedAt < 0) {
+				oldest = entry;
+			}
+		}
+		if (oldest != null) {
+			targets.remove(oldest.getKey(), oldest.getValue());
+		}
 	}
 }
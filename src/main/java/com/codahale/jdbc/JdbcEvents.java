@@ -0,0 +1,307 @@
+package com.codahale.jdbc;
+
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Java Flight Recorder events for instrumented JDBC calls, so that time spent
+ * in the database can be lined up with GC pauses, lock contention, and CPU
+ * samples in the same recording:
+ * <dl>
+ * <dt>{@code com.codahale.jdbc.JdbcExecute}</dt>
+ * <dd>statement executions and batches (threshold: 0 ms)</dd>
+ * <dt>{@code com.codahale.jdbc.JdbcFetch}</dt>
+ * <dd>fetches from result sets and reads from large objects (threshold: 1 ms)</dd>
+ * <dt>{@code com.codahale.jdbc.JdbcConnect}</dt>
+ * <dd>connecting, and borrowing connections from a data source (threshold: 0 ms)</dd>
+ * <dt>{@code com.codahale.jdbc.JdbcCommit}</dt>
+ * <dd>commits, rollbacks, and other transaction control (threshold: 0 ms)</dd>
+ * </dl>
+ * Each carries the fingerprint of its SQL where there is one, the rows it
+ * affected or fetched, the connection it was made on, and a stack trace.
+ * Thresholds and stack traces can be changed like those of any other event,
+ * e.g. with a {@code .jfc} file.
+ * <p>
+ * {@link Recorder} begins an event only while {@link FlightRecording#active},
+ * so calls made when nothing is recording don't so much as allocate one. As
+ * {@link Recorder#start(Profile, Category)} returns only a timestamp, the
+ * events it begins are kept on a small per-thread stack until the matching
+ * call to {@code stop}, found by that timestamp.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+final class JdbcEvents {
+	@Name("com.codahale.jdbc.JdbcExecute")
+	@Label("JDBC Execute")
+	@jdk.jfr.Category("JDBC")
+	@Description("A statement execution or batch")
+	@StackTrace(true)
+	@Threshold("0 ms")
+	static final class Execute extends Event {
+		@Label("Kind")
+		String kind;
+
+		@Label("SQL")
+		@Description("The fingerprint of the SQL executed")
+		String fingerprint;
+
+		@Label("Rows Affected")
+		long rows;
+
+		@Label("Batch Size")
+		int batchSize;
+
+		@Label("Connection")
+		long connection;
+
+		@Label("Database")
+		String database;
+
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+	@Name("com.codahale.jdbc.JdbcFetch")
+	@Label("JDBC Fetch")
+	@jdk.jfr.Category("JDBC")
+	@Description("Fetching rows from a result set, or reading a large object or stream")
+	@StackTrace(true)
+	@Threshold("1 ms")
+	static final class Fetch extends Event {
+		@Label("SQL")
+		@Description("The fingerprint of the SQL which produced the result set")
+		String fingerprint;
+
+		@Label("Rows")
+		long rows;
+
+		@Label("Bytes")
+		@jdk.jfr.DataAmount
+		long bytes;
+
+		@Label("Connection")
+		long connection;
+
+		@Label("Database")
+		String database;
+
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+	@Name("com.codahale.jdbc.JdbcConnect")
+	@Label("JDBC Connect")
+	@jdk.jfr.Category("JDBC")
+	@Description("Connecting to a database, or borrowing a connection from a data source")
+	@StackTrace(true)
+	@Threshold("0 ms")
+	static final class Connect extends Event {
+		@Label("Borrowed")
+		boolean borrowed;
+
+		@Label("Connection")
+		long connection;
+
+		@Label("Database")
+		String database;
+
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+	@Name("com.codahale.jdbc.JdbcCommit")
+	@Label("JDBC Commit")
+	@jdk.jfr.Category("JDBC")
+	@Description("A commit, rollback, change of auto-commit, or savepoint")
+	@StackTrace(true)
+	@Threshold("0 ms")
+	static final class Commit extends Event {
+		@Label("Connection")
+		long connection;
+
+		@Label("Database")
+		String database;
+
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+	/**
+	 * The events the current thread has begun and not yet ended.
+	 */
+	@NotThreadSafe
+	private static final class Spans {
+		final Event[] events = new Event[DEPTH];
+		final long[] starts = new long[DEPTH];
+		int depth;
+	}
+
+	private static final int DEPTH = 8;
+	private static final ThreadLocal<Spans> SPANS = new ThreadLocal<Spans>() {
+		@Override
+		protected Spans initialValue() {
+			return new Spans();
+		}
+	};
+
+	private JdbcEvents() {
+		// static hooks only
+	}
+
+	/**
+	 * Keeps {@link FlightRecording#active} up to date as recordings start
+	 * and stop.
+	 */
+	static void register() {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recorderInitialized(FlightRecorder recorder) {
+				update(recorder);
+			}
+
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				update(FlightRecorder.getFlightRecorder());
+			}
+		});
+	}
+
+	private static void update(FlightRecorder recorder) {
+		boolean running = false;
+		for (Recording recording : recorder.getRecordings()) {
+			if (recording.getState() == RecordingState.RUNNING) {
+				running = true;
+			}
+		}
+		FlightRecording.active = running;
+	}
+
+	/**
+	 * Begins an event for a call in {@code category} which started at
+	 * {@code start}.
+	 */
+	static void begin(Category category, long start) {
+		final Spans spans = SPANS.get();
+		if (spans.depth == DEPTH) {
+			// only spans left open by calls which were begun while recording
+			// and stopped after it ended can pile up this deep
+			clear(spans, 0);
+		}
+		final Event event = create(category);
+		event.begin();
+		spans.events[spans.depth] = event;
+		spans.starts[spans.depth] = start;
+		spans.depth++;
+	}
+
+	/**
+	 * Ends and commits the event for the call which started at
+	 * {@code start}, if one was begun.
+	 */
+	static void end(Profile profile, Category category, String fingerprint, long start, long rows, int batchSize,
+			long bytes, boolean succeeded) {
+		final Spans spans = SPANS.get();
+		for (int i = spans.depth - 1; i >= 0; i--) {
+			if (spans.starts[i] == start) {
+				final Event event = spans.events[i];
+				clear(spans, i);
+				event.end();
+				if (event.shouldCommit()) {
+					fill(event, profile, category, fingerprint, rows, batchSize, bytes, succeeded);
+					event.commit();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Begins a fetch event which is ended by
+	 * {@link #endFetch(Object, Profile, String, long, boolean)} rather than
+	 * by a call to {@code stop}, for a {@link FetchTimer}.
+	 */
+	static Object beginFetch() {
+		final Fetch event = new Fetch();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends and commits an event begun by {@link #beginFetch()}.
+	 */
+	static void endFetch(Object begun, Profile profile, String fingerprint, long rows, boolean succeeded) {
+		final Fetch event = (Fetch) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			fill(event, profile, Category.FETCH, fingerprint, rows, 0, 0, succeeded);
+			event.commit();
+		}
+	}
+
+	private static void clear(Spans spans, int depth) {
+		for (int i = depth; i < spans.depth; i++) {
+			spans.events[i] = null;
+		}
+		spans.depth = depth;
+	}
+
+	private static Event create(Category category) {
+		switch (category) {
+		case FETCH:
+		case LOB:
+			return new Fetch();
+		case CONNECT:
+		case BORROW:
+			return new Connect();
+		case TRANSACTION:
+			return new Commit();
+		default:
+			return new Execute();
+		}
+	}
+
+	private static void fill(Event begun, Profile profile, Category category, String fingerprint, long rows,
+			int batchSize, long bytes, boolean succeeded) {
+		if (begun instanceof Execute) {
+			final Execute event = (Execute) begun;
+			event.kind = category.name().toLowerCase();
+			event.fingerprint = fingerprint;
+			event.rows = rows;
+			event.batchSize = batchSize;
+			event.connection = profile.connectionId;
+			event.database = profile.database;
+			event.succeeded = succeeded;
+		} else if (begun instanceof Fetch) {
+			final Fetch event = (Fetch) begun;
+			event.fingerprint = fingerprint;
+			event.rows = rows;
+			event.bytes = bytes;
+			event.connection = profile.connectionId;
+			event.database = profile.database;
+			event.succeeded = succeeded;
+		} else if (begun instanceof Connect) {
+			final Connect event = (Connect) begun;
+			event.borrowed = (category == Category.BORROW);
+			event.connection = profile.connectionId;
+			event.database = profile.database;
+			event.succeeded = succeeded;
+		} else {
+			final Commit event = (Commit) begun;
+			event.connection = profile.connectionId;
+			event.database = profile.database;
+			event.succeeded = succeeded;
+		}
+	}
+}
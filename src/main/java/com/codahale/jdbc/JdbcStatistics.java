@@ -0,0 +1,238 @@
+package com.codahale.jdbc;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Process-wide counts, total time, errors, and maximum latency of JDBC calls
+ * by {@link Category}, across all threads. Unlike {@link Stopwatch}, nothing
+ * is lost when a thread dies or resets.
+ * <p>
+ * Calls are recorded into one of a number of padded stripes, chosen by
+ * thread, so that many threads recording at once don't contend on the same
+ * cache line. Each stripe is guarded by a tiny spin lock which is almost
+ * never contended: a thread which finds its stripe busy moves on to the
+ * next. Because every call is recorded wholly within one stripe under its
+ * lock, {@link #snapshot()} and {@link #snapshotAndReset()} are consistent:
+ * each call's count, time, error, and maximum are either all in a snapshot
+ * or all in the next one.
+ * <p>
+ * Calls on connections which sample their calls are recorded with a weight,
+ * and counts and totals are extrapolated from them; {@link Snapshot#isSampled()}
+ * says whether a snapshot includes any such calls.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class JdbcStatistics {
+	/**
+	 * A consistent copy of the statistics at a point in time.
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final long[] values;
+
+		Snapshot(long[] values) {
+			this.values = values;
+		}
+
+		/**
+		 * Returns {@code true} if the counts and totals are extrapolated from
+		 * sampled calls, and so are estimates.
+		 */
+		public boolean isSampled() {
+			return values[SAMPLED] != 0;
+		}
+
+		/**
+		 * Returns the number of calls in {@code category}.
+		 */
+		public long getCount(Category category) {
+			return values[offset(category) + COUNT];
+		}
+
+		/**
+		 * Returns the total time spent in calls in {@code category}, in
+		 * nanoseconds.
+		 */
+		public long getTotalNanos(Category category) {
+			return values[offset(category) + NANOS];
+		}
+
+		/**
+		 * Returns the number of calls in {@code category} which threw an
+		 * exception.
+		 */
+		public long getErrorCount(Category category) {
+			return values[offset(category) + ERRORS];
+		}
+
+		/**
+		 * Returns the longest call in {@code category}, in nanoseconds.
+		 */
+		public long getMaxNanos(Category category) {
+			return values[offset(category) + MAX];
+		}
+	}
+
+	private static final int COUNT = 0, NANOS = 1, ERRORS = 2, MAX = 3, FIELDS = 4;
+	private static final int CATEGORIES = Category.values().length;
+	// 64 bytes of padding at either end of a stripe, and a lock word
+	private static final int PADDING = 8, LOCK = PADDING, DATA = PADDING + 1;
+	// after the categories, a flag for whether any call was sampled
+	private static final int SAMPLED = CATEGORIES * FIELDS, VALUES = SAMPLED + 1;
+	private static final int STRIPE_LENGTH = DATA + VALUES + PADDING;
+	private static final JdbcStatistics INSTANCE = new JdbcStatistics();
+
+	/**
+	 * Returns the {@link JdbcStatistics} instance.
+	 */
+	public static JdbcStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	private static int offset(Category category) {
+		return category.ordinal() * FIELDS;
+	}
+
+	private final AtomicLongArray[] stripes;
+	private final int mask;
+
+	private JdbcStatistics() {
+		int n = 1;
+		while (n < Runtime.getRuntime().availableProcessors() * 2) {
+			n <<= 1;
+		}
+		this.stripes = new AtomicLongArray[n];
+		for (int i = 0; i < n; i++) {
+			stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+		}
+		this.mask = n - 1;
+	}
+
+	/**
+	 * Records a call.
+	 *
+	 * @param category
+	 *            the kind of call
+	 * @param nanoseconds
+	 *            how long it took
+	 * @param succeeded
+	 *            {@code false} if it threw an exception
+	 */
+	public void record(Category category, long nanoseconds, boolean succeeded) {
+		record(category, nanoseconds, succeeded, 1);
+	}
+
+	/**
+	 * Records a sampled call which stands for {@code weight} calls.
+	 *
+	 * @param category
+	 *            the kind of call
+	 * @param nanoseconds
+	 *            how long it took
+	 * @param succeeded
+	 *            {@code false} if it threw an exception
+	 * @param weight
+	 *            the number of calls it was sampled from
+	 */
+	public void record(Category category, long nanoseconds, boolean succeeded, int weight) {
+		final AtomicLongArray stripe = lock();
+		try {
+			final int i = DATA + offset(category);
+			stripe.lazySet(i + COUNT, stripe.get(i + COUNT) + weight);
+			stripe.lazySet(i + NANOS, stripe.get(i + NANOS) + (nanoseconds * weight));
+			if (!succeeded) {
+				stripe.lazySet(i + ERRORS, stripe.get(i + ERRORS) + weight);
+			}
+			if (weight > 1) {
+				stripe.lazySet(DATA + SAMPLED, 1);
+			}
+			if (nanoseconds > stripe.get(i + MAX)) {
+				stripe.lazySet(i + MAX, nanoseconds);
+			}
+		} finally {
+			stripe.lazySet(LOCK, 0);
+		}
+	}
+
+	/**
+	 * Returns a consistent snapshot of the statistics.
+	 */
+	public Snapshot snapshot() {
+		return collect(false);
+	}
+
+	/**
+	 * Returns a consistent snapshot of the statistics and resets them, so
+	 * that the next snapshot only includes calls made after this one.
+	 */
+	public Snapshot snapshotAndReset() {
+		return collect(true);
+	}
+
+	/**
+	 * Returns an array to {@link #copyInto(long[])}, and which can be wrapped
+	 * in a {@link Snapshot}.
+	 */
+	static long[] newValues() {
+		return new long[VALUES];
+	}
+
+	/**
+	 * Copies a consistent snapshot of the statistics into {@code values}, an
+	 * array from {@link #newValues()}, so that callers which poll often
+	 * needn't allocate a new snapshot each time.
+	 */
+	void copyInto(long[] values) {
+		Arrays.fill(values, 0);
+		collect(values, false);
+	}
+
+	private AtomicLongArray lock() {
+		int i = (int) Thread.currentThread().getId();
+		while (true) {
+			final AtomicLongArray stripe = stripes[i & mask];
+			if (stripe.get(LOCK) == 0 && stripe.compareAndSet(LOCK, 0, 1)) {
+				return stripe;
+			}
+			i++;
+		}
+	}
+
+	private Snapshot collect(boolean reset) {
+		final long[] values = new long[VALUES];
+		collect(values, reset);
+		return new Snapshot(values);
+	}
+
+	private void collect(long[] values, boolean reset) {
+		for (AtomicLongArray stripe : stripes) {
+			while (!stripe.compareAndSet(LOCK, 0, 1)) {
+				Thread.yield();
+			}
+
+			try {
+				for (int c = 0; c < CATEGORIES * FIELDS; c += FIELDS) {
+					values[c + COUNT] += stripe.get(DATA + c + COUNT);
+					values[c + NANOS] += stripe.get(DATA + c + NANOS);
+					values[c + ERRORS] += stripe.get(DATA + c + ERRORS);
+					values[c + MAX] = Math.max(values[c + MAX], stripe.get(DATA + c + MAX));
+				}
+				values[SAMPLED] |= stripe.get(DATA + SAMPLED);
+
+				if (reset) {
+					for (int i = DATA; i < DATA + VALUES; i++) {
+						stripe.lazySet(i, 0);
+					}
+				}
+			} finally {
+				stripe.set(LOCK, 0);
+			}
+		}
+	}
+}
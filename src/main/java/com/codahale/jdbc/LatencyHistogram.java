@@ -0,0 +1,248 @@
+package com.codahale.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A lock-free, fixed-size histogram of latencies in nanoseconds.
+ * <p>
+ * Like HdrHistogram, values are kept in log-linear buckets: each power of two
+ * is split into {@value #SUB_BUCKETS} linear sub-buckets, so every recorded
+ * value is accurate to within about 3%. Latencies are tracked from about a
+ * microsecond up to about 18 minutes; anything longer is counted in the
+ * highest bucket, though {@link Snapshot#getMax()} is always exact.
+ * Recording is a handful of atomic increments and never blocks.
+ * <p>
+ * When only a sample of calls is recorded, each one is given a weight, and
+ * counts and totals are extrapolated from it; {@link Snapshot#isSampled()}
+ * says whether this has happened.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+	/**
+	 * A point-in-time copy of a {@link LatencyHistogram}.
+	 */
+	public static final class Snapshot {
+		private final long[] buckets;
+		private final long count, total, max;
+		private final boolean sampled;
+
+		Snapshot(long[] buckets, long count, long total, long max, boolean sampled) {
+			this.buckets = buckets;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+			this.sampled = sampled;
+		}
+
+		/**
+		 * Returns {@code true} if the count and total are extrapolated from a
+		 * sample of values.
+		 */
+		public boolean isSampled() {
+			return sampled;
+		}
+
+		/**
+		 * Returns the number of recorded values.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the sum of all recorded values, in nanoseconds.
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * Returns the largest recorded value, in nanoseconds.
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Returns the mean of all recorded values, in nanoseconds.
+		 */
+		public double getMean() {
+			return (count == 0) ? 0 : total / (double) count;
+		}
+
+		/**
+		 * Returns the value, in nanoseconds, at or below which
+		 * {@code percentile} percent of the recorded values fall.
+		 */
+		public long getPercentile(double percentile) {
+			long recorded = 0;
+			for (long n : buckets) {
+				recorded += n;
+			}
+
+			if (recorded == 0) {
+				return 0;
+			}
+
+			final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * recorded));
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return Math.min(highestValueAt(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * Returns the median, in nanoseconds.
+		 */
+		public long get50thPercentile() {
+			return getPercentile(50);
+		}
+
+		/**
+		 * Returns the 99th percentile, in nanoseconds.
+		 */
+		public long get99thPercentile() {
+			return getPercentile(99);
+		}
+
+		/**
+		 * Returns the 99.9th percentile, in nanoseconds.
+		 */
+		public long get999thPercentile() {
+			return getPercentile(99.9);
+		}
+	}
+
+	private static final int UNIT_BITS = 10;
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HIGHEST_BIT = 30;
+	private static final int BUCKETS = (HIGHEST_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	static int indexOf(long nanoseconds) {
+		final long units = Math.max(0, nanoseconds) >>> UNIT_BITS;
+		if (units < SUB_BUCKETS) {
+			return (int) units;
+		}
+
+		final int highestBit = 63 - Long.numberOfLeadingZeros(units);
+		if (highestBit > HIGHEST_BIT) {
+			return BUCKETS - 1;
+		}
+
+		final int shift = highestBit - SUB_BUCKET_BITS;
+		return (shift * SUB_BUCKETS) + (int) (units >>> shift);
+	}
+
+	static long highestValueAt(int index) {
+		final long lowest, width;
+		if (index < SUB_BUCKETS) {
+			lowest = index;
+			width = 1;
+		} else {
+			final int shift = (index / SUB_BUCKETS) - 1;
+			lowest = ((long) (index % SUB_BUCKETS) + SUB_BUCKETS) << shift;
+			width = 1L << shift;
+		}
+		return ((lowest + width) << UNIT_BITS) - 1;
+	}
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	private volatile boolean sampled;
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanoseconds
+	 *            the latency, in nanoseconds
+	 */
+	public void record(long nanoseconds) {
+		record(nanoseconds, 1);
+	}
+
+	/**
+	 * Records a sampled latency which stands for {@code weight} values.
+	 *
+	 * @param nanoseconds
+	 *            the latency, in nanoseconds
+	 * @param weight
+	 *            the number of values it was sampled from
+	 */
+	public void record(long nanoseconds, int weight) {
+		if (weight > 1 && !sampled) {
+			sampled = true;
+		}
+		buckets.addAndGet(indexOf(nanoseconds), weight);
+		count.addAndGet(weight);
+		total.addAndGet(nanoseconds * weight);
+
+		long current = max.get();
+		while (nanoseconds > current) {
+			if (max.compareAndSet(current, nanoseconds)) {
+				break;
+			}
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Adds the count of each of the histogram's buckets to the bucket of
+	 * {@code counts} its values fall within, per {@code bounds}, which maps
+	 * each of the histogram's buckets to one of {@code counts}.
+	 *
+	 * @return the total of the values recorded, in nanoseconds
+	 * @see #bucketsAtMost(long[])
+	 */
+	long addTo(long[] counts, int[] bounds) {
+		for (int i = 0; i < BUCKETS; i++) {
+			final long n = buckets.get(i);
+			if (n != 0) {
+				counts[bounds[i]] += n;
+			}
+		}
+		return total.get();
+	}
+
+	/**
+	 * Returns a mapping for {@link #addTo(long[], int[])} from each bucket of
+	 * a histogram to the index of the first of {@code limits}, in ascending
+	 * order and in nanoseconds, which all of the bucket's values are within,
+	 * or to {@code limits.length} if there isn't one.
+	 */
+	static int[] bucketsAtMost(long[] limits) {
+		final int[] bounds = new int[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			final long highest = (i == BUCKETS - 1) ? Long.MAX_VALUE : highestValueAt(i);
+			int j = 0;
+			while (j < limits.length && limits[j] < highest) {
+				j++;
+			}
+			bounds[i] = j;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Returns a copy of the histogram's current state.
+	 */
+	public Snapshot snapshot() {
+		final long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = buckets.get(i);
+		}
+		return new Snapshot(copy, count.get(), total.get(), max.get(), sampled);
+	}
+}
@@ -0,0 +1,509 @@
+package com.codahale.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * An {@link InstrumentedResultSet} which also measures the columns read from
+ * it with a {@link PayloadMeter}. It's only used for connections with
+ * {@code payload=true}, so that result sets on other connections pay nothing
+ * for it.
+ * 
+ * @author coda
+ *
+ */
+@NotThreadSafe
+final class MeteredResultSet extends InstrumentedResultSet {
+	private final PayloadMeter meter;
+
+	MeteredResultSet(ResultSet resultSet, Statement statement, Profile profile) {
+		super(resultSet, statement, profile);
+		this.meter = new PayloadMeter(fingerprint);
+	}
+
+	@Override
+	public void close() throws SQLException {
+		meter.close();
+		super.close();
+	}
+
+	@Override
+	public boolean next() throws SQLException {
+		final boolean row = super.next();
+		meter.next(row);
+		return row;
+	}
+
+	@Override
+	public Array getArray(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getArray(columnLabel);
+	}
+
+	@Override
+	public Array getArray(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getArray(columnIndex);
+	}
+
+	@Override
+	public InputStream getAsciiStream(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getAsciiStream(columnLabel);
+	}
+
+	@Override
+	public InputStream getAsciiStream(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getAsciiStream(columnIndex);
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+		final BigDecimal value = super.getBigDecimal(columnLabel);
+		meter.read(16);
+		return value;
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+		final BigDecimal value = super.getBigDecimal(columnIndex);
+		meter.read(16);
+		return value;
+	}
+
+	@Deprecated
+	@Override
+	public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+		final BigDecimal value = super.getBigDecimal(columnLabel, scale);
+		meter.read(16);
+		return value;
+	}
+
+	@Deprecated
+	@Override
+	public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+		final BigDecimal value = super.getBigDecimal(columnIndex, scale);
+		meter.read(16);
+		return value;
+	}
+
+	@Override
+	public InputStream getBinaryStream(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getBinaryStream(columnLabel);
+	}
+
+	@Override
+	public InputStream getBinaryStream(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getBinaryStream(columnIndex);
+	}
+
+	@Override
+	public Blob getBlob(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getBlob(columnLabel);
+	}
+
+	@Override
+	public Blob getBlob(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getBlob(columnIndex);
+	}
+
+	@Override
+	public boolean getBoolean(String columnLabel) throws SQLException {
+		final boolean value = super.getBoolean(columnLabel);
+		meter.read(1);
+		return value;
+	}
+
+	@Override
+	public boolean getBoolean(int columnIndex) throws SQLException {
+		final boolean value = super.getBoolean(columnIndex);
+		meter.read(1);
+		return value;
+	}
+
+	@Override
+	public byte getByte(String columnLabel) throws SQLException {
+		final byte value = super.getByte(columnLabel);
+		meter.read(1);
+		return value;
+	}
+
+	@Override
+	public byte getByte(int columnIndex) throws SQLException {
+		final byte value = super.getByte(columnIndex);
+		meter.read(1);
+		return value;
+	}
+
+	@Override
+	public byte[] getBytes(String columnLabel) throws SQLException {
+		final byte[] value = super.getBytes(columnLabel);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public byte[] getBytes(int columnIndex) throws SQLException {
+		final byte[] value = super.getBytes(columnIndex);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public Reader getCharacterStream(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getCharacterStream(columnLabel);
+	}
+
+	@Override
+	public Reader getCharacterStream(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getCharacterStream(columnIndex);
+	}
+
+	@Override
+	public Clob getClob(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getClob(columnLabel);
+	}
+
+	@Override
+	public Clob getClob(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getClob(columnIndex);
+	}
+
+	@Override
+	public Date getDate(String columnLabel) throws SQLException {
+		final Date value = super.getDate(columnLabel);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Date getDate(int columnIndex) throws SQLException {
+		final Date value = super.getDate(columnIndex);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+		final Date value = super.getDate(columnLabel, cal);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+		final Date value = super.getDate(columnIndex, cal);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public double getDouble(String columnLabel) throws SQLException {
+		final double value = super.getDouble(columnLabel);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public double getDouble(int columnIndex) throws SQLException {
+		final double value = super.getDouble(columnIndex);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public float getFloat(String columnLabel) throws SQLException {
+		final float value = super.getFloat(columnLabel);
+		meter.read(4);
+		return value;
+	}
+
+	@Override
+	public float getFloat(int columnIndex) throws SQLException {
+		final float value = super.getFloat(columnIndex);
+		meter.read(4);
+		return value;
+	}
+
+	@Override
+	public int getInt(String columnLabel) throws SQLException {
+		final int value = super.getInt(columnLabel);
+		meter.read(4);
+		return value;
+	}
+
+	@Override
+	public int getInt(int columnIndex) throws SQLException {
+		final int value = super.getInt(columnIndex);
+		meter.read(4);
+		return value;
+	}
+
+	@Override
+	public long getLong(String columnLabel) throws SQLException {
+		final long value = super.getLong(columnLabel);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public long getLong(int columnIndex) throws SQLException {
+		final long value = super.getLong(columnIndex);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Reader getNCharacterStream(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getNCharacterStream(columnLabel);
+	}
+
+	@Override
+	public Reader getNCharacterStream(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getNCharacterStream(columnIndex);
+	}
+
+	@Override
+	public NClob getNClob(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getNClob(columnLabel);
+	}
+
+	@Override
+	public NClob getNClob(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getNClob(columnIndex);
+	}
+
+	@Override
+	public String getNString(String columnLabel) throws SQLException {
+		final String value = super.getNString(columnLabel);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public String getNString(int columnIndex) throws SQLException {
+		final String value = super.getNString(columnIndex);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public Object getObject(String columnLabel) throws SQLException {
+		final Object value = super.getObject(columnLabel);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public Object getObject(int columnIndex) throws SQLException {
+		final Object value = super.getObject(columnIndex);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+		final T value = super.getObject(columnLabel, type);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+		final Object value = super.getObject(columnLabel, map);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+		final T value = super.getObject(columnIndex, type);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+		final Object value = super.getObject(columnIndex, map);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public Ref getRef(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getRef(columnLabel);
+	}
+
+	@Override
+	public Ref getRef(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getRef(columnIndex);
+	}
+
+	@Override
+	public RowId getRowId(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getRowId(columnLabel);
+	}
+
+	@Override
+	public RowId getRowId(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getRowId(columnIndex);
+	}
+
+	@Override
+	public SQLXML getSQLXML(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getSQLXML(columnLabel);
+	}
+
+	@Override
+	public SQLXML getSQLXML(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getSQLXML(columnIndex);
+	}
+
+	@Override
+	public short getShort(String columnLabel) throws SQLException {
+		final short value = super.getShort(columnLabel);
+		meter.read(2);
+		return value;
+	}
+
+	@Override
+	public short getShort(int columnIndex) throws SQLException {
+		final short value = super.getShort(columnIndex);
+		meter.read(2);
+		return value;
+	}
+
+	@Override
+	public String getString(String columnLabel) throws SQLException {
+		final String value = super.getString(columnLabel);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public String getString(int columnIndex) throws SQLException {
+		final String value = super.getString(columnIndex);
+		meter.read(PayloadMeter.sizeOf(value));
+		return value;
+	}
+
+	@Override
+	public Time getTime(String columnLabel) throws SQLException {
+		final Time value = super.getTime(columnLabel);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Time getTime(int columnIndex) throws SQLException {
+		final Time value = super.getTime(columnIndex);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+		final Time value = super.getTime(columnLabel, cal);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+		final Time value = super.getTime(columnIndex, cal);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Timestamp getTimestamp(String columnLabel) throws SQLException {
+		final Timestamp value = super.getTimestamp(columnLabel);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Timestamp getTimestamp(int columnIndex) throws SQLException {
+		final Timestamp value = super.getTimestamp(columnIndex);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+		final Timestamp value = super.getTimestamp(columnLabel, cal);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+		final Timestamp value = super.getTimestamp(columnIndex, cal);
+		meter.read(8);
+		return value;
+	}
+
+	@Override
+	public URL getURL(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getURL(columnLabel);
+	}
+
+	@Override
+	public URL getURL(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getURL(columnIndex);
+	}
+
+	@Deprecated
+	@Override
+	public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+		meter.read(0);
+		return super.getUnicodeStream(columnLabel);
+	}
+
+	@Deprecated
+	@Override
+	public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+		meter.read(0);
+		return super.getUnicodeStream(columnIndex);
+	}
+}
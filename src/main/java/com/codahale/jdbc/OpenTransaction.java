@@ -0,0 +1,107 @@
+package com.codahale.jdbc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * A transaction which was open when the {@link TransactionWatchdog} looked:
+ * the connection it's on, the thread which opened it, how long it had been
+ * open, and the SQL it had run.
+ *
+ * @author coda
+ *
+ */
+@Immutable
+public final class OpenTransaction {
+	private final long connectionId;
+	private final String database;
+	private final String thread;
+	private final long nanoseconds;
+	private final int statementCount;
+	private final List<String> statements;
+
+	OpenTransaction(long connectionId, String database, String thread, long nanoseconds, int statementCount,
+			String[] statements) {
+		this.connectionId = connectionId;
+		this.database = database;
+		this.thread = thread;
+		this.nanoseconds = nanoseconds;
+		this.statementCount = statementCount;
+		this.statements = Collections.unmodifiableList(Arrays.asList(statements));
+	}
+
+	/**
+	 * Returns the number of the connection the transaction is on.
+	 */
+	public long getConnectionId() {
+		return connectionId;
+	}
+
+	/**
+	 * Returns the name of the database the connection is to, or
+	 * {@code null} if unknown.
+	 */
+	public String getDatabase() {
+		return database;
+	}
+
+	/**
+	 * Returns the name of the thread which opened the transaction.
+	 */
+	public String getThreadName() {
+		return thread;
+	}
+
+	/**
+	 * Returns how long the transaction had been open, in milliseconds.
+	 */
+	public long getOpenTime() {
+		return nanoseconds / 1000000;
+	}
+
+	/**
+	 * Returns how long the transaction had been open, in nanoseconds.
+	 */
+	public long getOpenNanos() {
+		return nanoseconds;
+	}
+
+	/**
+	 * Returns the number of statements the transaction had executed.
+	 */
+	public int getStatementCount() {
+		return statementCount;
+	}
+
+	/**
+	 * Returns the fingerprints of the first statements the transaction
+	 * executed, in order; only the first 32 are kept.
+	 */
+	public List<String> getStatements() {
+		return statements;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("transaction on connection ").append(connectionId);
+		if (database != null) {
+			builder.append(" to ").append(database);
+		}
+		builder.append(" open for ").append(getOpenTime()).append("ms on ").append(thread)
+			.append(", ").append(statementCount).append(" statements: ");
+		for (int i = 0; i < statements.size(); i++) {
+			if (i > 0) {
+				builder.append("; ");
+			}
+			builder.append(statements.get(i));
+		}
+		if (statementCount > statements.size()) {
+			builder.append("; ...");
+		}
+		return builder.toString();
+	}
+}
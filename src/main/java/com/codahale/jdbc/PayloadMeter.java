@@ -0,0 +1,104 @@
+package com.codahale.jdbc;
+
+import java.math.BigDecimal;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Counts the columns read from one result set and roughly how many bytes
+ * they came to, row by row, and adds the totals to {@link PayloadStatistics}
+ * when the result set is exhausted or closed.
+ * <p>
+ * Sizes come from cheap checks rather than deep sizing: strings count two
+ * bytes per character, byte arrays their length, and numbers, dates, and
+ * times their usual width. Streams, LOBs, and other objects are counted as
+ * reads of no bytes, as their size can't be known without reading them.
+ *
+ * @author coda
+ *
+ */
+@NotThreadSafe
+final class PayloadMeter {
+	/**
+	 * Returns a new meter for a result set on a connection with
+	 * {@code profile}, or {@code null} if it doesn't measure payloads.
+	 */
+	static PayloadMeter create(Profile profile, String fingerprint) {
+		return profile.payload ? new PayloadMeter(fingerprint) : null;
+	}
+
+	/**
+	 * Returns the approximate size of a column value, in bytes.
+	 */
+	static long sizeOf(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof String) {
+			return 2L * ((String) value).length();
+		} else if (value instanceof byte[]) {
+			return ((byte[]) value).length;
+		} else if (value instanceof Long || value instanceof Double || value instanceof java.util.Date) {
+			return 8;
+		} else if (value instanceof Integer || value instanceof Float) {
+			return 4;
+		} else if (value instanceof Short || value instanceof Character) {
+			return 2;
+		} else if (value instanceof Boolean || value instanceof Byte) {
+			return 1;
+		} else if (value instanceof BigDecimal) {
+			return 16;
+		}
+		return 0;
+	}
+
+	private final String fingerprint;
+	private long reads, bytes, rows, row, widestRow;
+	private boolean published;
+
+	PayloadMeter(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Counts a column read of {@code size} bytes from the current row.
+	 */
+	void read(long size) {
+		reads++;
+		row += size;
+	}
+
+	/**
+	 * Moves to the next row, or, if there are no more, publishes the totals.
+	 */
+	void next(boolean more) {
+		endRow();
+		if (more) {
+			rows++;
+		} else {
+			publish();
+		}
+	}
+
+	/**
+	 * Publishes the totals, if they haven't been already.
+	 */
+	void close() {
+		endRow();
+		publish();
+	}
+
+	private void endRow() {
+		if (row > widestRow) {
+			widestRow = row;
+		}
+		bytes += row;
+		row = 0;
+	}
+
+	private void publish() {
+		if (!published) {
+			published = true;
+			PayloadStatistics.getInstance().record(fingerprint, rows, reads, bytes, widestRow);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.codahale.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Process-wide statistics on the data read from result sets, keyed by the
+ * {@link SqlNormalizer fingerprint} of the SQL which produced them: how many
+ * columns were read, roughly how many bytes they came to, and how wide the
+ * widest row was. Queries which read far more than they need are candidates
+ * for narrower projections, a smaller {@code setFetchSize}, or streaming.
+ * <pre>
+ * jdbc:perf-mysql;payload=true://example.com/db_name
+ * </pre>
+ * Nothing is recorded unless a connection has {@code payload=true}, and
+ * result sets on other connections pay nothing for it. Sizes are estimated
+ * cheaply; see {@link PayloadMeter}. Reads of unknown queries, and of any
+ * queries beyond the first {@value #MAX_QUERIES}, are recorded under
+ * {@link #OTHER}.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class PayloadStatistics {
+	/**
+	 * A copy of the statistics for one query at a point in time.
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final long[] values;
+
+		Snapshot(long[] values) {
+			this.values = values;
+		}
+
+		/**
+		 * Returns the number of result sets read.
+		 */
+		public long getResultSetCount() {
+			return values[RESULT_SETS];
+		}
+
+		/**
+		 * Returns the number of rows read.
+		 */
+		public long getRowCount() {
+			return values[ROWS];
+		}
+
+		/**
+		 * Returns the number of column values read.
+		 */
+		public long getColumnReadCount() {
+			return values[READS];
+		}
+
+		/**
+		 * Returns the approximate number of bytes read.
+		 */
+		public long getBytes() {
+			return values[BYTES];
+		}
+
+		/**
+		 * Returns the mean number of bytes read per row.
+		 */
+		public double getMeanRowBytes() {
+			return (values[ROWS] == 0) ? 0.0 : (double) values[BYTES] / values[ROWS];
+		}
+
+		/**
+		 * Returns the approximate number of bytes read from the widest row.
+		 */
+		public long getWidestRowBytes() {
+			return values[WIDEST_ROW];
+		}
+	}
+
+	/**
+	 * The key under which reads of unknown queries, and of queries beyond the
+	 * first {@value #MAX_QUERIES}, are recorded.
+	 */
+	public static final String OTHER = "(other)";
+	private static final int MAX_QUERIES = 1000;
+	private static final int RESULT_SETS = 0, ROWS = 1, READS = 2, BYTES = 3, WIDEST_ROW = 4, VALUES = 5;
+	private static final PayloadStatistics INSTANCE = new PayloadStatistics();
+
+	/**
+	 * Returns the {@link PayloadStatistics} instance.
+	 */
+	public static PayloadStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	private final ConcurrentMap<String, AtomicLongArray> queries;
+
+	private PayloadStatistics() {
+		this.queries = new ConcurrentHashMap<String, AtomicLongArray>();
+	}
+
+	/**
+	 * Records the reads from one result set.
+	 *
+	 * @param query
+	 *            the fingerprint of the SQL which produced the result set, or
+	 *            {@code null} if unknown
+	 * @param rows
+	 *            the number of rows read
+	 * @param reads
+	 *            the number of column values read
+	 * @param bytes
+	 *            the approximate number of bytes read
+	 * @param widestRow
+	 *            the approximate number of bytes read from the widest row
+	 */
+	public void record(String query, long rows, long reads, long bytes, long widestRow) {
+		final AtomicLongArray values = get((query == null) ? OTHER : query);
+		values.incrementAndGet(RESULT_SETS);
+		values.addAndGet(ROWS, rows);
+		values.addAndGet(READS, reads);
+		values.addAndGet(BYTES, bytes);
+		long max = values.get(WIDEST_ROW);
+		while (widestRow > max && !values.compareAndSet(WIDEST_ROW, max, widestRow)) {
+			max = values.get(WIDEST_ROW);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of each query's statistics.
+	 */
+	public Map<String, Snapshot> snapshot() {
+		final Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+		for (Map.Entry<String, AtomicLongArray> entry : queries.entrySet()) {
+			final AtomicLongArray values = entry.getValue();
+			final long[] copy = new long[VALUES];
+			for (int i = 0; i < VALUES; i++) {
+				copy[i] = values.get(i);
+			}
+			snapshots.put(entry.getKey(), new Snapshot(copy));
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Discards all recorded statistics.
+	 */
+	public void clear() {
+		queries.clear();
+	}
+
+	private AtomicLongArray get(String query) {
+		final AtomicLongArray values = queries.get(query);
+		if (values != null) {
+			return values;
+		}
+
+		final String key = (queries.size() < MAX_QUERIES) ? query : OTHER;
+		final AtomicLongArray existing = queries.get(key);
+		if (existing != null) {
+			return existing;
+		}
+		final AtomicLongArray created = new AtomicLongArray(VALUES);
+		final AtomicLongArray raced = queries.putIfAbsent(key, created);
+		return (raced == null) ? created : raced;
+	}
+}
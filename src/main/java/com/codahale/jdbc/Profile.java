@@ -0,0 +1,244 @@
+package com.codahale.jdbc;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * What to do with a connection's timings beyond recording them, as read from
+ * its {@link Settings}. A connection's profile is handed down to each
+ * statement, result set, and so on it creates, so that {@link Recorder} can
+ * act on it without looking anything up.
+ * <p>
+ * Its settings never change, but a connection's own profile also holds the
+ * state of its current {@link Transaction} and the tables its transaction
+ * has written to, which are thread-safe themselves.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+final class Profile {
+	/**
+	 * How calls to {@link java.sql.ResultSet#next()} are timed.
+	 */
+	enum FetchTiming {
+		/**
+		 * Each call is timed.
+		 */
+		CALL,
+
+		/**
+		 * The whole result set is timed, from the first call until the last.
+		 */
+		RESULT_SET,
+
+		/**
+		 * Only calls which cross a fetch-size boundary are timed.
+		 */
+		BOUNDARY
+	}
+
+	/**
+	 * The profile of objects instrumented without any settings.
+	 */
+	static final Profile DEFAULT = new Profile(null, Long.MAX_VALUE, 1, 1, FetchTiming.CALL, false, false, false, 0,
+			null, false, Long.MAX_VALUE);
+	private static final AtomicLong CONNECTIONS = new AtomicLong();
+	private static final AtomicLong CONNECTION_IDS = new AtomicLong();
+
+	/**
+	 * Returns the profile described by {@code settings} for connections to
+	 * {@code target}, or to a target of their own if it's {@code null}:
+	 * <dl>
+	 * <dt>{@code slowquery.threshold}</dt>
+	 * <dd>log calls which take at least this many milliseconds (default: off)</dd>
+	 * <dt>{@code slowquery.file}</dt>
+	 * <dd>the file to log them to (default: {@value SlowQueryLog#DEFAULT_FILE})</dd>
+	 * <dt>{@code sample.connections}</dt>
+	 * <dd>only instrument 1 in this many connections (default: 1)</dd>
+	 * <dt>{@code sample.calls}</dt>
+	 * <dd>only time 1 in this many calls, chosen at random (default: 1)</dd>
+	 * <dt>{@code fetch.timing}</dt>
+	 * <dd>{@code call}, {@code resultset}, or {@code boundary}; see
+	 * {@link FetchTiming} (default: {@code call})</dd>
+	 * <dt>{@code payload}</dt>
+	 * <dd>measure the columns read from result sets in
+	 * {@link PayloadStatistics} (default: {@code false})</dd>
+	 * <dt>{@code stopwatch.calls}</dt>
+	 * <dd>count each call in the {@link Stopwatch}, with the slowest and a
+	 * histogram of their latencies, and merge them into
+	 * {@link StopwatchStatistics} (default: {@code false})</dd>
+	 * <dt>{@code stopwatch.queries}</dt>
+	 * <dd>count the {@link Stopwatch}'s statement executions by fingerprint,
+	 * to spot repeated queries (default: {@code false})</dd>
+	 * <dt>{@code statementcache.size}</dt>
+	 * <dd>keep up to this many idle prepared statements per connection in a
+	 * {@link StatementCache} (default: 0, off)</dd>
+	 * <dt>{@code resultcache.queries}</dt>
+	 * <dd>serve these queries from a {@link ResultCache}, which is configured
+	 * by the other {@code resultcache} settings and shared by connections to
+	 * the same target (default: off)</dd>
+	 * <dt>{@code transaction.tracking}</dt>
+	 * <dd>record how long transactions are open in
+	 * {@link TransactionStatistics} (default: {@code false})</dd>
+	 * <dt>{@code transaction.threshold}</dt>
+	 * <dd>track transactions, and have the {@link TransactionWatchdog} report
+	 * those open for at least this many milliseconds (default: off)</dd>
+	 * </dl>
+	 */
+	static Profile of(Settings settings, String target) {
+		final String threshold = settings.get("slowquery.threshold", null);
+		final int connections = Integer.parseInt(settings.get("sample.connections", "1"));
+		final int calls = Integer.parseInt(settings.get("sample.calls", "1"));
+		final FetchTiming fetchTiming = parseFetchTiming(settings.get("fetch.timing", "call"));
+		final boolean payload = Boolean.parseBoolean(settings.get("payload", "false"));
+		final boolean countCalls = Boolean.parseBoolean(settings.get("stopwatch.calls", "false"));
+		final boolean countQueries = Boolean.parseBoolean(settings.get("stopwatch.queries", "false"));
+		final int statementCacheSize = Integer.parseInt(settings.get("statementcache.size", "0"));
+		final ResultCache resultCache = ResultCache.getInstance(settings, target);
+		final String transactionThreshold = settings.get("transaction.threshold", null);
+		final boolean transactions = transactionThreshold != null
+				|| Boolean.parseBoolean(settings.get("transaction.tracking", "false"));
+		final long transactionNanos = (transactionThreshold == null) ? Long.MAX_VALUE
+				: TimeUnit.MILLISECONDS.toNanos(Long.parseLong(transactionThreshold));
+		if (threshold == null) {
+			if (connections == 1 && calls == 1 && fetchTiming == FetchTiming.CALL && !payload && !countCalls
+					&& !countQueries && statementCacheSize == 0 && resultCache == null && !transactions) {
+				return DEFAULT;
+			}
+			return new Profile(null, Long.MAX_VALUE, connections, calls, fetchTiming, payload, countCalls,
+					countQueries, statementCacheSize, resultCache, transactions, transactionNanos);
+		}
+
+		final String file = settings.get("slowquery.file", SlowQueryLog.DEFAULT_FILE);
+		final long nanoseconds = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(threshold));
+		return new Profile(SlowQueryLog.getInstance(file), nanoseconds, connections, calls, fetchTiming, payload,
+				countCalls, countQueries, statementCacheSize, resultCache, transactions, transactionNanos);
+	}
+
+	private static FetchTiming parseFetchTiming(String value) {
+		if ("resultset".equalsIgnoreCase(value)) {
+			return FetchTiming.RESULT_SET;
+		} else if ("boundary".equalsIgnoreCase(value)) {
+			return FetchTiming.BOUNDARY;
+		} else if ("call".equalsIgnoreCase(value)) {
+			return FetchTiming.CALL;
+		}
+		throw new IllegalArgumentException("Unknown fetch timing: " + value);
+	}
+
+	final SlowQueryLog slowQueryLog;
+	final long slowQueryThreshold;
+	final int connectionSampleRate;
+	final int callSampleRate;
+	final FetchTiming fetchTiming;
+	final boolean payload;
+	/**
+	 * Whether the {@link Stopwatch} counts each call and its latency.
+	 */
+	final boolean countCalls;
+	/**
+	 * Whether the {@link Stopwatch} counts statement executions by
+	 * fingerprint.
+	 */
+	final boolean countQueries;
+	final int statementCacheSize;
+	/**
+	 * The cache of query results, or {@code null} if none are cached.
+	 */
+	final ResultCache resultCache;
+	/**
+	 * The tables the connection has written to in its current transaction,
+	 * or {@code null} if no results are cached or the profile isn't a single
+	 * connection's.
+	 */
+	final ResultCache.Invalidations invalidations;
+	/**
+	 * The number of calls, across all connections, each timed call stands
+	 * for.
+	 */
+	final int weight;
+	/**
+	 * The number of the connection the profile belongs to, or {@code 0} if
+	 * it isn't a single connection's.
+	 */
+	final long connectionId;
+	/**
+	 * The name of the database the connection is to, or {@code null} if
+	 * unknown.
+	 */
+	final String database;
+	final boolean trackTransactions;
+	/**
+	 * How long a transaction may be open before the
+	 * {@link TransactionWatchdog} reports it, in nanoseconds.
+	 */
+	final long transactionThreshold;
+	/**
+	 * The connection's current transaction, or {@code null} if transactions
+	 * aren't tracked or the profile isn't a single connection's.
+	 */
+	final Transaction transaction;
+
+	Profile(SlowQueryLog slowQueryLog, long slowQueryThreshold, int connectionSampleRate, int callSampleRate,
+			FetchTiming fetchTiming, boolean payload, boolean countCalls, boolean countQueries, int statementCacheSize,
+			ResultCache resultCache, boolean trackTransactions, long transactionThreshold) {
+		this(slowQueryLog, slowQueryThreshold, connectionSampleRate, callSampleRate, fetchTiming, payload, countCalls,
+				countQueries, statementCacheSize, resultCache, trackTransactions, transactionThreshold, 0, null);
+	}
+
+	private Profile(SlowQueryLog slowQueryLog, long slowQueryThreshold, int connectionSampleRate, int callSampleRate,
+			FetchTiming fetchTiming, boolean payload, boolean countCalls, boolean countQueries, int statementCacheSize,
+			ResultCache resultCache, boolean trackTransactions, long transactionThreshold, long connectionId,
+			String database) {
+		if (connectionSampleRate < 1 || callSampleRate < 1) {
+			throw new IllegalArgumentException("Sample rates must be at least 1");
+		}
+		this.slowQueryLog = slowQueryLog;
+		this.slowQueryThreshold = slowQueryThreshold;
+		this.connectionSampleRate = connectionSampleRate;
+		this.callSampleRate = callSampleRate;
+		this.fetchTiming = fetchTiming;
+		this.payload = payload;
+		this.countCalls = countCalls;
+		this.countQueries = countQueries;
+		this.statementCacheSize = statementCacheSize;
+		this.resultCache = resultCache;
+		this.invalidations = (resultCache != null && connectionId != 0) ? new ResultCache.Invalidations(resultCache) : null;
+		this.weight = connectionSampleRate * callSampleRate;
+		this.connectionId = connectionId;
+		this.database = database;
+		this.trackTransactions = trackTransactions;
+		this.transactionThreshold = transactionThreshold;
+		this.transaction = (trackTransactions && connectionId != 0)
+				? new Transaction(connectionId, database, transactionThreshold, slowQueryLog) : null;
+	}
+
+	/**
+	 * Returns a copy of this profile for a new connection to
+	 * {@code database}, numbered so that the calls made on it can be told
+	 * apart from those on other connections, e.g. in {@link JdbcEvents}.
+	 */
+	Profile forConnection(String database) {
+		return new Profile(slowQueryLog, slowQueryThreshold, connectionSampleRate, callSampleRate, fetchTiming,
+				payload, countCalls, countQueries, statementCacheSize, resultCache, trackTransactions,
+				transactionThreshold, CONNECTION_IDS.incrementAndGet(), database);
+	}
+
+	/**
+	 * Returns {@code true} if a new connection should be instrumented.
+	 */
+	boolean sampleConnection() {
+		return connectionSampleRate == 1 || (CONNECTIONS.getAndIncrement() % connectionSampleRate) == 0;
+	}
+
+	/**
+	 * Returns {@code true} if a call should be timed.
+	 */
+	boolean sampleCall() {
+		return ThreadLocalRandom.current().nextInt(callSampleRate) == 0;
+	}
+}
@@ -0,0 +1,173 @@
+package com.codahale.jdbc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server which serves {@link JdbcStatistics} and
+ * {@link QueryStatistics} at {@code /metrics} in the Prometheus text format,
+ * using the JDK's own {@code com.sun.net.httpserver}:
+ * <pre>
+ * final PrometheusExporter exporter = new PrometheusExporter(9404);
+ * exporter.start();
+ * </pre>
+ * Calls are exported by {@link Category} as {@code jdbc_calls_total},
+ * {@code jdbc_call_errors_total}, {@code jdbc_call_seconds_total}, and
+ * {@code jdbc_call_max_seconds}, and statement executions as the
+ * {@code jdbc_query_seconds} histogram, labelled by the fingerprint of their
+ * SQL.
+ * <p>
+ * Scrapes are served one at a time by a single daemon thread, which renders
+ * into a buffer it reuses; statistics are read the same way any snapshot of
+ * them is, so a scrape never holds up the threads making JDBC calls, and
+ * makes no garbage of its own beyond what the HTTP server does. The HTTP
+ * server's dispatcher thread takes its daemon status from the thread which
+ * starts it, so the server is always started from a daemon thread; a running
+ * exporter never keeps the JVM from exiting.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class PrometheusExporter {
+	/**
+	 * The content type of the Prometheus text format.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final String PATH = "/metrics";
+
+	private final InetSocketAddress address;
+	@GuardedBy("this")
+	private HttpServer server;
+	@GuardedBy("this")
+	private ExecutorService executor;
+
+	/**
+	 * Creates a new {@link PrometheusExporter} which listens on {@code port}
+	 * on all interfaces, or on any free port if it's {@code 0}.
+	 */
+	public PrometheusExporter(int port) {
+		this(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Creates a new {@link PrometheusExporter} which listens on
+	 * {@code address}.
+	 */
+	public PrometheusExporter(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * Starts serving metrics, unless already started.
+	 *
+	 * @throws IOException
+	 *             if the server can't bind to its address
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			return;
+		}
+
+		final HttpServer created = HttpServer.create(address, 0);
+		final PrometheusRenderer renderer = new PrometheusRenderer();
+		created.createContext(PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					final String method = exchange.getRequestMethod();
+					if (!PATH.equals(exchange.getRequestURI().getPath())) {
+						exchange.sendResponseHeaders(404, -1);
+					} else if ("GET".equals(method) || "HEAD".equals(method)) {
+						final int length = renderer.render();
+						exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+						if ("HEAD".equals(method)) {
+							exchange.sendResponseHeaders(200, -1);
+						} else {
+							exchange.sendResponseHeaders(200, length);
+							final OutputStream output = exchange.getResponseBody();
+							output.write(renderer.buffer(), 0, length);
+							output.flush();
+						}
+					} else {
+						exchange.sendResponseHeaders(405, -1);
+					}
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "jdbc-prometheus-exporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		created.setExecutor(executor);
+		startAsDaemon(created);
+		this.server = created;
+	}
+
+	private static void startAsDaemon(final HttpServer server) {
+		final RuntimeException[] failure = new RuntimeException[1];
+		final Thread starter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server.start();
+				} catch (RuntimeException e) {
+					failure[0] = e;
+				}
+			}
+		}, "jdbc-prometheus-exporter-start");
+		starter.setDaemon(true);
+		starter.start();
+		boolean interrupted = false;
+		while (starter.isAlive()) {
+			try {
+				starter.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Stops serving metrics, if started.
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			this.server = null;
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Returns the port the exporter is listening on, or {@code -1} if it
+	 * isn't started.
+	 */
+	public synchronized int getPort() {
+		return (server == null) ? -1 : server.getAddress().getPort();
+	}
+}
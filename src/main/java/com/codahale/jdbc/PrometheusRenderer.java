@@ -0,0 +1,268 @@
+package com.codahale.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Renders {@link JdbcStatistics} and {@link QueryStatistics} in the
+ * Prometheus text exposition format.
+ * <p>
+ * Everything is written into one byte buffer which is reused from one render
+ * to the next, and grows only when the output does, so that frequent scrapes
+ * make no garbage: statistics are copied into reused arrays, numbers are
+ * formatted by hand, and label values are escaped and encoded as UTF-8 in
+ * place. Query histograms are mapped onto fixed {@code le} bounds, from
+ * 100&micro;s to 10s.
+ *
+ * @author coda
+ *
+ */
+@NotThreadSafe
+final class PrometheusRenderer implements BiConsumer<String, LatencyHistogram> {
+	private static final long[] LIMITS = { 100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L,
+			25000000L, 50000000L, 100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L,
+			10000000000L };
+	private static final int[] BOUNDS = LatencyHistogram.bucketsAtMost(LIMITS);
+	private static final Category[] CATEGORIES = Category.values();
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private final byte[][] categories;
+	private final byte[][] les;
+	private final long[] values;
+	private final JdbcStatistics.Snapshot snapshot;
+	private final long[] counts;
+	private byte[] buffer;
+	private int length;
+
+	PrometheusRenderer() {
+		this.categories = new byte[CATEGORIES.length][];
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			categories[i] = bytes(CATEGORIES[i].name().toLowerCase());
+		}
+
+		this.les = new byte[LIMITS.length + 1][];
+		this.buffer = new byte[32];
+		for (int i = 0; i < LIMITS.length; i++) {
+			length = 0;
+			seconds(LIMITS[i]);
+			les[i] = Arrays.copyOf(buffer, length);
+		}
+		les[LIMITS.length] = bytes("+Inf");
+
+		// the snapshot wraps the reused array, which is refilled on each render
+		this.values = JdbcStatistics.newValues();
+		this.snapshot = new JdbcStatistics.Snapshot(values);
+		this.counts = new long[LIMITS.length + 1];
+		this.buffer = new byte[8192];
+		this.length = 0;
+	}
+
+	/**
+	 * Renders the current statistics, returning the number of bytes of
+	 * {@link #buffer()} written.
+	 */
+	int render() {
+		length = 0;
+		JdbcStatistics.getInstance().copyInto(values);
+
+		header("jdbc_calls_total", "JDBC calls, by category.", "counter");
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			category("jdbc_calls_total", i);
+			number(snapshot.getCount(CATEGORIES[i]));
+			newline();
+		}
+
+		header("jdbc_call_errors_total", "JDBC calls which threw an exception, by category.", "counter");
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			category("jdbc_call_errors_total", i);
+			number(snapshot.getErrorCount(CATEGORIES[i]));
+			newline();
+		}
+
+		header("jdbc_call_seconds_total", "Time spent in JDBC calls, by category.", "counter");
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			category("jdbc_call_seconds_total", i);
+			seconds(snapshot.getTotalNanos(CATEGORIES[i]));
+			newline();
+		}
+
+		header("jdbc_call_max_seconds", "The longest JDBC call, by category.", "gauge");
+		for (int i = 0; i < CATEGORIES.length; i++) {
+			category("jdbc_call_max_seconds", i);
+			seconds(snapshot.getMaxNanos(CATEGORIES[i]));
+			newline();
+		}
+
+		header("jdbc_query_seconds", "Statement execution latency, by SQL fingerprint.", "histogram");
+		QueryStatistics.getInstance().forEach(this);
+		return length;
+	}
+
+	/**
+	 * Returns the buffer the last {@link #render()} wrote into.
+	 */
+	byte[] buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Renders the histogram of {@code query}.
+	 */
+	@Override
+	public void accept(String query, LatencyHistogram histogram) {
+		Arrays.fill(counts, 0);
+		final long total = histogram.addTo(counts, BOUNDS);
+
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; i++) {
+			cumulative += counts[i];
+			ascii("jdbc_query_seconds_bucket{query=\"");
+			escaped(query);
+			ascii("\",le=\"");
+			append(les[i]);
+			ascii("\"} ");
+			number(cumulative);
+			newline();
+		}
+
+		ascii("jdbc_query_seconds_sum{query=\"");
+		escaped(query);
+		ascii("\"} ");
+		seconds(total);
+		newline();
+
+		ascii("jdbc_query_seconds_count{query=\"");
+		escaped(query);
+		ascii("\"} ");
+		number(cumulative);
+		newline();
+	}
+
+	private void header(String name, String help, String type) {
+		ascii("# HELP ");
+		ascii(name);
+		write(' ');
+		ascii(help);
+		newline();
+		ascii("# TYPE ");
+		ascii(name);
+		write(' ');
+		ascii(type);
+		newline();
+	}
+
+	private void category(String name, int category) {
+		ascii(name);
+		ascii("{category=\"");
+		append(categories[category]);
+		ascii("\"} ");
+	}
+
+	private void seconds(long nanoseconds) {
+		number(nanoseconds / 1000000000L);
+		long fraction = Math.abs(nanoseconds % 1000000000L);
+		if (fraction != 0) {
+			int digits = 9;
+			while (fraction % 10 == 0) {
+				fraction /= 10;
+				digits--;
+			}
+			write('.');
+			ensure(digits);
+			for (int i = length + digits - 1; i >= length; i--) {
+				buffer[i] = (byte) ('0' + (fraction % 10));
+				fraction /= 10;
+			}
+			length += digits;
+		}
+	}
+
+	private void number(long n) {
+		if (n == Long.MIN_VALUE) {
+			ascii(Long.toString(n));
+			return;
+		}
+		if (n < 0) {
+			write('-');
+			n = -n;
+		}
+
+		int digits = 1;
+		for (long m = n; m >= 10; m /= 10) {
+			digits++;
+		}
+		ensure(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + (n % 10));
+			n /= 10;
+		}
+		length += digits;
+	}
+
+	private void escaped(String s) {
+		// no character takes more than four bytes, escaped or encoded
+		ensure(s.length() * 4);
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '\\' || c == '"') {
+				buffer[length++] = '\\';
+				buffer[length++] = (byte) c;
+			} else if (c == '\n') {
+				buffer[length++] = '\\';
+				buffer[length++] = 'n';
+			} else if (c < 0x80) {
+				buffer[length++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[length++] = (byte) (0xC0 | (c >> 6));
+				buffer[length++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				final int p = Character.toCodePoint(c, s.charAt(++i));
+				buffer[length++] = (byte) (0xF0 | (p >> 18));
+				buffer[length++] = (byte) (0x80 | ((p >> 12) & 0x3F));
+				buffer[length++] = (byte) (0x80 | ((p >> 6) & 0x3F));
+				buffer[length++] = (byte) (0x80 | (p & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buffer[length++] = '?';
+			} else {
+				buffer[length++] = (byte) (0xE0 | (c >> 12));
+				buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[length++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void ascii(String s) {
+		ensure(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			buffer[length++] = (byte) s.charAt(i);
+		}
+	}
+
+	private void append(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	private void newline() {
+		write('\n');
+	}
+
+	private void write(char c) {
+		ensure(1);
+		buffer[length++] = (byte) c;
+	}
+
+	private void ensure(int needed) {
+		if (length + needed > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.codahale.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Counts of executions and the time spent in them by query fingerprint, in an
+ * open-addressing hash table of parallel primitive arrays. Clearing it keeps
+ * the arrays, so a thread which counts the queries of request after request
+ * allocates nothing once it has seen its widest request.
+ * <p>
+ * Fingerprints usually come from {@link FingerprintCache}, which hands out the
+ * same {@link String} for the same SQL, so most probes end on an identity
+ * comparison. At most {@value #MAX_QUERIES} distinct queries are counted
+ * between clears; any others are ignored.
+ *
+ * @author coda
+ *
+ */
+@NotThreadSafe
+final class QueryCounts {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int MAX_QUERIES = 1024;
+
+	private String[] queries = new String[INITIAL_CAPACITY];
+	private long[] counts = new long[INITIAL_CAPACITY];
+	private long[] nanoseconds = new long[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * Adds {@code count} executions of {@code query} which took
+	 * {@code elapsed} nanoseconds in all.
+	 */
+	void add(String query, long count, long elapsed) {
+		final int mask = queries.length - 1;
+		int i = indexOf(query, mask);
+		while (true) {
+			final String existing = queries[i];
+			if (existing == null) {
+				if (size < MAX_QUERIES) {
+					queries[i] = query;
+					counts[i] = count;
+					nanoseconds[i] = elapsed;
+					if (++size * 2 > queries.length) {
+						grow();
+					}
+				}
+				return;
+			}
+			if (existing == query || existing.equals(query)) {
+				counts[i] += count;
+				nanoseconds[i] += elapsed;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns {@code true} if any query has been executed more than
+	 * {@code threshold} times.
+	 */
+	boolean exceeds(int threshold) {
+		for (int i = 0; i < queries.length; i++) {
+			if (queries[i] != null && counts[i] > threshold) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the queries which have been executed more than
+	 * {@code threshold} times, those which took longest first.
+	 */
+	List<RepeatedQuery> exceeding(int threshold) {
+		final List<RepeatedQuery> repeated = new ArrayList<RepeatedQuery>();
+		for (int i = 0; i < queries.length; i++) {
+			if (queries[i] != null && counts[i] > threshold) {
+				repeated.add(new RepeatedQuery(queries[i], counts[i], nanoseconds[i]));
+			}
+		}
+		Collections.sort(repeated, new Comparator<RepeatedQuery>() {
+			@Override
+			public int compare(RepeatedQuery a, RepeatedQuery b) {
+				return Long.compare(b.getElapsedNanos(), a.getElapsedNanos());
+			}
+		});
+		return repeated;
+	}
+
+	/**
+	 * Forgets all counts, keeping the table's capacity.
+	 */
+	void clear() {
+		if (size > 0) {
+			Arrays.fill(queries, null);
+			size = 0;
+		}
+	}
+
+	private void grow() {
+		final String[] oldQueries = queries;
+		final long[] oldCounts = counts;
+		final long[] oldNanoseconds = nanoseconds;
+		final int capacity = oldQueries.length * 2;
+		final int mask = capacity - 1;
+
+		this.queries = new String[capacity];
+		this.counts = new long[capacity];
+		this.nanoseconds = new long[capacity];
+		for (int j = 0; j < oldQueries.length; j++) {
+			if (oldQueries[j] != null) {
+				int i = indexOf(oldQueries[j], mask);
+				while (queries[i] != null) {
+					i = (i + 1) & mask;
+				}
+				queries[i] = oldQueries[j];
+				counts[i] = oldCounts[j];
+				nanoseconds[i] = oldNanoseconds[j];
+			}
+		}
+	}
+
+	private static int indexOf(String query, int mask) {
+		final int h = query.hashCode() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,115 @@
+package com.codahale.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Process-wide latency histograms of statement executions, keyed by the
+ * {@link SqlNormalizer fingerprint} of their SQL.
+ * <pre>
+ * for (Map.Entry&lt;String, LatencyHistogram.Snapshot&gt; e : QueryStatistics.getInstance().snapshot().entrySet()) {
+ *     System.out.println(e.getKey() + ": p99=" + e.getValue().get99thPercentile());
+ * }
+ * </pre>
+ * To keep memory bounded, at most {@value #MAX_QUERIES} distinct queries are
+ * tracked; executions of any others are recorded under {@link #OTHER}.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class QueryStatistics {
+	/**
+	 * The key under which queries beyond the first {@value #MAX_QUERIES} are
+	 * recorded.
+	 */
+	public static final String OTHER = "(other)";
+	private static final int MAX_QUERIES = 1000;
+	private static final QueryStatistics INSTANCE = new QueryStatistics();
+
+	/**
+	 * Returns the {@link QueryStatistics} instance.
+	 */
+	public static QueryStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	private final ConcurrentHashMap<String, LatencyHistogram> histograms;
+
+	private QueryStatistics() {
+		this.histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	}
+
+	/**
+	 * Records the latency of an execution of {@code query}.
+	 *
+	 * @param query
+	 *            the fingerprint of the SQL executed
+	 * @param nanoseconds
+	 *            how long it took, in nanoseconds
+	 */
+	public void record(String query, long nanoseconds) {
+		record(query, nanoseconds, 1);
+	}
+
+	/**
+	 * Records the latency of a sampled execution of {@code query} which
+	 * stands for {@code weight} executions.
+	 *
+	 * @param query
+	 *            the fingerprint of the SQL executed
+	 * @param nanoseconds
+	 *            how long it took, in nanoseconds
+	 * @param weight
+	 *            the number of executions it was sampled from
+	 */
+	public void record(String query, long nanoseconds, int weight) {
+		LatencyHistogram histogram = histograms.get(query);
+		if (histogram == null) {
+			histogram = create(query);
+		}
+		histogram.record(nanoseconds, weight);
+	}
+
+	/**
+	 * Returns a snapshot of each query's histogram.
+	 */
+	public Map<String, LatencyHistogram.Snapshot> snapshot() {
+		final Map<String, LatencyHistogram.Snapshot> snapshots = new HashMap<String, LatencyHistogram.Snapshot>();
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Calls {@code action} with each query and its histogram, without
+	 * copying them or allocating map entries.
+	 */
+	void forEach(BiConsumer<String, LatencyHistogram> action) {
+		histograms.forEach(action);
+	}
+
+	/**
+	 * Discards all recorded histograms.
+	 */
+	public void clear() {
+		histograms.clear();
+	}
+
+	private LatencyHistogram create(String query) {
+		final String key = (histograms.size() < MAX_QUERIES) ? query : OTHER;
+		final LatencyHistogram histogram = histograms.get(key);
+		if (histogram != null) {
+			return histogram;
+		}
+
+		final LatencyHistogram created = new LatencyHistogram();
+		final LatencyHistogram existing = histograms.putIfAbsent(key, created);
+		return (existing == null) ? created : existing;
+	}
+}
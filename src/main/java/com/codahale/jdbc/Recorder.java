@@ -0,0 +1,338 @@
+package com.codahale.jdbc;
+
+/**
+ * The hooks both {@link Instrumenter} and the delegating wrappers call around
+ * each timed JDBC call. It reads the clock once on each side of the call and
+ * feeds that to the active {@link RequestContext} (or, if there isn't one,
+ * the thread's {@link Stopwatch}), {@link JdbcStatistics}, and, for statement
+ * executions, {@link QueryStatistics} and, for writes, {@link BatchStatistics}.
+ * Calls slower than the connection's {@link Profile} threshold are also
+ * published to its {@link SlowQueryLog}, writes invalidate its
+ * {@link ResultCache}, statement executions are noted in its
+ * {@link Transaction}, calls made while the thread records its
+ * {@link Timeline} are added to it, calls made while a {@link FetchTimer}
+ * times a whole result set are taken out of its time, and while a flight
+ * recording is running, each call is recorded as one of the
+ * {@link JdbcEvents}.
+ * <p>
+ * If the connection samples its calls, {@link #start(Profile, Category)} returns
+ * {@link #SKIPPED} for those which aren't timed, and {@code stop} ignores
+ * them; the rest are recorded with the profile's weight.
+ * <pre>
+ * final long start = Recorder.start(profile, Category.QUERY);
+ * boolean succeeded = false;
+ * try {
+ *     final ResultSet result = statement.executeQuery(sql);
+ *     succeeded = true;
+ *     return result;
+ * } finally {
+ *     Recorder.stop(profile, Category.QUERY, fingerprint, start, succeeded);
+ * }
+ * </pre>
+ *
+ * @author coda
+ *
+ */
+final class Recorder {
+	/**
+	 * The start time of a call which isn't being timed.
+	 */
+	static final long SKIPPED = Long.MIN_VALUE;
+
+	private Recorder() {
+		// static hooks only
+	}
+
+	/**
+	 * Starts timing a call in {@code category}, returning its start time as
+	 * read from {@link System#nanoTime()}, or {@link #SKIPPED} if the call
+	 * isn't sampled.
+	 */
+	static long start(Profile profile, Category category) {
+		if (profile.callSampleRate > 1 && !profile.sampleCall()) {
+			return SKIPPED;
+		}
+		final long now = System.nanoTime();
+		// the stopwatch is always started, so that the active context is
+		// only looked up once the call is over
+		Stopwatch.getInstance().begin(now);
+		if (FlightRecording.active) {
+			JdbcEvents.begin(category, now);
+		}
+		return now;
+	}
+
+	/**
+	 * Stops timing a call which started at {@code start}.
+	 *
+	 * @param profile
+	 *            the profile of the connection the call was made on
+	 * @param category
+	 *            the kind of call
+	 * @param fingerprint
+	 *            the fingerprint of the SQL executed, or {@code null} if
+	 *            unknown or not a statement execution
+	 * @param start
+	 *            the value returned by {@link #start(Profile, Category)}
+	 * @param succeeded
+	 *            {@code false} if the call threw an exception
+	 * @return how long the call took, in nanoseconds, or {@code -1} if it
+	 *         wasn't timed
+	 */
+	static long stop(Profile profile, Category category, String fingerprint, long start, boolean succeeded) {
+		if (category == Category.EXECUTE && profile.resultCache != null) {
+			invalidate(profile, fingerprint);
+		}
+		if (category.getBucket() == Bucket.EXECUTION && profile.transaction != null) {
+			executed(profile, fingerprint, start);
+		}
+		final long elapsed = time(profile, category, fingerprint, start, 0, succeeded);
+		if (elapsed >= 0 && FlightRecording.active) {
+			JdbcEvents.end(profile, category, fingerprint, start, 0, 0, 0, succeeded);
+		}
+		return elapsed;
+	}
+
+	private static long time(Profile profile, Category category, String fingerprint, long start, long rows,
+			boolean succeeded) {
+		if (start == SKIPPED) {
+			return -1;
+		}
+		final long now = System.nanoTime();
+		final long elapsed = now - start;
+		final RequestContext context = RequestContext.current();
+		if (context == null) {
+			final Stopwatch stopwatch = Stopwatch.getInstance();
+			stopwatch.stop(now, category, elapsed, 0, profile.callSampleRate);
+			if (profile.countCalls) {
+				stopwatch.countCall(elapsed, profile.callSampleRate);
+			}
+			if (profile.countQueries && fingerprint != null && category.getBucket() == Bucket.EXECUTION) {
+				stopwatch.countQuery(fingerprint, elapsed, profile.callSampleRate);
+			}
+		} else {
+			Stopwatch.getInstance().cancel(start);
+			context.record(category, elapsed, 0, profile.callSampleRate);
+		}
+		JdbcStatistics.getInstance().record(category, elapsed, succeeded, profile.weight);
+		if (fingerprint != null) {
+			QueryStatistics.getInstance().record(fingerprint, elapsed, profile.weight);
+		}
+		if (elapsed >= profile.slowQueryThreshold) {
+			profile.slowQueryLog.publish(category, fingerprint, elapsed);
+		}
+		if (Timeline.isActive()) {
+			Timeline.record(category, fingerprint, start, elapsed, rows);
+		}
+		FetchTimer.timed(elapsed);
+		return elapsed;
+	}
+
+	/**
+	 * Stops timing an update which started at {@code start}, and records the
+	 * rows it affected in {@link BatchStatistics}.
+	 *
+	 * @param rows
+	 *            the number of rows the update affected, if it succeeded
+	 * @see #stop(Profile, Category, String, long, boolean)
+	 */
+	static void stopUpdate(Profile profile, String fingerprint, long start, long rows, boolean succeeded) {
+		if (profile.resultCache != null) {
+			invalidate(profile, fingerprint);
+		}
+		if (profile.transaction != null) {
+			executed(profile, fingerprint, start);
+		}
+		final long elapsed = time(profile, Category.UPDATE, fingerprint, start, rows, succeeded);
+		if (elapsed >= 0 && succeeded) {
+			BatchStatistics.getInstance().recordUpdate(fingerprint, rows, elapsed, profile.weight);
+		}
+		if (elapsed >= 0 && FlightRecording.active) {
+			JdbcEvents.end(profile, Category.UPDATE, fingerprint, start, rows, 0, 0, succeeded);
+		}
+	}
+
+	/**
+	 * Stops timing a batch which started at {@code start}, and records its
+	 * size and the rows it affected in {@link BatchStatistics}.
+	 *
+	 * @param size
+	 *            the number of statements added to the batch
+	 * @param rows
+	 *            the number of rows the batch affected, if it succeeded
+	 * @see #stop(Profile, Category, String, long, boolean)
+	 */
+	static void stopBatch(Profile profile, String fingerprint, long start, int size, long rows, boolean succeeded) {
+		if (profile.resultCache != null) {
+			invalidate(profile, fingerprint);
+		}
+		if (profile.transaction != null) {
+			executed(profile, fingerprint, start);
+		}
+		final long elapsed = time(profile, Category.BATCH, fingerprint, start, rows, succeeded);
+		if (elapsed >= 0 && succeeded) {
+			BatchStatistics.getInstance().recordBatch(fingerprint, size, rows, elapsed, profile.weight);
+		}
+		if (elapsed >= 0 && FlightRecording.active) {
+			JdbcEvents.end(profile, Category.BATCH, fingerprint, start, rows, size, 0, succeeded);
+		}
+	}
+
+	/**
+	 * Invalidates the cached results a write may have changed, and, on a
+	 * single connection, notes it so they're invalidated again when its
+	 * transaction ends.
+	 */
+	private static void invalidate(Profile profile, String fingerprint) {
+		if (profile.invalidations != null) {
+			profile.invalidations.written(fingerprint);
+		} else {
+			profile.resultCache.invalidate(fingerprint);
+		}
+	}
+
+	/**
+	 * Notes a statement execution in the connection's {@link Transaction},
+	 * whether or not it was sampled.
+	 */
+	private static void executed(Profile profile, String fingerprint, long start) {
+		profile.transaction.executed(fingerprint, (start == SKIPPED) ? System.nanoTime() : start);
+	}
+
+	/**
+	 * Stops timing a read from a large object or stream which started at
+	 * {@code start}, and adds the {@code bytes} it read.
+	 *
+	 * @see #stop(Profile, Category, String, long, boolean)
+	 */
+	static void stopRead(Profile profile, long start, long bytes, boolean succeeded) {
+		if (time(profile, Category.LOB, null, start, 0, succeeded) >= 0) {
+			recordBytes(profile, bytes, profile.callSampleRate);
+			if (FlightRecording.active) {
+				JdbcEvents.end(profile, Category.LOB, null, start, 0, 0, bytes, succeeded);
+			}
+		}
+	}
+
+	/**
+	 * Adds {@code bytes} read from a large object or stream, which stand for
+	 * {@code weight} times as many.
+	 */
+	static void recordBytes(Profile profile, long bytes, int weight) {
+		if (bytes <= 0) {
+			return;
+		}
+		final RequestContext context = RequestContext.current();
+		if (context == null) {
+			Stopwatch.getInstance().recordBytes(bytes, weight);
+		} else {
+			context.recordBytes(bytes, weight);
+		}
+	}
+
+	/**
+	 * Stops timing a call to {@link java.sql.ResultSet#next()} which started
+	 * at {@code start}.
+	 *
+	 * @param profile
+	 *            the profile of the connection the call was made on
+	 * @param fingerprint
+	 *            the fingerprint of the SQL which produced the result set, or
+	 *            {@code null} if unknown; only used for the slow query log
+	 * @param start
+	 *            the value returned by {@link #start(Profile, Category)}
+	 * @param row
+	 *            {@code true} if the call fetched a row
+	 * @param succeeded
+	 *            {@code false} if the call threw an exception
+	 */
+	static void stopFetch(Profile profile, String fingerprint, long start, boolean row, boolean succeeded) {
+		if (start == SKIPPED) {
+			return;
+		}
+		final long now = System.nanoTime();
+		final long elapsed = now - start;
+		final RequestContext context = RequestContext.current();
+		if (context == null) {
+			final Stopwatch stopwatch = Stopwatch.getInstance();
+			stopwatch.stop(now, Category.FETCH, elapsed, row ? 1 : 0, profile.callSampleRate);
+			if (profile.countCalls) {
+				stopwatch.countCall(elapsed, profile.callSampleRate);
+			}
+		} else {
+			Stopwatch.getInstance().cancel(start);
+			context.record(Category.FETCH, elapsed, row ? 1 : 0, profile.callSampleRate);
+		}
+		JdbcStatistics.getInstance().record(Category.FETCH, elapsed, succeeded, profile.weight);
+		if (elapsed >= profile.slowQueryThreshold) {
+			profile.slowQueryLog.publish(Category.FETCH, fingerprint, elapsed);
+		}
+		if (Timeline.isActive()) {
+			Timeline.record(Category.FETCH, fingerprint, start, elapsed, row ? 1 : 0);
+		}
+		FetchTimer.timed(elapsed);
+		if (FlightRecording.active) {
+			JdbcEvents.end(profile, Category.FETCH, fingerprint, start, row ? 1 : 0, 0, 0, succeeded);
+		}
+	}
+
+	/**
+	 * Records a query served from a {@link ResultCache} in {@code elapsed}
+	 * nanoseconds, apart from the time spent in the database. Cache hits
+	 * aren't sampled, so they're weighted only by the connection sample rate.
+	 *
+	 * @param fingerprint
+	 *            the fingerprint of the query; only used for the
+	 *            {@link Timeline}
+	 */
+	static void recordCached(Profile profile, String fingerprint, long elapsed) {
+		final RequestContext context = RequestContext.current();
+		if (context == null) {
+			Stopwatch.getInstance().record(Category.CACHED, elapsed, 0, 1);
+		} else {
+			context.record(Category.CACHED, elapsed, 0, 1);
+		}
+		JdbcStatistics.getInstance().record(Category.CACHED, elapsed, true, profile.connectionSampleRate);
+		if (Timeline.isActive()) {
+			Timeline.record(Category.CACHED, fingerprint, System.nanoTime() - elapsed, elapsed, 0);
+		}
+		FetchTimer.timed(elapsed);
+	}
+
+	/**
+	 * Records {@code elapsed} nanoseconds spent fetching {@code rows} rows,
+	 * timed by a {@link FetchTimer} rather than around a single call.
+	 *
+	 * @param profile
+	 *            the profile of the connection the rows were fetched on
+	 * @param fingerprint
+	 *            the fingerprint of the SQL which produced the result set, or
+	 *            {@code null} if unknown; only used for the slow query log
+	 * @param elapsed
+	 *            the time spent fetching, in nanoseconds
+	 * @param rows
+	 *            the number of rows fetched
+	 * @param succeeded
+	 *            {@code false} if fetching threw an exception
+	 */
+	static void recordFetch(Profile profile, String fingerprint, long elapsed, long rows, boolean succeeded) {
+		final RequestContext context = RequestContext.current();
+		if (context == null) {
+			final Stopwatch stopwatch = Stopwatch.getInstance();
+			stopwatch.record(Category.FETCH, elapsed, rows, profile.callSampleRate);
+			if (profile.countCalls) {
+				stopwatch.countCall(elapsed, profile.callSampleRate);
+			}
+		} else {
+			context.record(Category.FETCH, elapsed, rows, profile.callSampleRate);
+		}
+		JdbcStatistics.getInstance().record(Category.FETCH, elapsed, succeeded, profile.weight);
+		if (elapsed >= profile.slowQueryThreshold) {
+			profile.slowQueryLog.publish(Category.FETCH, fingerprint, elapsed);
+		}
+		if (Timeline.isActive()) {
+			Timeline.record(Category.FETCH, fingerprint, System.nanoTime() - elapsed, elapsed, rows);
+		}
+		FetchTimer.timed(elapsed);
+	}
+}
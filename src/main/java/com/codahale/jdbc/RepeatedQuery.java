@@ -0,0 +1,58 @@
+package com.codahale.jdbc;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * A query which was executed many times within one {@link Stopwatch} scope,
+ * which usually means it's being run once per row of an earlier query (the
+ * "N+1 selects" problem) and could be replaced by a join or a single
+ * {@code IN} query.
+ *
+ * @author coda
+ *
+ */
+@Immutable
+public final class RepeatedQuery {
+	private final String query;
+	private final long count;
+	private final long nanoseconds;
+
+	RepeatedQuery(String query, long count, long nanoseconds) {
+		this.query = query;
+		this.count = count;
+		this.nanoseconds = nanoseconds;
+	}
+
+	/**
+	 * Returns the {@link SqlNormalizer fingerprint} of the query.
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * Returns the number of times the query was executed.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the total time spent executing the query, in milliseconds.
+	 */
+	public long getElapsedTime() {
+		return nanoseconds / 1000000;
+	}
+
+	/**
+	 * Returns the total time spent executing the query, in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return nanoseconds;
+	}
+
+	@Override
+	public String toString() {
+		return count + "x " + query + " (" + getElapsedTime() + "ms)";
+	}
+}
@@ -0,0 +1,348 @@
+package com.codahale.jdbc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * An explicit accounting context for one request's database time, which,
+ * unlike {@link Stopwatch}, isn't tied to a thread. While a context is
+ * active, instrumented JDBC calls are recorded into it instead of into the
+ * thread's {@link Stopwatch}:
+ * <pre>
+ * final RequestContext context = RequestContext.create();
+ * context.run(new Runnable() {
+ *     public void run() {
+ *         handleRequest();
+ *     }
+ * });
+ * context.getElapsedTime();
+ * </pre>
+ * To carry a request over to another thread, capture its context with
+ * {@link #current()} and resume it there with {@link #run(Runnable)},
+ * {@link #call(Callable)}, or {@link #wrap(Runnable)}:
+ * <pre>
+ * executor.submit(RequestContext.current().wrap(task));
+ * </pre>
+ * Contexts are bound with {@code java.lang.ScopedValue} where the JDK has
+ * it, which costs virtual threads nothing, and with a {@link ThreadLocal}
+ * otherwise. Since calls may be recorded by several threads at once, all
+ * totals are kept atomically, each on a cache line of its own so that
+ * threads updating different totals don't contend.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class RequestContext {
+	/**
+	 * How the active context is bound to the running code.
+	 */
+	private interface Binding {
+		RequestContext current();
+
+		void run(RequestContext context, Runnable runnable);
+	}
+
+	private static final class ThreadLocalBinding implements Binding {
+		private final ThreadLocal<RequestContext> contexts = new ThreadLocal<RequestContext>();
+
+		@Override
+		public RequestContext current() {
+			return contexts.get();
+		}
+
+		@Override
+		public void run(RequestContext context, Runnable runnable) {
+			final RequestContext previous = contexts.get();
+			contexts.set(context);
+			try {
+				runnable.run();
+			} finally {
+				if (previous == null) {
+					contexts.remove();
+				} else {
+					contexts.set(previous);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binds contexts with {@code java.lang.ScopedValue}, found reflectively
+	 * so that this still compiles and runs on JDKs without it.
+	 */
+	private static final class ScopedValueBinding implements Binding {
+		private static final Object UNBOUND = new Object();
+
+		static Binding create() {
+			try {
+				final Class<?> scopedValue = Class.forName("java.lang.ScopedValue");
+				final Class<?> carrier = Class.forName("java.lang.ScopedValue$Carrier");
+				final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+				final Object key = lookup.findStatic(scopedValue, "newInstance", MethodType.methodType(scopedValue)).invoke();
+				final MethodHandle orElse = lookup.findVirtual(scopedValue, "orElse", MethodType.methodType(Object.class, Object.class)).bindTo(key);
+				final MethodHandle where = MethodHandles.insertArguments(
+						lookup.findStatic(scopedValue, "where", MethodType.methodType(carrier, scopedValue, Object.class)), 0, key)
+						.asType(MethodType.methodType(Object.class, Object.class));
+				final MethodHandle run = lookup.findVirtual(carrier, "run", MethodType.methodType(void.class, Runnable.class))
+						.asType(MethodType.methodType(void.class, Object.class, Runnable.class));
+
+				// make sure it actually works, e.g. isn't a disabled preview
+				final Binding binding = new ScopedValueBinding(orElse, where, run);
+				final RequestContext probe = new RequestContext();
+				final boolean[] bound = new boolean[1];
+				binding.run(probe, new Runnable() {
+					@Override
+					public void run() {
+						bound[0] = (binding.current() == probe);
+					}
+				});
+				return (bound[0] && binding.current() == null) ? binding : null;
+			} catch (Throwable e) {
+				return null;
+			}
+		}
+
+		private final MethodHandle orElse, where, run;
+
+		private ScopedValueBinding(MethodHandle orElse, MethodHandle where, MethodHandle run) {
+			this.orElse = orElse;
+			this.where = where;
+			this.run = run;
+		}
+
+		@Override
+		public RequestContext current() {
+			try {
+				final Object context = (Object) orElse.invokeExact(UNBOUND);
+				return (context == UNBOUND) ? null : (RequestContext) context;
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		@Override
+		public void run(RequestContext context, Runnable runnable) {
+			try {
+				final Object carrier = (Object) where.invokeExact((Object) context);
+				run.invokeExact(carrier, runnable);
+			} catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		private static RuntimeException rethrow(Throwable e) {
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			} else if (e instanceof Error) {
+				throw (Error) e;
+			}
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static final Binding BINDING;
+	static {
+		final Binding scoped = ScopedValueBinding.create();
+		BINDING = (scoped == null) ? new ThreadLocalBinding() : scoped;
+	}
+
+	private static final int BUCKETS = Bucket.values().length;
+	private static final int NANOS = BUCKETS, ROWS = BUCKETS + 1, CALLS = BUCKETS + 2, BYTES = BUCKETS + 3,
+			HITS = BUCKETS + 4, SAMPLED = BUCKETS + 5;
+	// 64 bytes between totals, and at either end
+	private static final int PADDING = 8, LENGTH = (SAMPLED + 2) * PADDING;
+
+	private static int slot(int value) {
+		return (value + 1) * PADDING;
+	}
+
+	/**
+	 * Returns a new, empty context.
+	 */
+	public static RequestContext create() {
+		return new RequestContext();
+	}
+
+	/**
+	 * Returns the active context, or {@code null} if there isn't one.
+	 */
+	public static RequestContext current() {
+		return BINDING.current();
+	}
+
+	/**
+	 * Returns {@code true} if contexts are bound with
+	 * {@code java.lang.ScopedValue}, {@code false} if with a
+	 * {@link ThreadLocal}.
+	 */
+	public static boolean isScoped() {
+		return !(BINDING instanceof ThreadLocalBinding);
+	}
+
+	private final AtomicLongArray values = new AtomicLongArray(LENGTH);
+
+	private RequestContext() {
+		// use create()
+	}
+
+	/**
+	 * Runs {@code runnable} with this as the active context.
+	 */
+	public void run(Runnable runnable) {
+		BINDING.run(this, runnable);
+	}
+
+	/**
+	 * Calls {@code callable} with this as the active context.
+	 *
+	 * @throws Exception
+	 *             if {@code callable} does
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T call(final Callable<T> callable) throws Exception {
+		final Object[] result = new Object[1];
+		final Exception[] failure = new Exception[1];
+		run(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result[0] = callable.call();
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return (T) result[0];
+	}
+
+	/**
+	 * Returns a {@link Runnable} which runs {@code runnable} with this as the
+	 * active context, on whichever thread it's run on.
+	 */
+	public Runnable wrap(final Runnable runnable) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				RequestContext.this.run(runnable);
+			}
+		};
+	}
+
+	/**
+	 * Returns a {@link Callable} which calls {@code callable} with this as the
+	 * active context, on whichever thread it's called on.
+	 */
+	public <T> Callable<T> wrap(final Callable<T> callable) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return RequestContext.this.call(callable);
+			}
+		};
+	}
+
+	/**
+	 * Returns the total time spent in JDBC calls, in milliseconds.
+	 */
+	public long getElapsedTime() {
+		return getElapsedNanos() / 1000000;
+	}
+
+	/**
+	 * Returns the total time spent in JDBC calls, in nanoseconds. Calls made
+	 * concurrently on different threads are each counted in full.
+	 */
+	public long getElapsedNanos() {
+		return values.get(slot(NANOS));
+	}
+
+	/**
+	 * Returns the time spent in calls in {@code bucket}, in milliseconds.
+	 */
+	public long getElapsedTime(Bucket bucket) {
+		return getElapsedNanos(bucket) / 1000000;
+	}
+
+	/**
+	 * Returns the time spent in calls in {@code bucket}, in nanoseconds.
+	 */
+	public long getElapsedNanos(Bucket bucket) {
+		return values.get(slot(bucket.ordinal()));
+	}
+
+	/**
+	 * Returns the number of rows fetched from result sets.
+	 */
+	public long getRowsFetched() {
+		return values.get(slot(ROWS));
+	}
+
+	/**
+	 * Returns the number of bytes read from large objects and column streams.
+	 * Characters are counted as two bytes each.
+	 */
+	public long getLobBytesRead() {
+		return values.get(slot(BYTES));
+	}
+
+	/**
+	 * Returns the number of JDBC calls recorded.
+	 */
+	public long getCallCount() {
+		return values.get(slot(CALLS));
+	}
+
+	/**
+	 * Returns the number of queries served from the result cache, which
+	 * aren't included in the total time or call count.
+	 */
+	public long getCacheHits() {
+		return values.get(slot(HITS));
+	}
+
+	/**
+	 * Returns {@code true} if the totals are extrapolated from sampled calls,
+	 * and so are estimates.
+	 */
+	public boolean isSampled() {
+		return values.get(slot(SAMPLED)) != 0;
+	}
+
+	/**
+	 * Records a call in {@code category} which took {@code elapsed}
+	 * nanoseconds and fetched {@code rows} rows, sampled from {@code weight}
+	 * calls.
+	 */
+	void record(Category category, long elapsed, long rows, int weight) {
+		values.addAndGet(slot(category.getBucket().ordinal()), elapsed * weight);
+		if (category == Category.CACHED) {
+			values.addAndGet(slot(HITS), weight);
+			return;
+		}
+		values.addAndGet(slot(NANOS), elapsed * weight);
+		values.addAndGet(slot(CALLS), weight);
+		if (rows != 0) {
+			values.addAndGet(slot(ROWS), rows * weight);
+		}
+		if (weight > 1 && values.get(slot(SAMPLED)) == 0) {
+			values.set(slot(SAMPLED), 1);
+		}
+	}
+
+	/**
+	 * Records {@code bytes} read from a large object or stream, sampled from
+	 * {@code weight} reads.
+	 */
+	void recordBytes(long bytes, int weight) {
+		values.addAndGet(slot(BYTES), bytes * weight);
+	}
+}
@@ -0,0 +1,671 @@
+package com.codahale.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A read-through cache of the results of queries declared cacheable, such as
+ * lookups in reference tables, shared by connections to the same database
+ * with the same settings:
+ * <pre>
+ * jdbc:perf-mysql;resultcache.queries=SELECT * FROM countries WHERE code = ?;resultcache.tables=countries://example.com/db_name
+ * </pre>
+ * <dl>
+ * <dt>{@code resultcache.queries}</dt>
+ * <dd>the queries to cache, separated by {@code |}; each is matched by its
+ * {@link SqlNormalizer fingerprint}, so literals needn't match</dd>
+ * <dt>{@code resultcache.tables}</dt>
+ * <dd>the tables, separated by commas, a write to which invalidates the
+ * cached results of every query which reads them</dd>
+ * <dt>{@code resultcache.ttl}</dt>
+ * <dd>how long results are cached for, in milliseconds (default: 60000)</dd>
+ * <dt>{@code resultcache.bytes}</dt>
+ * <dd>roughly how much the cached results may take up; the least recently
+ * used are evicted beyond it (default: 16MB)</dd>
+ * </dl>
+ * A query is served from the cache when the same SQL is executed with the
+ * same parameters. Results are read through into a disconnected
+ * {@link CachedRowSet} (timed as {@link Category#FETCH}), and each hit is
+ * handed a read-only copy with its own cursor. Their size is estimated as
+ * {@link PayloadMeter} does, as they're read; results which turn out to be
+ * larger than the whole cache stop being copied, and the rest of them are
+ * read straight from the database. Writes of unknown SQL invalidate
+ * everything; queries with streams, large objects, or other mutable
+ * parameters are never cached. Parameters bound with a calendar, target SQL type, or scale are
+ * keyed by those too.
+ * <p>
+ * A write invalidates the results which read its tables as soon as it's
+ * executed, and again when its connection's transaction ends, as another
+ * connection may have cached the rows it was about to change in between;
+ * see {@link Invalidations}. Results read by a query which was executed
+ * before any invalidation are handed to the caller, but not cached.
+ * <p>
+ * Hits are recorded as {@link Category#CACHED}, apart from the time spent in
+ * the database; see {@link Stopwatch#getCacheHits()}.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+final class ResultCache {
+	/**
+	 * A query and its parameters.
+	 */
+	@Immutable
+	static final class Key {
+		final String sql;
+		final String fingerprint;
+		private final Object[] values;
+		private final int hash;
+
+		Key(String sql, String fingerprint, Object[] values) {
+			this.sql = sql;
+			this.fingerprint = fingerprint;
+			this.values = values;
+			this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return hash == other.hash && sql.equals(other.sql) && Arrays.deepEquals(values, other.values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * The parameters bound to a prepared statement whose query is cacheable.
+	 */
+	@NotThreadSafe
+	static final class Parameters {
+		/**
+		 * Returns the parameters of a statement prepared with {@code sql} on
+		 * a connection with {@code profile}, or {@code null} if its results
+		 * aren't cached.
+		 */
+		static Parameters create(Profile profile, String sql, String fingerprint) {
+			if (profile.resultCache == null || !profile.resultCache.isCacheable(fingerprint)) {
+				return null;
+			}
+			return new Parameters(sql, fingerprint);
+		}
+
+		private static final Object[] NONE = new Object[0];
+
+		private final String sql;
+		private final String fingerprint;
+		private Object[] values;
+		private int count;
+		private boolean uncacheable;
+
+		private Parameters(String sql, String fingerprint) {
+			this.sql = sql;
+			this.fingerprint = fingerprint;
+			this.values = NONE;
+		}
+
+		void bind(int index, Object value) {
+			put(index, copyOf(value));
+		}
+
+		/**
+		 * Binds {@code value} as set with a {@code qualifier}, such as a
+		 * calendar or a target SQL type, which changes how the driver reads
+		 * it.
+		 */
+		void bind(int index, Object value, Object qualifier) {
+			put(index, new Object[] { copyOf(value), copyOf(qualifier) });
+		}
+
+		/**
+		 * Binds {@code value} as set with a target SQL type and a scale or
+		 * length.
+		 */
+		void bind(int index, Object value, Object type, Object scale) {
+			put(index, new Object[] { copyOf(value), copyOf(type), scale });
+		}
+
+		/**
+		 * Binds the arguments of a call to a {@code set} method of a
+		 * prepared statement, the first of which is the parameter index.
+		 */
+		void bind(Object[] args) {
+			final int index = (Integer) args[0];
+			if (args.length == 2) {
+				bind(index, args[1]);
+			} else if (args.length == 3) {
+				bind(index, args[1], args[2]);
+			} else {
+				bind(index, args[1], args[2], args[3]);
+			}
+		}
+
+		private void put(int index, Object value) {
+			if (index < 1) {
+				return;
+			}
+			if (index > values.length) {
+				values = Arrays.copyOf(values, Math.max(index, values.length * 2));
+			}
+			values[index - 1] = value;
+			count = Math.max(count, index);
+		}
+
+		void clear() {
+			Arrays.fill(values, null);
+			count = 0;
+			uncacheable = false;
+		}
+
+		/**
+		 * Returns the key of the query with the parameters bound, or
+		 * {@code null} if any of them can't be cached.
+		 */
+		Key key() {
+			if (uncacheable) {
+				return null;
+			}
+			return new Key(sql, fingerprint, Arrays.copyOf(values, count));
+		}
+
+		private Object copyOf(Object value) {
+			if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+					|| value instanceof Character || value instanceof UUID || value instanceof Enum
+					|| value instanceof java.time.temporal.TemporalAccessor) {
+				return value;
+			} else if (value instanceof java.util.Date) {
+				return ((java.util.Date) value).clone();
+			} else if (value instanceof byte[]) {
+				return ((byte[]) value).clone();
+			} else if (value instanceof Calendar) {
+				return ((Calendar) value).clone();
+			}
+			// streams, large objects, and whatever else might change or can
+			// only be read once
+			uncacheable = true;
+			return null;
+		}
+	}
+
+	/**
+	 * The tables a connection has written to in its current transaction. Its
+	 * writes invalidate the cached results which read those tables once when
+	 * they're executed and once more when the transaction is committed or
+	 * rolled back, so that results cached from the rows as they were before
+	 * the commit, by this connection or another, don't outlive it.
+	 */
+	@ThreadSafe
+	static final class Invalidations {
+		private final ResultCache cache;
+		@GuardedBy("this")
+		private final Set<String> tables;
+		@GuardedBy("this")
+		private boolean all;
+
+		Invalidations(ResultCache cache) {
+			this.cache = cache;
+			this.tables = new HashSet<String>();
+		}
+
+		/**
+		 * Invalidates the results the statement with {@code fingerprint}
+		 * may have changed, and remembers to do so again when the
+		 * transaction ends.
+		 */
+		void written(String fingerprint) {
+			final String[] written = cache.writtenBy(fingerprint);
+			if (written != null && written.length == 0) {
+				return;
+			}
+			cache.invalidate(written);
+			synchronized (this) {
+				if (written == null) {
+					all = true;
+				} else {
+					tables.addAll(Arrays.asList(written));
+				}
+			}
+		}
+
+		/**
+		 * Invalidates the results of the tables written to again, as the
+		 * transaction has ended.
+		 */
+		void ended() {
+			final String[] written;
+			synchronized (this) {
+				if (!all && tables.isEmpty()) {
+					return;
+				}
+				written = all ? null : tables.toArray(new String[tables.size()]);
+				all = false;
+				tables.clear();
+			}
+			cache.invalidate(written);
+		}
+	}
+
+	/**
+	 * A query's cached results.
+	 */
+	@Immutable
+	private static final class Entry {
+		final CachedRowSet rows;
+		final String[] tables;
+		final long bytes;
+		final long expiresAt;
+
+		Entry(CachedRowSet rows, String[] tables, long bytes, long expiresAt) {
+			this.rows = rows;
+			this.tables = tables;
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * A copy of cached results handed to the caller, which reads them with
+	 * its own cursor but can't change or clear them for everyone else.
+	 */
+	private static final class ReadOnly implements InvocationHandler {
+		private final CachedRowSet rows;
+		private boolean closed;
+
+		ReadOnly(CachedRowSet rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			final String name = method.getName();
+			if (name.equals("close")) {
+				closed = true;
+				return null;
+			} else if (name.equals("isClosed")) {
+				return closed;
+			} else if (name.startsWith("update") || name.equals("insertRow") || name.equals("deleteRow")
+					|| name.equals("moveToInsertRow")) {
+				throw new SQLFeatureNotSupportedException("Cached results are read-only");
+			} else if (closed) {
+				throw new SQLException("Result set is closed");
+			}
+
+			try {
+				return method.invoke(rows, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * The results of a query as {@link CachedRowSet#populate(ResultSet)}
+	 * reads them, which run out once they've grown larger than the cache,
+	 * leaving the rest of them unread.
+	 */
+	private static final class Bounded implements InvocationHandler {
+		private final ResultSet results;
+		private final long capacity;
+		long size;
+		boolean overflowed;
+
+		Bounded(ResultSet results, long capacity) {
+			this.results = results;
+			this.capacity = capacity;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			final String name = method.getName();
+			if (name.equals("next") && args == null) {
+				if (size > capacity) {
+					overflowed = true;
+					return Boolean.FALSE;
+				}
+				final boolean more = results.next();
+				if (more) {
+					size += ROW_OVERHEAD;
+				}
+				return more;
+			}
+
+			try {
+				final Object value = method.invoke(results, args);
+				if (name.equals("getObject") && args.length == 1) {
+					size += PayloadMeter.sizeOf(value);
+				}
+				return value;
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Results too large to cache, read first from the rows already copied and
+	 * then from the rest of the results, forwards.
+	 */
+	private static final class PassThrough implements InvocationHandler {
+		private final CachedRowSet copied;
+		private final ResultSet results;
+		private boolean reading;
+
+		PassThrough(CachedRowSet copied, ResultSet results) {
+			this.copied = copied;
+			this.results = results;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			final String name = method.getName();
+			if (name.equals("next") && args == null) {
+				if (!reading) {
+					if (copied.next()) {
+						return Boolean.TRUE;
+					}
+					reading = true;
+				}
+				return results.next();
+			}
+
+			// columns and the cursor's position are read from the copied
+			// rows until they run out, and everything else from the results
+			final boolean fromCopy = !reading && ((name.startsWith("get") && args != null) || name.equals("wasNull")
+					|| name.equals("getRow") || name.equals("isBeforeFirst") || name.equals("isFirst"));
+			try {
+				return method.invoke(fromCopy ? copied : results, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private static final long DEFAULT_TTL = 60000;
+	private static final long DEFAULT_BYTES = 16 * 1024 * 1024;
+	private static final int MAX_FINGERPRINTS = 1000;
+	private static final long ROW_OVERHEAD = 16;
+	private static final String[] NO_TABLES = new String[0];
+	private static final Class<?>[] INTERFACES = { ResultSet.class };
+	private static final ConcurrentMap<String, ResultCache> INSTANCES = new ConcurrentHashMap<String, ResultCache>();
+	private static volatile RowSetFactory factory;
+
+	/**
+	 * Returns the cache described by {@code settings} for connections to
+	 * {@code target}, or {@code null} if no queries are to be cached.
+	 * Connections to the same target with the same settings share a cache;
+	 * if {@code target} is {@code null}, a new cache is returned.
+	 */
+	static ResultCache getInstance(Settings settings, String target) {
+		final String queries = settings.get("resultcache.queries", null);
+		if (queries == null) {
+			return null;
+		}
+		final String tables = settings.get("resultcache.tables", "");
+		final long ttl = Long.parseLong(settings.get("resultcache.ttl", Long.toString(DEFAULT_TTL)));
+		final long bytes = Long.parseLong(settings.get("resultcache.bytes", Long.toString(DEFAULT_BYTES)));
+
+		final ResultCache created = new ResultCache(queries, tables, TimeUnit.MILLISECONDS.toNanos(ttl), bytes);
+		if (target == null) {
+			return created;
+		}
+		final String name = target + '\n' + queries + '\n' + tables + '\n' + ttl + '\n' + bytes;
+		final ResultCache cache = INSTANCES.get(name);
+		if (cache != null) {
+			return cache;
+		}
+		final ResultCache existing = INSTANCES.putIfAbsent(name, created);
+		return (existing == null) ? created : existing;
+	}
+
+	private static RowSetFactory factory() throws SQLException {
+		RowSetFactory f = factory;
+		if (f == null) {
+			f = RowSetProvider.newFactory();
+			factory = f;
+		}
+		return f;
+	}
+
+	private static boolean intersects(String[] a, String[] b) {
+		for (String x : a) {
+			for (String y : b) {
+				if (x.equals(y)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private final Set<String> queries;
+	private final Set<String> tables;
+	private final long ttl;
+	private final long capacity;
+	private final ConcurrentMap<String, String[]> tablesByFingerprint;
+	@GuardedBy("this")
+	private final LinkedHashMap<Key, Entry> entries;
+	@GuardedBy("this")
+	private long bytes;
+	@GuardedBy("this")
+	private long generation;
+
+	private ResultCache(String queries, String tables, long ttl, long capacity) {
+		this.queries = new HashSet<String>();
+		for (String query : queries.split("\\|")) {
+			if (!query.trim().isEmpty()) {
+				this.queries.add(FingerprintCache.getInstance().fingerprint(query.trim()));
+			}
+		}
+		this.tables = new HashSet<String>();
+		for (String table : tables.split(",")) {
+			if (!table.trim().isEmpty()) {
+				this.tables.add(table.trim().toLowerCase());
+			}
+		}
+		this.ttl = ttl;
+		this.capacity = capacity;
+		this.tablesByFingerprint = new ConcurrentHashMap<String, String[]>();
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns {@code true} if the results of queries with
+	 * {@code fingerprint} are cached.
+	 */
+	boolean isCacheable(String fingerprint) {
+		return fingerprint != null && queries.contains(fingerprint);
+	}
+
+	/**
+	 * Returns the number of invalidations so far, to be passed to
+	 * {@link #put(Profile, Key, long, ResultSet)} by a query executed after
+	 * it's read.
+	 */
+	synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * Returns a copy of the cached results for {@code key}, or {@code null}
+	 * if there are none, recording a hit on a connection with
+	 * {@code profile}.
+	 */
+	ResultSet get(Profile profile, Key key) throws SQLException {
+		final long start = System.nanoTime();
+		final Entry entry;
+		synchronized (this) {
+			final Entry cached = entries.get(key);
+			if (cached != null && start - cached.expiresAt >= 0) {
+				entries.remove(key);
+				bytes -= cached.bytes;
+				entry = null;
+			} else {
+				entry = cached;
+			}
+		}
+		if (entry == null) {
+			return null;
+		}
+
+		final ResultSet copy = copyOf(entry.rows);
+		Recorder.recordCached(profile, key.fingerprint, System.nanoTime() - start);
+		return copy;
+	}
+
+	/**
+	 * Reads {@code results} of the query for {@code key} through into the
+	 * cache, closing them, and returns a copy. The results aren't cached if
+	 * anything has been invalidated since {@code generation}, or if they're
+	 * larger than the cache, in which case what's been read of them is
+	 * returned ahead of the rest.
+	 */
+	ResultSet put(Profile profile, Key key, long generation, ResultSet results) throws SQLException {
+		final long start = System.nanoTime();
+		final Bounded bounded = new Bounded(results, capacity);
+		final CachedRowSet rows = factory().createCachedRowSet();
+		boolean succeeded = false;
+		try {
+			rows.populate((ResultSet) Proxy.newProxyInstance(ResultCache.class.getClassLoader(), INTERFACES, bounded));
+			succeeded = true;
+		} finally {
+			if (!succeeded || !bounded.overflowed) {
+				results.close();
+			}
+			Recorder.recordFetch(profile, key.fingerprint, System.nanoTime() - start, rows.size(), succeeded);
+		}
+
+		if (bounded.overflowed) {
+			if (results.getType() != ResultSet.TYPE_FORWARD_ONLY) {
+				results.beforeFirst();
+				return results;
+			}
+			rows.beforeFirst();
+			return (ResultSet) Proxy.newProxyInstance(ResultCache.class.getClassLoader(), INTERFACES,
+					new PassThrough(rows, results));
+		}
+
+		final Entry entry = new Entry(rows, tablesOf(key.fingerprint), bounded.size, System.nanoTime() + ttl);
+		synchronized (this) {
+			if (generation == this.generation) {
+				final Entry replaced = entries.put(key, entry);
+				if (replaced != null) {
+					bytes -= replaced.bytes;
+				}
+				bytes += entry.bytes;
+				final Iterator<Entry> eldest = entries.values().iterator();
+				while (bytes > capacity && eldest.hasNext()) {
+					bytes -= eldest.next().bytes;
+					eldest.remove();
+				}
+			}
+		}
+		return copyOf(rows);
+	}
+
+	/**
+	 * Discards the cached results of every query which reads a table the
+	 * statement with {@code fingerprint} writes to, or of every query if
+	 * the statement is unknown.
+	 */
+	void invalidate(String fingerprint) {
+		final String[] written = writtenBy(fingerprint);
+		if (written != null && written.length == 0) {
+			return;
+		}
+		invalidate(written);
+	}
+
+	/**
+	 * Returns the listed tables the statement with {@code fingerprint} may
+	 * write to, none if it's a query, or {@code null} if it's unknown.
+	 */
+	private String[] writtenBy(String fingerprint) {
+		if (fingerprint != null && fingerprint.startsWith("select")) {
+			return NO_TABLES;
+		}
+		return (fingerprint == null) ? null : tablesOf(fingerprint);
+	}
+
+	/**
+	 * Discards the cached results of every query which reads any of the
+	 * {@code written} tables, or of every query if {@code null}.
+	 */
+	private void invalidate(String[] written) {
+		synchronized (this) {
+			generation++;
+			final Iterator<Entry> i = entries.values().iterator();
+			while (i.hasNext()) {
+				final Entry entry = i.next();
+				if (written == null || intersects(entry.tables, written)) {
+					bytes -= entry.bytes;
+					i.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the listed tables which {@code fingerprint} mentions.
+	 */
+	private String[] tablesOf(String fingerprint) {
+		if (tables.isEmpty()) {
+			return NO_TABLES;
+		}
+		String[] mentioned = tablesByFingerprint.get(fingerprint);
+		if (mentioned == null) {
+			final Set<String> found = new HashSet<String>();
+			for (String token : fingerprint.split("[^a-z0-9_.$]+")) {
+				final String table = token.substring(token.lastIndexOf('.') + 1);
+				if (tables.contains(table)) {
+					found.add(table);
+				}
+			}
+			mentioned = found.isEmpty() ? NO_TABLES : found.toArray(new String[found.size()]);
+			if (tablesByFingerprint.size() >= MAX_FINGERPRINTS) {
+				tablesByFingerprint.clear();
+			}
+			tablesByFingerprint.put(fingerprint, mentioned);
+		}
+		return mentioned;
+	}
+
+	private static ResultSet copyOf(CachedRowSet rows) throws SQLException {
+		final CachedRowSet shared = (CachedRowSet) rows.createShared();
+		shared.beforeFirst();
+		return (ResultSet) Proxy.newProxyInstance(ResultCache.class.getClassLoader(), INTERFACES, new ReadOnly(shared));
+	}
+}
@@ -0,0 +1,94 @@
+package com.codahale.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Instrumentation settings for a connection. Settings are read from
+ * {@code perf.}-prefixed connection properties and from options in the
+ * {@code jdbc:perf-} URL itself, which take precedence:
+ * <pre>
+ * jdbc:perf-mysql;dispatch=delegate://example.com/db_name
+ * </pre>
+ *
+ * @author coda
+ *
+ */
+@Immutable
+final class Settings {
+	private static final String PROPERTY_PREFIX = "perf.";
+
+	/**
+	 * Parses a string of {@code ;name=value} URL options and the
+	 * {@code perf.}-prefixed entries of {@code info}.
+	 */
+	public static Settings parse(String options, Properties info) {
+		final Map<String, String> values = new HashMap<String, String>();
+		if (info != null) {
+			for (String name : info.stringPropertyNames()) {
+				if (name.startsWith(PROPERTY_PREFIX)) {
+					values.put(name.substring(PROPERTY_PREFIX.length()), info.getProperty(name));
+				}
+			}
+		}
+
+		if (options != null) {
+			for (String option : options.split(";")) {
+				final int equals = option.indexOf('=');
+				if (equals > 0) {
+					values.put(option.substring(0, equals), option.substring(equals + 1));
+				}
+			}
+		}
+		return new Settings(values);
+	}
+
+	/**
+	 * Returns {@code true} if {@code info} has any {@code perf.}-prefixed
+	 * entries.
+	 */
+	public static boolean isConfigured(Properties info) {
+		if (info != null) {
+			for (String name : info.stringPropertyNames()) {
+				if (name.startsWith(PROPERTY_PREFIX)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a copy of {@code info} without any {@code perf.}-prefixed
+	 * entries, suitable for passing to the underlying driver.
+	 */
+	public static Properties strip(Properties info) {
+		final Properties stripped = new Properties();
+		if (info != null) {
+			for (String name : info.stringPropertyNames()) {
+				if (!name.startsWith(PROPERTY_PREFIX)) {
+					stripped.setProperty(name, info.getProperty(name));
+				}
+			}
+		}
+		return stripped;
+	}
+
+	private final Map<String, String> values;
+
+	private Settings(Map<String, String> values) {
+		this.values = values;
+	}
+
+	/**
+	 * Returns the value of the named setting, or {@code defaultValue} if it
+	 * isn't set.
+	 */
+	public String get(String name, String defaultValue) {
+		final String value = values.get(name);
+		return (value == null) ? defaultValue : value;
+	}
+}
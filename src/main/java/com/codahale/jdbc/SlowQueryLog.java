@@ -0,0 +1,303 @@
+package com.codahale.jdbc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A log of JDBC calls which took longer than a connection's
+ * {@code slowquery.threshold}, written to a file by a background thread:
+ * <pre>
+ * jdbc:perf-mysql;slowquery.threshold=250;slowquery.file=/var/log/slow.log://example.com/db_name
+ * </pre>
+ * Each line holds the time the call finished, the calling thread, the
+ * duration in milliseconds, the {@link Category} of call, and the
+ * {@link SqlNormalizer fingerprint} of its SQL, separated by tabs.
+ * <p>
+ * Calling threads never block on or wait for the file. They publish each
+ * slow call into a preallocated ring buffer with a single compare-and-set;
+ * the writer drains it in batches. If the writer falls behind and the buffer
+ * is full, calls are dropped and counted rather than waited for. When the
+ * file grows beyond its size limit it is renamed with a {@code .1} suffix,
+ * replacing any previous one, and a new file is started.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class SlowQueryLog {
+	/**
+	 * The file slow calls are logged to if {@code slowquery.file} isn't set.
+	 */
+	public static final String DEFAULT_FILE = "jdbc-slow-queries.log";
+	private static final int DEFAULT_CAPACITY = 4096;
+	private static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final ConcurrentMap<String, SlowQueryLog> LOGS = new ConcurrentHashMap<String, SlowQueryLog>();
+
+	/**
+	 * Returns the log which writes to {@code file}, starting it if need be.
+	 */
+	public static SlowQueryLog getInstance(String file) {
+		final String path = new File(file).getAbsolutePath();
+		SlowQueryLog log = LOGS.get(path);
+		if (log == null) {
+			final SlowQueryLog created = new SlowQueryLog(new File(path), DEFAULT_CAPACITY, DEFAULT_MAX_BYTES);
+			log = LOGS.putIfAbsent(path, created);
+			if (log == null) {
+				created.start();
+				log = created;
+			}
+		}
+		return log;
+	}
+
+	private final File file;
+	private final long maxBytes;
+	private final int mask;
+
+	// the ring buffer: a slot may be written when its sequence equals the
+	// position being published, and read when it equals that position + 1
+	private final AtomicLongArray sequences;
+	private final long[] timestamps;
+	private final long[] durations;
+	private final Category[] categories;
+	private final String[] threads;
+	private final String[] queries;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new log. It doesn't write anything until {@link #start()} is
+	 * called.
+	 *
+	 * @param file
+	 *            the file to write to
+	 * @param capacity
+	 *            the number of calls which can be waiting to be written,
+	 *            rounded up to a power of two
+	 * @param maxBytes
+	 *            the size at which the file is rolled over
+	 */
+	public SlowQueryLog(File file, int capacity, long maxBytes) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.timestamps = new long[size];
+		this.durations = new long[size];
+		this.categories = new Category[size];
+		this.threads = new String[size];
+		this.queries = new String[size];
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "slow-query-log " + file.getName());
+		writer.setDaemon(true);
+	}
+
+	/**
+	 * Starts the background thread which writes to the file.
+	 */
+	public void start() {
+		writer.start();
+	}
+
+	/**
+	 * Writes any calls still waiting and stops the background thread.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the thread to stop
+	 */
+	public void stop() throws InterruptedException {
+		running = false;
+		LockSupport.unpark(writer);
+		writer.join();
+	}
+
+	/**
+	 * Publishes a slow call to be written by the background thread, or drops
+	 * it if too many calls are already waiting.
+	 *
+	 * @param category
+	 *            the kind of call
+	 * @param fingerprint
+	 *            the fingerprint of its SQL, or {@code null} if unknown
+	 * @param nanoseconds
+	 *            how long it took
+	 * @return {@code true} if the call will be written, {@code false} if it was
+	 *         dropped
+	 */
+	public boolean publish(Category category, String fingerprint, long nanoseconds) {
+		long position = tail.get();
+		while (true) {
+			final int i = (int) position & mask;
+			final long sequence = sequences.get(i);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					timestamps[i] = System.currentTimeMillis();
+					durations[i] = nanoseconds;
+					categories[i] = category;
+					threads[i] = Thread.currentThread().getName();
+					queries[i] = fingerprint;
+					sequences.lazySet(i, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (sequence < position) {
+				dropped.incrementAndGet();
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of calls dropped, either because too many were
+	 * waiting to be written or because the file couldn't be written to.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of calls written to the file.
+	 */
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	private void write() {
+		final StringBuilder line = new StringBuilder(256);
+		Writer out = null;
+		long bytes = file.length();
+		try {
+			while (true) {
+				// read the flag before draining, so nothing published before
+				// stop() is left behind
+				final boolean stopping = !running;
+				int batch = 0;
+				try {
+					while (isReadable()) {
+						if (out == null) {
+							out = open();
+						}
+						format(line);
+						batch++;
+						out.write(line.toString());
+						// close enough to the encoded length for rolling
+						bytes += line.length();
+						if (bytes >= maxBytes) {
+							out.close();
+							out = null;
+							roll();
+							bytes = 0;
+						}
+					}
+					if (out != null && batch > 0) {
+						out.flush();
+					}
+					written.addAndGet(batch);
+				} catch (IOException e) {
+					dropped.addAndGet(batch + discard());
+					close(out);
+					out = null;
+				}
+
+				if (stopping) {
+					return;
+				} else if (batch == 0) {
+					LockSupport.parkNanos(IDLE_NANOS);
+				}
+			}
+		} finally {
+			close(out);
+		}
+	}
+
+	private boolean isReadable() {
+		return sequences.get((int) head & mask) == head + 1;
+	}
+
+	private void format(StringBuilder line) {
+		final int i = (int) head & mask;
+		line.setLength(0);
+		line.append(String.format("%tFT%<tT.%<tL%<tz", new Date(timestamps[i])))
+			.append('\t').append(threads[i])
+			.append('\t').append(String.format("%.3f", durations[i] / 1000000.0))
+			.append('\t').append(categories[i])
+			.append('\t').append(queries[i])
+			.append('\n');
+		release(i);
+	}
+
+	private long discard() {
+		long count = 0;
+		while (isReadable()) {
+			release((int) head & mask);
+			count++;
+		}
+		return count;
+	}
+
+	private void release(int i) {
+		threads[i] = null;
+		queries[i] = null;
+		sequences.lazySet(i, head + mask + 1);
+		head++;
+	}
+
+	private Writer open() throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+	}
+
+	private void roll() throws IOException {
+		final File rolled = new File(file.getPath() + ".1");
+		if (rolled.exists() && !rolled.delete()) {
+			throw new IOException("Can't delete " + rolled);
+		}
+		if (!file.renameTo(rolled)) {
+			throw new IOException("Can't rename " + file + " to " + rolled);
+		}
+	}
+
+	private static void close(Writer out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ignored) {
+				// nothing more to be done
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.codahale.jdbc;
+
+/**
+ * Reduces SQL to a fingerprint which is the same for every execution of a
+ * query, regardless of its literal values or formatting:
+ * <pre>
+ * SELECT *   FROM funk WHERE id = 42 AND name IN ('a', 'b')
+ * select * from funk where id = ? and name in (?)
+ * </pre>
+ * String and numeric literals become {@code ?}, {@code IN} lists of
+ * placeholders collapse to a single one, comments are removed, whitespace is
+ * collapsed, and everything except quoted identifiers is lower-cased. This is
+ * done in a single pass over the string, without regular expressions.
+ * <p>
+ * Quotes in string literals are escaped by doubling them, as in standard
+ * SQL; backslashes are taken literally, so that a literal ending in one, such
+ * as {@code 'C:\'}, doesn't swallow the rest of the statement.
+ *
+ * @author coda
+ *
+ */
+public final class SqlNormalizer {
+	private SqlNormalizer() {
+		// static methods only
+	}
+
+	/**
+	 * Returns the fingerprint of {@code sql}.
+	 */
+	public static String normalize(String sql) {
+		final int length = sql.length();
+		final StringBuilder out = new StringBuilder(length);
+		boolean space = false;
+		int list = -1;
+		int i = 0;
+
+		while (i < length) {
+			final char c = sql.charAt(i);
+			final char next = (i + 1 < length) ? sql.charAt(i + 1) : 0;
+
+			if (Character.isWhitespace(c)) {
+				space = true;
+				i++;
+				continue;
+			} else if (c == '-' && next == '-') {
+				while (i < length && sql.charAt(i) != '\n') {
+					i++;
+				}
+				space = true;
+				continue;
+			} else if (c == '/' && next == '*') {
+				final int end = sql.indexOf("*/", i + 2);
+				i = (end < 0) ? length : end + 2;
+				space = true;
+				continue;
+			}
+
+			if (space && out.length() > 0) {
+				out.append(' ');
+			}
+			space = false;
+
+			if (c == '\'') {
+				i = skipString(sql, i);
+				out.append('?');
+			} else if (c == '"' || c == '`') {
+				final int end = sql.indexOf(c, i + 1);
+				final int stop = (end < 0) ? length : end + 1;
+				out.append(sql, i, stop);
+				i = stop;
+				list = -1;
+				continue;
+			} else if (isDigit(c) && !endsWithIdentifier(out)) {
+				i = skipNumber(sql, i);
+				out.append('?');
+			} else if (c == '(') {
+				final boolean in = endsWithIn(out);
+				if (in && out.charAt(out.length() - 1) != ' ') {
+					out.append(' ');
+				}
+				out.append(c);
+				i++;
+				list = in ? out.length() : -1;
+				continue;
+			} else if (c == ')' && list >= 0) {
+				out.setLength(list);
+				out.append("?)");
+				i++;
+				list = -1;
+				continue;
+			} else {
+				out.append(Character.toLowerCase(c));
+				i++;
+				if (c != ',' && c != '?') {
+					list = -1;
+				}
+			}
+		}
+
+		return out.toString();
+	}
+
+	private static int skipString(String sql, int start) {
+		int i = start + 1;
+		while (i < sql.length()) {
+			final char c = sql.charAt(i);
+			if (c == '\'') {
+				if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+					i += 2;
+				} else {
+					return i + 1;
+				}
+			} else {
+				i++;
+			}
+		}
+		return sql.length();
+	}
+
+	private static int skipNumber(String sql, int start) {
+		int i = start + 1;
+		while (i < sql.length()) {
+			final char c = sql.charAt(i);
+			final char previous = sql.charAt(i - 1);
+			if (isIdentifier(c) || c == '.') {
+				i++;
+			} else if ((c == '+' || c == '-') && (previous == 'e' || previous == 'E')) {
+				i++;
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+
+	private static boolean endsWithIdentifier(StringBuilder out) {
+		return out.length() > 0 && isIdentifier(out.charAt(out.length() - 1));
+	}
+
+	private static boolean endsWithIn(StringBuilder out) {
+		int end = out.length();
+		if (end > 0 && out.charAt(end - 1) == ' ') {
+			end--;
+		}
+		return end >= 2 && out.charAt(end - 2) == 'i' && out.charAt(end - 1) == 'n'
+				&& (end == 2 || !isIdentifier(out.charAt(end - 3)));
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isIdentifier(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+}
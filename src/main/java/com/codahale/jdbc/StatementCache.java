@@ -0,0 +1,340 @@
+package com.codahale.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A connection's cache of idle prepared and callable statements, for drivers
+ * which don't cache them well themselves, so that preparing the same SQL
+ * again skips the round trip to parse and plan it.
+ * <pre>
+ * jdbc:perf-mysql;statementcache.size=256://example.com/db_name
+ * </pre>
+ * Preparing a statement takes an idle one with the same {@link Key} out of
+ * the cache, if there is one, or prepares a new one. Closing the statement
+ * closes its current result set, clears its parameters, resets any options
+ * its user changed to those it was prepared with, and puts it back, rather
+ * than closing it; once closed, its user can no longer reach it. Statements
+ * whose cursor name, escape processing, poolability, or closing on
+ * completion were changed can't be reset, so they're closed for real, as
+ * are the least recently used idle statements once there are more than the
+ * cache's size. Only one idle statement is kept for each key, so a second
+ * one prepared while the first is in use is closed for real when it's
+ * closed. Statements which ask for generated keys aren't cached, and
+ * closing the connection closes every idle statement.
+ * <p>
+ * The cache belongs to the instrumented connection, so connections borrowed
+ * through an {@link InstrumentingDataSource} each start with an empty one;
+ * a pool which caches statements itself is the better choice there.
+ * <p>
+ * Hits, misses, and evictions are counted in
+ * {@link StatementCacheStatistics}.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+final class StatementCache {
+	/**
+	 * What a statement was prepared with: its SQL, whether it's callable,
+	 * and its result set type, concurrency, and holdability.
+	 */
+	@Immutable
+	static final class Key {
+		/**
+		 * Returns the key of a call to {@code prepareStatement} or
+		 * {@code prepareCall} with {@code args}, or {@code null} if it can't
+		 * be cached, as it asks for generated keys.
+		 */
+		static Key of(boolean callable, Object[] args) {
+			if (args.length == 1) {
+				return new Key((String) args[0], callable, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0);
+			} else if (args.length == 3 && args[1] instanceof Integer && args[2] instanceof Integer) {
+				return new Key((String) args[0], callable, (Integer) args[1], (Integer) args[2], 0);
+			} else if (args.length == 4) {
+				return new Key((String) args[0], callable, (Integer) args[1], (Integer) args[2], (Integer) args[3]);
+			}
+			return null;
+		}
+
+		final String sql;
+		final boolean callable;
+		final int type, concurrency, holdability;
+
+		/**
+		 * @param holdability
+		 *            the result set holdability, or {@code 0} for the
+		 *            connection's default
+		 */
+		Key(String sql, boolean callable, int type, int concurrency, int holdability) {
+			this.sql = sql;
+			this.callable = callable;
+			this.type = type;
+			this.concurrency = concurrency;
+			this.holdability = holdability;
+		}
+
+		PreparedStatement prepare(Connection connection) throws SQLException {
+			if (callable) {
+				if (holdability == 0) {
+					return connection.prepareCall(sql, type, concurrency);
+				}
+				return connection.prepareCall(sql, type, concurrency, holdability);
+			}
+			if (holdability == 0) {
+				return connection.prepareStatement(sql, type, concurrency);
+			}
+			return connection.prepareStatement(sql, type, concurrency, holdability);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return callable == other.callable && type == other.type && concurrency == other.concurrency
+					&& holdability == other.holdability && sql.equals(other.sql);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = sql.hashCode();
+			hash = 31 * hash + (callable ? 1 : 0);
+			hash = 31 * hash + type;
+			hash = 31 * hash + concurrency;
+			hash = 31 * hash + holdability;
+			return hash;
+		}
+	}
+
+	/**
+	 * A cached statement, with the options it was prepared with.
+	 */
+	@Immutable
+	static final class Entry {
+		final Key key;
+		final PreparedStatement statement;
+		final int maxRows, maxFieldSize, fetchSize, fetchDirection, queryTimeout;
+
+		Entry(Key key, PreparedStatement statement) throws SQLException {
+			this.key = key;
+			this.statement = statement;
+			this.maxRows = statement.getMaxRows();
+			this.maxFieldSize = statement.getMaxFieldSize();
+			this.fetchSize = statement.getFetchSize();
+			this.fetchDirection = statement.getFetchDirection();
+			this.queryTimeout = statement.getQueryTimeout();
+		}
+
+		void reset() throws SQLException {
+			statement.setMaxRows(maxRows);
+			statement.setMaxFieldSize(maxFieldSize);
+			statement.setFetchSize(fetchSize);
+			statement.setFetchDirection(fetchDirection);
+			statement.setQueryTimeout(queryTimeout);
+		}
+	}
+
+	/**
+	 * A change to a statement's options which is undone when it's released.
+	 */
+	static final int RESET = 1;
+
+	/**
+	 * A change to a statement's options which can't be undone, so the
+	 * statement is closed for real when it's released.
+	 */
+	static final int DISCARD = 2;
+
+	/**
+	 * Stands in for a statement once it's been released, throwing from every
+	 * method but {@code close} and {@code isClosed}.
+	 */
+	static final CallableStatement CLOSED = (CallableStatement) Proxy.newProxyInstance(
+			StatementCache.class.getClassLoader(), new Class<?>[] { CallableStatement.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					final String name = method.getName();
+					if (name.equals("close")) {
+						return null;
+					} else if (name.equals("isClosed")) {
+						return Boolean.TRUE;
+					} else if (name.equals("hashCode")) {
+						return System.identityHashCode(proxy);
+					} else if (name.equals("equals")) {
+						return proxy == args[0];
+					} else if (name.equals("toString")) {
+						return "closed statement";
+					}
+					throw new SQLException("Statement is closed");
+				}
+			});
+
+	/**
+	 * Returns how calling the statement method {@code name} with
+	 * {@code parameters} parameters changes its options: {@link #RESET},
+	 * {@link #DISCARD}, or {@code 0} if it doesn't.
+	 */
+	static int changeOf(String name, int parameters) {
+		if (parameters == 1 && (name.equals("setMaxRows") || name.equals("setLargeMaxRows")
+				|| name.equals("setMaxFieldSize") || name.equals("setFetchSize")
+				|| name.equals("setFetchDirection") || name.equals("setQueryTimeout"))) {
+			return RESET;
+		} else if ((parameters == 1 && (name.equals("setCursorName") || name.equals("setEscapeProcessing")
+				|| name.equals("setPoolable"))) || (parameters == 0 && name.equals("closeOnCompletion"))) {
+			return DISCARD;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns a cache for a connection with {@code profile}, or {@code null}
+	 * if it doesn't cache statements.
+	 */
+	static StatementCache create(Profile profile) {
+		if (profile.statementCacheSize <= 0) {
+			return null;
+		}
+		return new StatementCache(profile.statementCacheSize);
+	}
+
+	private final int size;
+	@GuardedBy("this")
+	private final Map<Key, Entry> idle;
+	@GuardedBy("this")
+	private boolean closed;
+
+	StatementCache(int size) {
+		this.size = size;
+		this.idle = new LinkedHashMap<Key, Entry>();
+	}
+
+	/**
+	 * Returns an idle statement for {@code key}, or prepares one on
+	 * {@code connection}.
+	 */
+	Entry prepare(Connection connection, Key key) throws SQLException {
+		final Entry entry;
+		synchronized (this) {
+			entry = idle.remove(key);
+		}
+		if (entry != null) {
+			StatementCacheStatistics.getInstance().recordHit();
+			return entry;
+		}
+		StatementCacheStatistics.getInstance().recordMiss();
+		final PreparedStatement statement = key.prepare(connection);
+		boolean succeeded = false;
+		try {
+			final Entry prepared = new Entry(key, statement);
+			succeeded = true;
+			return prepared;
+		} finally {
+			if (!succeeded) {
+				statement.close();
+			}
+		}
+	}
+
+	/**
+	 * Puts the statement of {@code entry}, which its user has closed, back in
+	 * the cache, closing it for real if it can't be reused or the cache is
+	 * full.
+	 *
+	 * @param changes
+	 *            the {@link #RESET} and {@link #DISCARD} changes its user made
+	 *            to its options
+	 */
+	void release(Entry entry, int changes) throws SQLException {
+		final PreparedStatement statement = entry.statement;
+		boolean reusable = false;
+		if ((changes & DISCARD) == 0) {
+			try {
+				final ResultSet results = statement.getResultSet();
+				if (results != null) {
+					results.close();
+				}
+				statement.clearParameters();
+				if ((changes & RESET) != 0) {
+					entry.reset();
+				}
+				reusable = true;
+			} catch (SQLException e) {
+				// closed, or broken; either way, don't hand it out again
+			}
+		}
+
+		final boolean kept;
+		Entry evicted = null;
+		synchronized (this) {
+			kept = reusable && !closed && !idle.containsKey(entry.key);
+			if (kept) {
+				idle.put(entry.key, entry);
+				if (idle.size() > size) {
+					final Iterator<Entry> eldest = idle.values().iterator();
+					evicted = eldest.next();
+					eldest.remove();
+				}
+			}
+		}
+
+		if (!kept) {
+			statement.close();
+		}
+		if (evicted != null) {
+			StatementCacheStatistics.getInstance().recordEviction();
+			evicted.statement.close();
+		}
+	}
+
+	/**
+	 * Closes every idle statement, as the connection is being closed.
+	 * Statements in use are closed for real when they're released.
+	 */
+	void close() throws SQLException {
+		final List<Entry> entries;
+		synchronized (this) {
+			closed = true;
+			entries = new ArrayList<Entry>(idle.values());
+			idle.clear();
+		}
+		close(entries);
+	}
+
+	private static void close(List<Entry> entries) throws SQLException {
+		SQLException failure = null;
+		for (Entry entry : entries) {
+			try {
+				entry.statement.close();
+			} catch (SQLException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.setNextException(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
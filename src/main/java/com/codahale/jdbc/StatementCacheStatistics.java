@@ -0,0 +1,110 @@
+package com.codahale.jdbc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Process-wide counts of hits, misses, and evictions in the prepared
+ * statement caches of connections with {@code statementcache.size} set.
+ * <pre>
+ * StatementCacheStatistics.getInstance().snapshot().getHitRate();
+ * </pre>
+ * A low hit rate means the cache is too small for the number of distinct
+ * statements a connection prepares, or that they're built with literals
+ * rather than parameters.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class StatementCacheStatistics {
+	/**
+	 * A copy of the statistics at a point in time.
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final long hits, misses, evictions;
+
+		Snapshot(long hits, long misses, long evictions) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+		}
+
+		/**
+		 * Returns the number of statements taken from a cache.
+		 */
+		public long getHitCount() {
+			return hits;
+		}
+
+		/**
+		 * Returns the number of statements prepared because none was cached.
+		 */
+		public long getMissCount() {
+			return misses;
+		}
+
+		/**
+		 * Returns the number of idle statements closed to make room for
+		 * others.
+		 */
+		public long getEvictionCount() {
+			return evictions;
+		}
+
+		/**
+		 * Returns the fraction of statements which were taken from a cache.
+		 */
+		public double getHitRate() {
+			final long total = hits + misses;
+			return (total == 0) ? 0.0 : (double) hits / total;
+		}
+	}
+
+	private static final int HITS = 0, MISSES = 1, EVICTIONS = 2;
+	private static final StatementCacheStatistics INSTANCE = new StatementCacheStatistics();
+
+	/**
+	 * Returns the {@link StatementCacheStatistics} instance.
+	 */
+	public static StatementCacheStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	private final AtomicLongArray values;
+
+	private StatementCacheStatistics() {
+		this.values = new AtomicLongArray(3);
+	}
+
+	void recordHit() {
+		values.incrementAndGet(HITS);
+	}
+
+	void recordMiss() {
+		values.incrementAndGet(MISSES);
+	}
+
+	void recordEviction() {
+		values.incrementAndGet(EVICTIONS);
+	}
+
+	/**
+	 * Returns a snapshot of the statistics.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(values.get(HITS), values.get(MISSES), values.get(EVICTIONS));
+	}
+
+	/**
+	 * Discards all recorded statistics.
+	 */
+	public void clear() {
+		for (int i = 0; i < 3; i++) {
+			values.set(i, 0);
+		}
+	}
+}
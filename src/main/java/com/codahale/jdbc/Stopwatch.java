@@ -1,5 +1,7 @@
 package com.codahale.jdbc;
 
+import java.util.List;
+
 import net.jcip.annotations.Immutable;
 
 /**
@@ -12,33 +14,92 @@ import net.jcip.annotations.Immutable;
  * 
  * Stopwatch.getInstance().getElapsedTime();
  * </pre>
+ * Time spent in instrumented JDBC calls is also divided into
+ * {@link Bucket}s, so that slow queries can be told apart from huge result
+ * sets or slow connection handshakes:
+ * <pre>
+ * Stopwatch.getInstance().getElapsedTime(Bucket.FETCH);
+ * Stopwatch.getInstance().getRowsFetched();
+ * </pre>
+ * On connections with the {@code stopwatch.queries} setting, statement
+ * executions are counted by the fingerprint of their SQL, too, so that a
+ * query run once per row of another (an N+1 pattern) stands out:
+ * <pre>
+ * for (RepeatedQuery query : Stopwatch.getInstance().getRepeatedQueries(10)) {
+ *     log.warn("Possible N+1: " + query);
+ * }
+ * </pre>
+ * On those with the {@code stopwatch.calls} setting, each call is counted,
+ * along with the slowest and a coarse histogram of their latencies, so that
+ * one slow query can be told apart from thousands of fast ones; resetting
+ * the stopwatch merges them into {@link StopwatchStatistics}:
+ * <pre>
+ * Stopwatch.getInstance().getCallCount();
+ * Stopwatch.getInstance().getMaxCallTime();
+ * Stopwatch.getInstance().getCallDistribution().getPercentile(99);
+ * </pre>
+ * Queries served from the result cache, which connections enable with the
+ * {@code resultcache.queries} setting, are counted by {@link #getCacheHits()}
+ * and timed in {@link Bucket#CACHE}, apart from the time spent in the
+ * database.
  * @author coda
  */
 @Immutable
 public final class Stopwatch {
-	private static class ThreadLocalCounter extends ThreadLocal<Long> {
-		public void dec(long n) {
-			inc(-n);
-		}
-		
-		public void inc(long n) {
-			set(get().longValue() + n);
-		}
+	/**
+	 * A thread's timing state, kept in primitive fields so that starting and
+	 * stopping the stopwatch neither allocates nor looks up more than one
+	 * {@link ThreadLocal}.
+	 */
+	private static final class Counters {
+		final long[] buckets = new long[BUCKETS];
+		final long[] latencies = new long[CallDistribution.BUCKETS];
+		final QueryCounts queries = new QueryCounts();
+		long nanoseconds;
+		long rowsFetched;
+		long lobBytesRead;
+		long cacheHits;
+		long calls;
+		long callNanos;
+		long maxNanos;
+		int nesting;
+		boolean called;
+		boolean sampled;
 		
-		public boolean isZero() {
-			return get() == initialValue();
+		void clear() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = 0;
+			}
+			nanoseconds = 0;
+			rowsFetched = 0;
+			lobBytesRead = 0;
+			cacheHits = 0;
+			for (int i = 0; i < CallDistribution.BUCKETS; i++) {
+				latencies[i] = 0;
+			}
+			calls = 0;
+			callNanos = 0;
+			maxNanos = 0;
+			queries.clear();
+			nesting = 0;
+			called = false;
+			sampled = false;
 		}
-		
-		@Override
-		protected Long initialValue() {
-			return Long.valueOf(0);
+
+		void count(long elapsed, int weight) {
+			calls += weight;
+			callNanos += elapsed * weight;
+			if (elapsed > maxNanos) {
+				maxNanos = elapsed;
+			}
+			latencies[CallDistribution.indexOf(elapsed)] += weight;
 		}
 	}
 	
+	private static final int BUCKETS = Bucket.values().length;
+	
 	private static final Stopwatch INSTANCE = new Stopwatch();
-	private final ThreadLocalCounter nanoseconds;
-	private final ThreadLocalCounter nesting;
-	private final ThreadLocal<Boolean> called;
+	private final ThreadLocal<Counters> counters;
 	
 	/**
 	 * Returns the {@link Stopwatch} instance for the current thread.
@@ -48,60 +109,267 @@ public final class Stopwatch {
 	}
 
 	private Stopwatch() {
-		this.nanoseconds = new ThreadLocalCounter();
-		this.nesting = new ThreadLocalCounter();
-		this.called = new ThreadLocal<Boolean>() {
+		this.counters = new ThreadLocal<Counters>() {
 			@Override
-			protected Boolean initialValue() {
-				return Boolean.FALSE;
+			protected Counters initialValue() {
+				return new Counters();
 			}
 		};
 	}
 	
 	/**
-	 * Resets the elapsed time.
+	 * Resets the elapsed time, first merging the calls made since the last
+	 * reset into {@link StopwatchStatistics}.
 	 */
 	public void reset() {
-		nanoseconds.remove();
-		nesting.remove();
-		called.remove();
+		final Counters c = counters.get();
+		if (c.calls != 0) {
+			StopwatchStatistics.getInstance().merge(c.calls, c.callNanos, c.maxNanos, c.latencies);
+		}
+		c.clear();
 	}
 	
 	/**
 	 * Returns the elapsed time in milliseconds.
 	 */
 	public long getElapsedTime() {
-		return Double.valueOf(nanoseconds.get().longValue() * 1E-6).longValue();
+		return getElapsedNanos() / 1000000;
+	}
+	
+	/**
+	 * Returns the elapsed time in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return counters.get().nanoseconds;
+	}
+	
+	/**
+	 * Returns the time spent in calls in {@code bucket}, in milliseconds.
+	 */
+	public long getElapsedTime(Bucket bucket) {
+		return getElapsedNanos(bucket) / 1000000;
+	}
+	
+	/**
+	 * Returns the time spent in calls in {@code bucket}, in nanoseconds.
+	 */
+	public long getElapsedNanos(Bucket bucket) {
+		return counters.get().buckets[bucket.ordinal()];
+	}
+	
+	/**
+	 * Returns the number of rows fetched from result sets.
+	 */
+	public long getRowsFetched() {
+		return counters.get().rowsFetched;
+	}
+	
+	/**
+	 * Returns the number of bytes read from large objects and column streams.
+	 * Characters are counted as two bytes each.
+	 */
+	public long getLobBytesRead() {
+		return counters.get().lobBytesRead;
+	}
+	
+	/**
+	 * Returns the number of queries served from the result cache.
+	 */
+	public long getCacheHits() {
+		return counters.get().cacheHits;
 	}
 	
 	/**
 	 * Starts timing.
 	 */
 	public void start() {
-		if (nesting.isZero()) {
-			called.set(Boolean.TRUE);
-			nanoseconds.dec(System.nanoTime());
+		start(System.nanoTime());
+	}
+	
+	/**
+	 * Starts timing at {@code now}, a {@link System#nanoTime()} value the
+	 * caller has already read.
+	 */
+	void start(long now) {
+		final Counters c = counters.get();
+		if (c.nesting++ == 0) {
+			c.called = true;
+			c.nanoseconds -= now;
+		}
+	}
+	
+	/**
+	 * Starts timing a call at {@code now}, which is recorded by
+	 * {@link #stop(long, Category, long, int, int)} or, if it's
+	 * recorded elsewhere, abandoned by {@link #cancel(long)}.
+	 */
+	void begin(long now) {
+		final Counters c = counters.get();
+		if (c.nesting++ == 0) {
+			c.nanoseconds -= now;
+		}
+	}
+	
+	/**
+	 * Stops timing a call begun at {@code start} without counting it, as
+	 * it's been recorded in a {@link RequestContext} instead.
+	 */
+	void cancel(long start) {
+		final Counters c = counters.get();
+		if (--c.nesting == 0) {
+			c.nanoseconds += start;
 		}
-
-		nesting.inc(1);
 	}
 	
 	/**
 	 * Stops timing.
 	 */
 	public void stop() {
-		nesting.dec(1);
-
-		if (nesting.isZero()) {
-			nanoseconds.inc(System.nanoTime());
+		stop(System.nanoTime());
+	}
+	
+	/**
+	 * Stops timing at {@code now}, a {@link System#nanoTime()} value the
+	 * caller has already read.
+	 */
+	void stop(long now) {
+		final Counters c = counters.get();
+		if (--c.nesting == 0) {
+			c.nanoseconds += now;
 		}
 	}
 	
+	/**
+	 * Stops timing a call in {@code category} at {@code now}, adding its
+	 * {@code elapsed} time to the category's bucket and {@code rows} to the
+	 * number of rows fetched. If the call was sampled from {@code weight}
+	 * calls, its time and rows are counted that many times over.
+	 */
+	void stop(long now, Category category, long elapsed, int rows, int weight) {
+		final Counters c = counters.get();
+		c.called = true;
+		if (--c.nesting == 0) {
+			c.nanoseconds += now;
+			if (weight > 1) {
+				c.nanoseconds += elapsed * (weight - 1);
+			}
+		}
+		if (weight > 1) {
+			c.sampled = true;
+		}
+		c.buckets[category.getBucket().ordinal()] += elapsed * weight;
+		c.rowsFetched += rows * weight;
+	}
+	
+	/**
+	 * Counts a call which took {@code elapsed} nanoseconds, sampled from
+	 * {@code weight} calls, towards the call count and latencies.
+	 */
+	void countCall(long elapsed, int weight) {
+		counters.get().count(elapsed, weight);
+	}
+	
+	/**
+	 * Counts a statement execution of {@code fingerprint} which took
+	 * {@code elapsed} nanoseconds, sampled from {@code weight} executions.
+	 */
+	void countQuery(String fingerprint, long elapsed, int weight) {
+		counters.get().queries.add(fingerprint, weight, elapsed * weight);
+	}
+	
+	/**
+	 * Adds {@code elapsed} time spent on a call in {@code category}, and
+	 * {@code rows} fetched, which weren't timed with {@code start} and
+	 * {@code stop}. The time isn't added to the total if the stopwatch is
+	 * already running, as it's already being counted, or if the call was
+	 * served from a cache.
+	 */
+	void record(Category category, long elapsed, long rows, int weight) {
+		final Counters c = counters.get();
+		c.called = true;
+		if (category == Category.CACHED) {
+			c.cacheHits += weight;
+		} else {
+			if (c.nesting == 0) {
+				c.nanoseconds += elapsed * weight;
+			}
+		}
+		if (weight > 1) {
+			c.sampled = true;
+		}
+		c.buckets[category.getBucket().ordinal()] += elapsed * weight;
+		c.rowsFetched += rows * weight;
+	}
+	
+	/**
+	 * Returns the number of JDBC calls made on connections which count them,
+	 * not counting queries served from a cache.
+	 */
+	public long getCallCount() {
+		return counters.get().calls;
+	}
+	
+	/**
+	 * Returns the time taken by the slowest JDBC call, in milliseconds.
+	 */
+	public long getMaxCallTime() {
+		return getMaxCallNanos() / 1000000;
+	}
+	
+	/**
+	 * Returns the time taken by the slowest JDBC call, in nanoseconds.
+	 */
+	public long getMaxCallNanos() {
+		return counters.get().maxNanos;
+	}
+	
+	/**
+	 * Returns a copy of the number of JDBC calls made, the time spent in
+	 * them, the slowest, and their latencies.
+	 */
+	public CallDistribution getCallDistribution() {
+		final Counters c = counters.get();
+		return new CallDistribution(c.calls, c.callNanos, c.maxNanos, c.latencies.clone());
+	}
+	
+	/**
+	 * Adds {@code bytes} read from a large object or stream, sampled from
+	 * {@code weight} reads.
+	 */
+	void recordBytes(long bytes, int weight) {
+		counters.get().lobBytesRead += bytes * weight;
+	}
+	
 	/**
 	 * Returns {@code true} if the Stopwatch has been called by the current
 	 * thread, {@code false} otherwise.
 	 */
 	public boolean wasCalled() {
-		return called.get();
+		return counters.get().called;
+	}
+	
+	/**
+	 * Returns {@code true} if any query has been executed more than
+	 * {@code threshold} times by the current thread.
+	 */
+	public boolean hasRepeatedQueries(int threshold) {
+		return counters.get().queries.exceeds(threshold);
+	}
+	
+	/**
+	 * Returns the queries which have been executed more than
+	 * {@code threshold} times by the current thread, with the number of
+	 * executions and the time spent in them, those which took longest first.
+	 */
+	public List<RepeatedQuery> getRepeatedQueries(int threshold) {
+		return counters.get().queries.exceeding(threshold);
+	}
+	
+	/**
+	 * Returns {@code true} if the current thread's times and rows are
+	 * extrapolated from sampled calls, and so are estimates.
+	 */
+	public boolean isSampled() {
+		return counters.get().sampled;
 	}
 }
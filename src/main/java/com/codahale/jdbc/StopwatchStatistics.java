@@ -0,0 +1,92 @@
+package com.codahale.jdbc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The process-wide sum of every thread's {@link Stopwatch} calls, merged in
+ * each time a stopwatch is {@link Stopwatch#reset() reset}, so that the
+ * percentiles across all requests come from the same counts as each
+ * request's own:
+ * <pre>
+ * StopwatchStatistics.getInstance().snapshot().getPercentile(99);
+ * </pre>
+ * Calls made since a thread's last reset aren't included until its next, and
+ * only those made on connections with the {@code stopwatch.calls} setting
+ * are counted at all.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class StopwatchStatistics {
+	private static final int COUNT = CallDistribution.BUCKETS, NANOS = COUNT + 1, MAX = COUNT + 2,
+			REQUESTS = COUNT + 3;
+	private static final StopwatchStatistics INSTANCE = new StopwatchStatistics();
+
+	/**
+	 * Returns the {@link StopwatchStatistics} instance.
+	 */
+	public static StopwatchStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	private final AtomicLongArray values;
+
+	private StopwatchStatistics() {
+		this.values = new AtomicLongArray(REQUESTS + 1);
+	}
+
+	/**
+	 * Adds one stopwatch's calls: {@code count} of them, which took
+	 * {@code total} nanoseconds, the slowest {@code max}, counted by
+	 * latency in {@code buckets}.
+	 */
+	void merge(long count, long total, long max, long[] buckets) {
+		for (int i = 0; i < CallDistribution.BUCKETS; i++) {
+			if (buckets[i] != 0) {
+				values.addAndGet(i, buckets[i]);
+			}
+		}
+		values.addAndGet(COUNT, count);
+		values.addAndGet(NANOS, total);
+		values.incrementAndGet(REQUESTS);
+
+		long current = values.get(MAX);
+		while (max > current) {
+			if (values.compareAndSet(MAX, current, max)) {
+				break;
+			}
+			current = values.get(MAX);
+		}
+	}
+
+	/**
+	 * Returns the number of stopwatches merged, i.e. of requests which made
+	 * any calls.
+	 */
+	public long getRequestCount() {
+		return values.get(REQUESTS);
+	}
+
+	/**
+	 * Returns a copy of the calls merged so far.
+	 */
+	public CallDistribution snapshot() {
+		final long[] buckets = new long[CallDistribution.BUCKETS];
+		for (int i = 0; i < CallDistribution.BUCKETS; i++) {
+			buckets[i] = values.get(i);
+		}
+		return new CallDistribution(values.get(COUNT), values.get(NANOS), values.get(MAX), buckets);
+	}
+
+	/**
+	 * Discards all merged calls.
+	 */
+	public void clear() {
+		for (int i = 0; i <= REQUESTS; i++) {
+			values.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package com.codahale.jdbc;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A per-thread timeline of the JDBC calls made while handling one request:
+ * each connect, execution, fetch, and commit, with when it started, how long
+ * it took, the fingerprint of its SQL, and the rows it returned or affected.
+ * Unlike {@link Stopwatch}, which only adds calls up, a timeline shows
+ * queries which ran one after the other but could have run in parallel.
+ * <pre>
+ * Timeline.getInstance().start();
+ * handleRequest();
+ * Timeline.getInstance().stop();
+ *
+ * if (Timeline.getInstance().getElapsedTime() &gt; 500) {
+ *     Timeline.getInstance().writeChromeTrace(writer);
+ * }
+ * </pre>
+ * The trace is in Chrome's trace event format, which {@code chrome://tracing}
+ * and Perfetto open as a flame chart.
+ * <p>
+ * Calls are kept in a ring buffer of primitive arrays, allocated once per
+ * thread, so recording them allocates nothing; once it's full, the oldest
+ * calls are overwritten. Consecutive fetches from the same result set are
+ * merged into one span. Only calls made on the thread between
+ * {@link #start()} and {@link #stop()} are recorded, and while no thread is
+ * recording, calls aren't so much as looked up.
+ *
+ * @author coda
+ *
+ */
+@Immutable
+public final class Timeline {
+	/**
+	 * A thread's ring buffer of calls.
+	 */
+	@NotThreadSafe
+	private static final class Buffer {
+		final long[] starts = new long[CAPACITY];
+		final long[] spans = new long[CAPACITY];
+		final long[] busy = new long[CAPACITY];
+		final long[] rows = new long[CAPACITY];
+		final int[] calls = new int[CAPACITY];
+		final Category[] categories = new Category[CAPACITY];
+		final String[] fingerprints = new String[CAPACITY];
+		long origin;
+		long finish;
+		long count;
+		boolean recording;
+
+		void clear() {
+			for (int i = 0; i < CAPACITY; i++) {
+				fingerprints[i] = null;
+				categories[i] = null;
+			}
+			count = 0;
+		}
+
+		void record(Category category, String fingerprint, long start, long elapsed, long rows) {
+			if (count > 0 && category == Category.FETCH) {
+				final int last = (int) ((count - 1) % CAPACITY);
+				if (categories[last] == Category.FETCH && equal(fingerprints[last], fingerprint)) {
+					spans[last] = start + elapsed - starts[last];
+					busy[last] += elapsed;
+					this.rows[last] += rows;
+					calls[last]++;
+					return;
+				}
+			}
+
+			final int i = (int) (count % CAPACITY);
+			starts[i] = start;
+			spans[i] = elapsed;
+			busy[i] = elapsed;
+			this.rows[i] = rows;
+			calls[i] = 1;
+			categories[i] = category;
+			fingerprints[i] = fingerprint;
+			count++;
+		}
+
+		private static boolean equal(String a, String b) {
+			return (a == null) ? b == null : a.equals(b);
+		}
+	}
+
+	/**
+	 * The number of calls each thread's timeline holds.
+	 */
+	public static final int CAPACITY = 1024;
+
+	private static final Timeline INSTANCE = new Timeline();
+	private static final AtomicInteger RECORDING = new AtomicInteger();
+
+	/**
+	 * Returns the {@link Timeline} instance for the current thread.
+	 */
+	public static Timeline getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns {@code true} if any thread is recording its timeline.
+	 */
+	static boolean isActive() {
+		return RECORDING.get() > 0;
+	}
+
+	/**
+	 * Records a call in {@code category} on the current thread's timeline,
+	 * if it's recording.
+	 */
+	static void record(Category category, String fingerprint, long start, long elapsed, long rows) {
+		final Buffer buffer = INSTANCE.buffers.get();
+		if (buffer.recording) {
+			buffer.record(category, fingerprint, start, elapsed, rows);
+		}
+	}
+
+	private final ThreadLocal<Buffer> buffers;
+
+	private Timeline() {
+		this.buffers = new ThreadLocal<Buffer>() {
+			@Override
+			protected Buffer initialValue() {
+				return new Buffer();
+			}
+		};
+	}
+
+	/**
+	 * Discards the current thread's timeline and starts recording a new one.
+	 */
+	public void start() {
+		final Buffer buffer = buffers.get();
+		buffer.clear();
+		buffer.origin = System.nanoTime();
+		if (!buffer.recording) {
+			buffer.recording = true;
+			RECORDING.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Stops recording the current thread's timeline, keeping the calls
+	 * recorded so far.
+	 */
+	public void stop() {
+		final Buffer buffer = buffers.get();
+		if (buffer.recording) {
+			buffer.recording = false;
+			buffer.finish = System.nanoTime();
+			RECORDING.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the current thread is recording its timeline.
+	 */
+	public boolean isRecording() {
+		return buffers.get().recording;
+	}
+
+	/**
+	 * Returns the time since {@link #start()}, or between it and
+	 * {@link #stop()}, in milliseconds.
+	 */
+	public long getElapsedTime() {
+		return getElapsedNanos() / 1000000;
+	}
+
+	/**
+	 * Returns the time since {@link #start()}, or between it and
+	 * {@link #stop()}, in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		final Buffer buffer = buffers.get();
+		return (buffer.recording ? System.nanoTime() : buffer.finish) - buffer.origin;
+	}
+
+	/**
+	 * Returns the number of calls held in the current thread's timeline.
+	 */
+	public int getCallCount() {
+		return (int) Math.min(buffers.get().count, CAPACITY);
+	}
+
+	/**
+	 * Returns the number of calls which were overwritten because the
+	 * timeline was full.
+	 */
+	public long getDroppedCount() {
+		return Math.max(buffers.get().count - CAPACITY, 0);
+	}
+
+	/**
+	 * Returns the current thread's timeline in Chrome's trace event format.
+	 *
+	 * @see #writeChromeTrace(Appendable)
+	 */
+	public String toChromeTrace() {
+		final StringBuilder builder = new StringBuilder();
+		try {
+			writeChromeTrace(builder);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Writes the current thread's timeline to {@code out} as a JSON object
+	 * in Chrome's trace event format. Each call is a complete ({@code "X"})
+	 * event named after its {@link Category}, on a track named after the
+	 * thread, starting from when the timeline was started; its SQL, rows,
+	 * and, for merged fetches, the number of calls and the time spent in
+	 * them are its {@code args}.
+	 *
+	 * @throws IOException
+	 *             if {@code out} does
+	 */
+	public void writeChromeTrace(Appendable out) throws IOException {
+		final Buffer buffer = buffers.get();
+		final Thread thread = Thread.currentThread();
+		final long tid = thread.getId();
+
+		out.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+		out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(Long.toString(tid));
+		out.append(",\"args\":{\"name\":");
+		string(out, thread.getName());
+		out.append("}}");
+
+		final long first = Math.max(buffer.count - CAPACITY, 0);
+		for (long n = first; n < buffer.count; n++) {
+			final int i = (int) (n % CAPACITY);
+			final Category category = buffer.categories[i];
+			out.append(",\n{\"name\":\"").append(category.name().toLowerCase());
+			out.append("\",\"cat\":\"").append(category.getBucket().name().toLowerCase());
+			out.append("\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(Long.toString(tid));
+			out.append(",\"ts\":");
+			micros(out, buffer.starts[i] - buffer.origin);
+			out.append(",\"dur\":");
+			micros(out, buffer.spans[i]);
+			out.append(",\"args\":{\"rows\":").append(Long.toString(buffer.rows[i]));
+			if (buffer.calls[i] > 1) {
+				out.append(",\"calls\":").append(Integer.toString(buffer.calls[i]));
+				out.append(",\"busy_us\":");
+				micros(out, buffer.busy[i]);
+			}
+			if (buffer.fingerprints[i] != null) {
+				out.append(",\"sql\":");
+				string(out, buffer.fingerprints[i]);
+			}
+			out.append("}}");
+		}
+		out.append("]}\n");
+	}
+
+	private static void micros(Appendable out, long nanos) throws IOException {
+		// microseconds with three decimal places, as Chrome expects
+		if (nanos < 0) {
+			out.append('-');
+			nanos = -nanos;
+		}
+		out.append(Long.toString(nanos / 1000)).append('.');
+		final long fraction = nanos % 1000;
+		if (fraction < 100) {
+			out.append('0');
+		}
+		if (fraction < 10) {
+			out.append('0');
+		}
+		out.append(Long.toString(fraction));
+	}
+
+	private static void string(Appendable out, String value) throws IOException {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+}
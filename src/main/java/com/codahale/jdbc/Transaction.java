@@ -0,0 +1,158 @@
+package com.codahale.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The state of a connection's current transaction, for connections with
+ * {@code transaction.tracking} or {@code transaction.threshold} set. A
+ * transaction is opened by the first statement executed (or savepoint set)
+ * while auto-commit is off, and ended by a commit, a rollback, turning
+ * auto-commit back on, or closing the connection; how long it was open is
+ * then recorded in {@link TransactionStatistics}.
+ * <p>
+ * The connection's own thread drives it, but while a transaction is open it's
+ * also registered with the {@link TransactionWatchdog}, which reads when it
+ * was opened and the SQL it has run from its own thread.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+final class Transaction {
+	private static final int MAX_STATEMENTS = 32;
+
+	final long connectionId;
+	final String database;
+	final long threshold;
+	final SlowQueryLog slowQueryLog;
+	private boolean autoCommit = true;
+	private volatile long openedAt;
+	private volatile String thread;
+	// when the transaction the watchdog last reported was opened
+	volatile long reportedOpenedAt;
+	@GuardedBy("this")
+	private final String[] statements = new String[MAX_STATEMENTS];
+	@GuardedBy("this")
+	private int count;
+
+	/**
+	 * @param threshold
+	 *            how long the transaction may be open before the watchdog
+	 *            reports it, in nanoseconds, or {@link Long#MAX_VALUE} to
+	 *            never report it
+	 */
+	Transaction(long connectionId, String database, long threshold, SlowQueryLog slowQueryLog) {
+		this.connectionId = connectionId;
+		this.database = database;
+		this.threshold = threshold;
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	/**
+	 * Picks up the auto-commit mode {@code connection} was handed over in,
+	 * as a pooled connection may have had it turned off.
+	 */
+	void attach(Connection connection) {
+		try {
+			this.autoCommit = connection.getAutoCommit();
+		} catch (SQLException e) {
+			// assume the JDBC default
+			this.autoCommit = true;
+		}
+	}
+
+	/**
+	 * Returns {@code true} if a transaction is open.
+	 */
+	boolean isOpen() {
+		return openedAt != 0;
+	}
+
+	/**
+	 * Returns when the transaction was opened, as read from
+	 * {@link System#nanoTime()}, or {@code 0} if it isn't open.
+	 */
+	long getOpenedAt() {
+		return openedAt;
+	}
+
+	/**
+	 * Notes a statement with {@code fingerprint} (or {@code null} for a
+	 * savepoint) which started at {@code start}, opening a transaction if
+	 * auto-commit is off and none is open.
+	 */
+	void executed(String fingerprint, long start) {
+		if (autoCommit) {
+			return;
+		}
+		if (openedAt == 0) {
+			this.thread = Thread.currentThread().getName();
+			this.openedAt = (start == 0) ? 1 : start;
+			if (threshold != Long.MAX_VALUE) {
+				TransactionWatchdog.getInstance().register(this);
+			}
+		}
+		if (fingerprint != null) {
+			synchronized (this) {
+				if (count < MAX_STATEMENTS) {
+					statements[count] = fingerprint;
+				}
+				count++;
+			}
+		}
+	}
+
+	/**
+	 * Notes that auto-commit was turned on or off, which, if turned on,
+	 * commits any open transaction.
+	 */
+	void setAutoCommit(boolean autoCommit) {
+		if (autoCommit && !this.autoCommit) {
+			end(true);
+		}
+		this.autoCommit = autoCommit;
+	}
+
+	/**
+	 * Ends the open transaction, if any, by committing it or rolling it back.
+	 */
+	void end(boolean committed) {
+		final long opened = openedAt;
+		if (opened == 0) {
+			return;
+		}
+		final long elapsed = System.nanoTime() - opened;
+		if (threshold != Long.MAX_VALUE) {
+			TransactionWatchdog.getInstance().unregister(this);
+		}
+		openedAt = 0;
+		synchronized (this) {
+			Arrays.fill(statements, 0, Math.min(count, MAX_STATEMENTS), null);
+			count = 0;
+		}
+		TransactionStatistics.getInstance().record(elapsed, committed);
+	}
+
+	/**
+	 * Returns a copy of the open transaction's state as of {@code now}, or
+	 * {@code null} if none is open.
+	 */
+	OpenTransaction snapshot(long now) {
+		final long opened = openedAt;
+		if (opened == 0) {
+			return null;
+		}
+		final String[] copy;
+		final int executed;
+		synchronized (this) {
+			copy = Arrays.copyOf(statements, Math.min(count, MAX_STATEMENTS));
+			executed = count;
+		}
+		return new OpenTransaction(connectionId, database, thread, now - opened, executed, copy);
+	}
+}
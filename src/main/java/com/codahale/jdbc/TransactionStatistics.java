@@ -0,0 +1,116 @@
+package com.codahale.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Process-wide counts of transactions committed and rolled back on
+ * connections with {@code transaction.tracking} or
+ * {@code transaction.threshold} set, and a histogram of how long they were
+ * open, from the first statement to the commit or rollback:
+ * <pre>
+ * TransactionStatistics.getInstance().snapshot().getDurations().get99thPercentile();
+ * </pre>
+ * Long open transactions hold locks and hold back replication even while no
+ * statement is running, so their durations say more than the time spent
+ * committing, which is timed as {@link Category#TRANSACTION} like any other
+ * call. Transactions left open when their connection is closed are counted
+ * as rolled back.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class TransactionStatistics {
+	/**
+	 * A copy of the statistics at a point in time.
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final long commits, rollbacks;
+		private final LatencyHistogram.Snapshot durations;
+
+		Snapshot(long commits, long rollbacks, LatencyHistogram.Snapshot durations) {
+			this.commits = commits;
+			this.rollbacks = rollbacks;
+			this.durations = durations;
+		}
+
+		/**
+		 * Returns the number of transactions committed.
+		 */
+		public long getCommitCount() {
+			return commits;
+		}
+
+		/**
+		 * Returns the number of transactions rolled back.
+		 */
+		public long getRollbackCount() {
+			return rollbacks;
+		}
+
+		/**
+		 * Returns the histogram of how long transactions were open, in
+		 * nanoseconds.
+		 */
+		public LatencyHistogram.Snapshot getDurations() {
+			return durations;
+		}
+	}
+
+	/**
+	 * The statistics since the last {@link TransactionStatistics#clear()}.
+	 */
+	private static final class State {
+		final AtomicLong commits = new AtomicLong();
+		final AtomicLong rollbacks = new AtomicLong();
+		final LatencyHistogram durations = new LatencyHistogram();
+	}
+
+	private static final TransactionStatistics INSTANCE = new TransactionStatistics();
+
+	/**
+	 * Returns the {@link TransactionStatistics} instance.
+	 */
+	public static TransactionStatistics getInstance() {
+		return INSTANCE;
+	}
+
+	private volatile State state;
+
+	private TransactionStatistics() {
+		this.state = new State();
+	}
+
+	/**
+	 * Records a transaction which was open for {@code elapsed} nanoseconds
+	 * and then committed or rolled back.
+	 */
+	void record(long elapsed, boolean committed) {
+		final State s = state;
+		if (committed) {
+			s.commits.incrementAndGet();
+		} else {
+			s.rollbacks.incrementAndGet();
+		}
+		s.durations.record(elapsed);
+	}
+
+	/**
+	 * Returns a snapshot of the statistics.
+	 */
+	public Snapshot snapshot() {
+		final State s = state;
+		return new Snapshot(s.commits.get(), s.rollbacks.get(), s.durations.snapshot());
+	}
+
+	/**
+	 * Discards all recorded statistics.
+	 */
+	public void clear() {
+		state = new State();
+	}
+}
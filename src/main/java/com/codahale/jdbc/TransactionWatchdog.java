@@ -0,0 +1,178 @@
+package com.codahale.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Reports transactions which have been open for longer than their
+ * connection's {@code transaction.threshold}, in milliseconds, along with the
+ * SQL they've run so far:
+ * <pre>
+ * jdbc:perf-mysql;transaction.threshold=5000://example.com/db_name
+ * </pre>
+ * A single background thread scans the open transactions every
+ * {@value #INTERVAL_MILLIS}ms, and reports each one which is over its
+ * threshold once, to each {@link Listener} and, if the connection has one,
+ * to its {@link SlowQueryLog} as a {@link Category#TRANSACTION} call with
+ * the statements' fingerprints separated by semicolons. The thread is only
+ * started once a connection with a threshold opens a transaction.
+ * <p>
+ * Connections register a transaction when they open it and unregister it
+ * when it ends, so the calling threads pay for an insert into and a removal
+ * from a concurrent set per transaction, not per statement.
+ *
+ * @author coda
+ *
+ */
+@ThreadSafe
+public final class TransactionWatchdog {
+	/**
+	 * Told about each transaction which stays open too long.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the watchdog's thread when {@code transaction} has been
+		 * open for longer than its connection's threshold.
+		 */
+		void longTransaction(OpenTransaction transaction);
+	}
+
+	private static final long INTERVAL_MILLIS = 100;
+	private static final TransactionWatchdog INSTANCE = new TransactionWatchdog();
+
+	/**
+	 * Returns the {@link TransactionWatchdog} instance.
+	 */
+	public static TransactionWatchdog getInstance() {
+		return INSTANCE;
+	}
+
+	private final Set<Transaction> open;
+	private final List<Listener> listeners;
+	private final AtomicBoolean started;
+	private final AtomicLong reported;
+	private final Thread thread;
+
+	private TransactionWatchdog() {
+		this.open = Collections.newSetFromMap(new ConcurrentHashMap<Transaction, Boolean>());
+		this.listeners = new CopyOnWriteArrayList<Listener>();
+		this.started = new AtomicBoolean();
+		this.reported = new AtomicLong();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "jdbc-transaction-watchdog");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Adds a listener to be told about long transactions.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with {@link #addListener(Listener)}.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the number of long transactions reported.
+	 */
+	public long getReportedCount() {
+		return reported.get();
+	}
+
+	/**
+	 * Returns the transactions open right now on connections with a
+	 * threshold, the longest open first.
+	 */
+	public List<OpenTransaction> getOpenTransactions() {
+		final long now = System.nanoTime();
+		final List<OpenTransaction> transactions = new ArrayList<OpenTransaction>();
+		for (Transaction transaction : open) {
+			final OpenTransaction snapshot = transaction.snapshot(now);
+			if (snapshot != null) {
+				transactions.add(snapshot);
+			}
+		}
+		Collections.sort(transactions, new Comparator<OpenTransaction>() {
+			@Override
+			public int compare(OpenTransaction a, OpenTransaction b) {
+				return Long.compare(b.getOpenNanos(), a.getOpenNanos());
+			}
+		});
+		return transactions;
+	}
+
+	void register(Transaction transaction) {
+		open.add(transaction);
+		if (!started.get() && started.compareAndSet(false, true)) {
+			thread.start();
+		}
+	}
+
+	void unregister(Transaction transaction) {
+		open.remove(transaction);
+	}
+
+	private void watch() {
+		final long interval = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+		while (true) {
+			LockSupport.parkNanos(interval);
+			scan(System.nanoTime());
+		}
+	}
+
+	private void scan(long now) {
+		for (Transaction transaction : open) {
+			final long opened = transaction.getOpenedAt();
+			if (opened != 0 && opened != transaction.reportedOpenedAt && now - opened >= transaction.threshold) {
+				final OpenTransaction snapshot = transaction.snapshot(now);
+				// skip it if another transaction has been opened since, until
+				// the next scan
+				if (snapshot != null && now - snapshot.getOpenNanos() == opened) {
+					transaction.reportedOpenedAt = opened;
+					report(transaction, snapshot);
+				}
+			}
+		}
+	}
+
+	private void report(Transaction transaction, OpenTransaction snapshot) {
+		reported.incrementAndGet();
+		if (transaction.slowQueryLog != null) {
+			final StringBuilder statements = new StringBuilder();
+			for (String statement : snapshot.getStatements()) {
+				if (statements.length() > 0) {
+					statements.append("; ");
+				}
+				statements.append(statement);
+			}
+			transaction.slowQueryLog.publish(Category.TRANSACTION, statements.toString(), snapshot.getOpenNanos());
+		}
+		for (Listener listener : listeners) {
+			try {
+				listener.longTransaction(snapshot);
+			} catch (RuntimeException e) {
+				// a broken listener mustn't stop the others, or the watchdog
+			}
+		}
+	}
+}
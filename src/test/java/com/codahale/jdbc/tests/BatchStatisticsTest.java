@@ -0,0 +1,97 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.BatchStatistics;
+
+@RunWith(Enclosed.class)
+public class BatchStatisticsTest {
+	public static class Recording_Batches {
+		private final BatchStatistics statistics = BatchStatistics.getInstance();
+		
+		@Before
+		public void setup() throws Exception {
+			statistics.clear();
+		}
+		
+		@Test
+		public void itRecordsBatchSizesInPowersOfTwo() throws Exception {
+			statistics.recordBatch("insert into funk values (?)", 1, 1, 100, 1);
+			statistics.recordBatch("insert into funk values (?)", 3, 3, 100, 1);
+			statistics.recordBatch("insert into funk values (?)", 100, 100, 100, 1);
+			statistics.recordBatch("insert into funk values (?)", 1000000, 1000000, 100, 1);
+			
+			final BatchStatistics.Snapshot snapshot = statistics.snapshot().get("insert into funk values (?)");
+			final long[] sizes = snapshot.getBatchSizeCounts();
+			assertThat(sizes[0], is(1L));
+			assertThat(sizes[1], is(1L));
+			assertThat(sizes[6], is(1L));
+			assertThat(sizes[sizes.length - 1], is(1L));
+			assertThat(snapshot.getMaxBatchSize(), is(1000000L));
+			assertThat(snapshot.getMeanBatchSize(), is(1000104 / 4.0));
+		}
+		
+		@Test
+		public void itMeasuresRowsPerSecond() throws Exception {
+			statistics.recordBatch("insert into funk values (?)", 500, 500, 250000000L, 1);
+			statistics.recordUpdate("insert into funk values (?)", 1, 250000000L, 1);
+			
+			assertThat(statistics.snapshot().get("insert into funk values (?)").getRowsPerSecond(), is(1002.0));
+		}
+		
+		@Test
+		public void itRecordsUnknownQueriesAsOther() throws Exception {
+			statistics.recordBatch(null, 2, 2, 100, 1);
+			
+			assertThat(statistics.snapshot().get(BatchStatistics.OTHER).getBatchCount(), is(1L));
+		}
+	}
+	
+	public static class Spotting_Unbatched_Updates {
+		private final BatchStatistics statistics = BatchStatistics.getInstance();
+		
+		@Before
+		public void setup() throws Exception {
+			// end any run an earlier test left on this thread
+			statistics.recordUpdate(null, 0, 0, 1);
+			statistics.clear();
+		}
+		
+		@Test
+		public void itFlagsOnlyLongEnoughRunsOfTheSameSingleRowUpdate() throws Exception {
+			for (int i = 0; i < 4; i++) {
+				statistics.recordUpdate("update a set x = ?", 1, 100, 1);
+			}
+			statistics.recordUpdate("update b set x = ?", 1, 100, 1);
+			for (int i = 0; i < 4; i++) {
+				statistics.recordUpdate("update a set x = ?", 1, 100, 1);
+			}
+			statistics.recordUpdate("update a set x = ?", 2, 100, 1);
+			for (int i = 0; i < 7; i++) {
+				statistics.recordUpdate("update a set x = ?", 1, 100, 1);
+			}
+			
+			final BatchStatistics.Snapshot snapshot = statistics.snapshot().get("update a set x = ?");
+			assertThat(snapshot.getUpdateCount(), is(16L));
+			assertThat(snapshot.getUnbatchedRunCount(), is(1L));
+			assertThat(snapshot.getUnbatchedUpdateCount(), is(7L));
+		}
+		
+		@Test
+		public void itBreaksRunsOnBatches() throws Exception {
+			for (int i = 0; i < 4; i++) {
+				statistics.recordUpdate("update a set x = ?", 1, 100, 1);
+			}
+			statistics.recordBatch("update a set x = ?", 10, 10, 100, 1);
+			statistics.recordUpdate("update a set x = ?", 1, 100, 1);
+			
+			assertThat(statistics.snapshot().get("update a set x = ?").getUnbatchedRunCount(), is(0L));
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.ConnectionStatistics;
+
+@RunWith(Enclosed.class)
+public class ConnectionStatisticsTest {
+	public static class Recording_Connects {
+		private final ConnectionStatistics statistics = ConnectionStatistics.getInstance();
+		
+		@Before
+		public void setup() throws Exception {
+			statistics.clear();
+		}
+		
+		@Test
+		public void itRecordsConnectsByDatabase() throws Exception {
+			statistics.record("jdbc:mysql://one/db", 100, true);
+			statistics.record("jdbc:mysql://one/db", 300, false);
+			statistics.record("jdbc:mysql://two/db", 10, true);
+			
+			final ConnectionStatistics.Snapshot one = statistics.snapshot().get("jdbc:mysql://one/db");
+			assertThat(one.getCount(), is(2L));
+			assertThat(one.getFailureCount(), is(1L));
+			assertThat(one.getFailureRate(), is(0.5));
+			assertThat(one.getLatency().getMax(), is(300L));
+			assertThat(statistics.snapshot().get("jdbc:mysql://two/db").getFailureRate(), is(0.0));
+		}
+		
+		@Test
+		public void itExtrapolatesSampledConnects() throws Exception {
+			statistics.record("jdbc:mysql://one/db", 100, false, 10);
+			
+			final ConnectionStatistics.Snapshot snapshot = statistics.snapshot().get("jdbc:mysql://one/db");
+			assertThat(snapshot.getCount(), is(10L));
+			assertThat(snapshot.getFailureCount(), is(10L));
+			assertThat(snapshot.getLatency().isSampled(), is(true));
+		}
+	}
+	
+	public static class Connecting_To_Many_Databases {
+		private final ConnectionStatistics statistics = ConnectionStatistics.getInstance();
+		
+		@Before
+		public void setup() throws Exception {
+			statistics.clear();
+		}
+		
+		@Test
+		public void itBoundsTheNumberOfDatabases() throws Exception {
+			for (int i = 0; i < 150; i++) {
+				statistics.record("jdbc:mysql://host" + i + "/db", 100, true);
+			}
+			
+			assertThat(statistics.snapshot().size(), is(101));
+			assertThat(statistics.snapshot().get(ConnectionStatistics.OTHER).getCount(), is(50L));
+		}
+	}
+}
@@ -0,0 +1,370 @@
+package com.codahale.jdbc.tests;
+
+import static com.codahale.jdbc.tests.StopwatchTest.roughly;
+import static com.codahale.jdbc.tests.StopwatchTest.seconds;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.jdbc.BatchStatistics;
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.Instrumented;
+import com.codahale.jdbc.InstrumentedBlob;
+import com.codahale.jdbc.InstrumentedReader;
+import com.codahale.jdbc.InstrumentedCallableStatement;
+import com.codahale.jdbc.InstrumentedConnection;
+import com.codahale.jdbc.InstrumentedPreparedStatement;
+import com.codahale.jdbc.InstrumentedResultSet;
+import com.codahale.jdbc.InstrumentedStatement;
+import com.codahale.jdbc.Instrumenter;
+import com.codahale.jdbc.QueryStatistics;
+import com.codahale.jdbc.Stopwatch;
+
+@RunWith(Enclosed.class)
+public class DelegatingInstrumenterTest {
+	public static class A_Delegating_Connection {
+		private Statement statement;
+		private PreparedStatement preparedStatement;
+		private CallableStatement callableStatement;
+		private DatabaseMetaData metaData;
+		private Array array;
+		private Connection connection, instrumentedConnection;
+
+		@Before
+		public void setup() throws Exception {
+			this.statement = mock(Statement.class);
+			this.preparedStatement = mock(PreparedStatement.class);
+			this.callableStatement = mock(CallableStatement.class);
+			this.metaData = mock(DatabaseMetaData.class);
+			this.array = mock(Array.class);
+
+			this.connection = mock(Connection.class);
+			when(connection.createStatement()).thenReturn(statement);
+			when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+			when(connection.prepareCall(anyString())).thenReturn(callableStatement);
+			when(connection.getMetaData()).thenReturn(metaData);
+			when(connection.createArrayOf(anyString(), (Object[]) anyObject())).thenReturn(array);
+
+			this.instrumentedConnection = Instrumenter.delegate(Connection.class, connection);
+		}
+
+		@Test
+		public void itIsInstrumented() throws Exception {
+			assertThat(instrumentedConnection, is(instanceOf(InstrumentedConnection.class)));
+			assertTrue(((Instrumented) instrumentedConnection).getOriginalClass().equals(connection.getClass()));
+		}
+
+		@Test
+		public void itReturnsInstrumentedStatements() throws Exception {
+			final Statement s = instrumentedConnection.createStatement();
+			assertThat(s, is(instanceOf(InstrumentedStatement.class)));
+			assertThat(s.getConnection(), is(sameInstance(instrumentedConnection)));
+		}
+
+		@Test
+		public void itReturnsInstrumentedPreparedStatements() throws Exception {
+			assertThat(instrumentedConnection.prepareStatement("SELECT 1"), is(instanceOf(InstrumentedPreparedStatement.class)));
+
+			verify(connection).prepareStatement("SELECT 1");
+		}
+
+		@Test
+		public void itReturnsInstrumentedCallableStatements() throws Exception {
+			assertThat(instrumentedConnection.prepareCall("CALL funk()"), is(instanceOf(InstrumentedCallableStatement.class)));
+
+			verify(connection).prepareCall("CALL funk()");
+		}
+
+		@Test
+		public void itReturnsInstrumentedDatabaseMetaDatas() throws Exception {
+			assertThat(instrumentedConnection.getMetaData(), is(instanceOf(Instrumented.class)));
+			assertThat(instrumentedConnection.getMetaData().getConnection(), is(sameInstance(instrumentedConnection)));
+		}
+
+		@Test
+		public void itReturnsInstrumentedArrays() throws Exception {
+			assertThat(instrumentedConnection.createArrayOf("INTEGER", new Object[0]), is(instanceOf(Instrumented.class)));
+		}
+
+		@Test
+		public void itTimesCommitsAndRollbacksAsTransactionTime() throws Exception {
+			Stopwatch.getInstance().reset();
+			doAnswer(new Answer<Object>() {
+				@Override
+				public Object answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(seconds(1));
+					return null;
+				}
+			}).when(connection).commit();
+
+			instrumentedConnection.commit();
+			instrumentedConnection.rollback();
+
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.TRANSACTION), is(roughly(1)));
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.EXECUTION), is(0L));
+			verify(connection).commit();
+			verify(connection).rollback();
+			Stopwatch.getInstance().reset();
+		}
+	}
+
+	public static class A_Delegating_PreparedStatement {
+		private ResultSet resultSet;
+		private Connection connection;
+		private PreparedStatement statement, instrumentedStatement;
+
+		@After
+		public void reset() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+
+		@Before
+		public void setup() throws Exception {
+			Stopwatch.getInstance().reset();
+
+			this.resultSet = mock(ResultSet.class);
+
+			this.statement = mock(PreparedStatement.class);
+			when(statement.executeQuery()).thenAnswer(new Answer<ResultSet>() {
+				@Override
+				public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(seconds(2));
+					return resultSet;
+				}
+			});
+
+			this.connection = mock(Connection.class);
+			this.instrumentedStatement = Instrumenter.delegate(PreparedStatement.class, statement);
+		}
+
+		@Test
+		public void itTimesQueryExecution() throws Exception {
+			instrumentedStatement.executeQuery();
+
+			assertThat(Stopwatch.getInstance().wasCalled(), is(true));
+			assertThat(Stopwatch.getInstance().getElapsedTime(), is(roughly(2)));
+
+			verify(statement).executeQuery();
+		}
+
+		@Test
+		public void itRecordsExecutionsByTheirSQL() throws Exception {
+			QueryStatistics.getInstance().clear();
+			when(connection.prepareStatement(anyString())).thenReturn(statement);
+
+			final PreparedStatement prepared = Instrumenter.delegate(Connection.class, connection).prepareStatement("SELECT 1");
+			prepared.executeQuery();
+
+			assertThat(QueryStatistics.getInstance().snapshot().get("select ?").getCount(), is(1L));
+		}
+
+		@Test
+		public void itReturnsInstrumentedResultSets() throws Exception {
+			final ResultSet results = instrumentedStatement.executeQuery();
+
+			assertThat(results, is(instanceOf(InstrumentedResultSet.class)));
+			assertThat(results.getStatement(), is(sameInstance((Statement) instrumentedStatement)));
+		}
+	}
+
+	public static class Recording_Batch_Statistics {
+		private PreparedStatement preparedStatement;
+		private Connection connection, instrumentedConnection;
+		
+		@Before
+		public void setup() throws Exception {
+			BatchStatistics.getInstance().clear();
+			
+			this.preparedStatement = mock(PreparedStatement.class);
+			when(preparedStatement.executeBatch()).thenReturn(new int[] { 1, 1, Statement.SUCCESS_NO_INFO });
+			when(preparedStatement.executeUpdate()).thenReturn(1);
+			this.connection = mock(Connection.class);
+			when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+			
+			this.instrumentedConnection = Instrumenter.delegate(Connection.class, connection);
+		}
+		
+		@Test
+		public void itRecordsBatchSizesAndRowsAffected() throws Exception {
+			final PreparedStatement statement = instrumentedConnection.prepareStatement("INSERT INTO funk VALUES (?)");
+			statement.addBatch();
+			statement.addBatch();
+			statement.addBatch();
+			statement.executeBatch();
+			statement.addBatch();
+			statement.clearBatch();
+			statement.addBatch();
+			statement.executeBatch();
+			
+			final BatchStatistics.Snapshot snapshot = BatchStatistics.getInstance().snapshot().get("insert into funk values (?)");
+			assertThat(snapshot.getBatchCount(), is(2L));
+			assertThat(snapshot.getBatchedStatementCount(), is(4L));
+			assertThat(snapshot.getMaxBatchSize(), is(3L));
+			assertThat(snapshot.getRowsAffected(), is(4L));
+		}
+		
+		@Test
+		public void itFlagsRunsOfSingleRowUpdates() throws Exception {
+			final PreparedStatement statement = instrumentedConnection.prepareStatement("UPDATE funk SET x = ? WHERE id = ?");
+			for (int i = 0; i < 6; i++) {
+				statement.executeUpdate();
+			}
+			
+			final BatchStatistics.Snapshot snapshot = BatchStatistics.getInstance().snapshot().get("update funk set x = ? where id = ?");
+			assertThat(snapshot.getUpdateCount(), is(6L));
+			assertThat(snapshot.getRowsAffected(), is(6L));
+			assertThat(snapshot.getUnbatchedRunCount(), is(1L));
+			assertThat(snapshot.getUnbatchedUpdateCount(), is(6L));
+		}
+	}
+
+	public static class A_Delegating_Blob {
+		private Blob blob;
+		private ResultSet resultSet, instrumentedResultSet;
+		
+		@Before
+		public void setup() throws Exception {
+			Stopwatch.getInstance().reset();
+			
+			this.blob = mock(Blob.class);
+			when(blob.getBytes(1, 10)).thenAnswer(new Answer<byte[]>() {
+				@Override
+				public byte[] answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(seconds(1));
+					return new byte[10];
+				}
+			});
+			when(blob.getBinaryStream()).thenReturn(new ByteArrayInputStream(new byte[100]));
+			this.resultSet = mock(ResultSet.class);
+			when(resultSet.getBlob(1)).thenReturn(blob);
+			when(resultSet.getCharacterStream(1)).thenReturn(new StringReader("0123456789"));
+			
+			this.instrumentedResultSet = Instrumenter.delegate(ResultSet.class, resultSet);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+		
+		@Test
+		public void itReturnsInstrumentedBlobs() throws Exception {
+			assertThat(instrumentedResultSet.getBlob(1), is(instanceOf(InstrumentedBlob.class)));
+		}
+		
+		@Test
+		public void itTimesBlobReadsAsFetchTime() throws Exception {
+			instrumentedResultSet.getBlob(1).getBytes(1, 10);
+			
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.FETCH), is(roughly(1)));
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(10L));
+		}
+		
+		@Test
+		public void itCountsBytesReadFromStreams() throws Exception {
+			final InputStream stream = instrumentedResultSet.getBlob(1).getBinaryStream();
+			stream.read(new byte[64]);
+			assertThat(Stopwatch.getInstance().wasCalled(), is(true));
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(64L));
+			
+			while (stream.read() >= 0) {
+				// one byte at a time
+			}
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(64L));
+			
+			stream.close();
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(100L));
+		}
+		
+		@Test
+		public void itDoesNotTimeSingleByteReads() throws Exception {
+			final InputStream stream = instrumentedResultSet.getBlob(1).getBinaryStream();
+			stream.read();
+			stream.read();
+			
+			assertThat(Stopwatch.getInstance().wasCalled(), is(false));
+		}
+		
+		@Test
+		public void itCountsCharactersReadAsTwoBytes() throws Exception {
+			final Reader reader = instrumentedResultSet.getCharacterStream(1);
+			assertThat(reader, is(instanceOf(InstrumentedReader.class)));
+			reader.read(new char[4]);
+			
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(8L));
+		}
+	}
+
+	public static class A_Delegating_ResultSet {
+		private ResultSet resultSet, instrumentedResultSet;
+
+		@After
+		public void reset() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+
+		@Before
+		public void setup() throws Exception {
+			Stopwatch.getInstance().reset();
+
+			this.resultSet = mock(ResultSet.class);
+			when(resultSet.next()).thenAnswer(new Answer<Boolean>() {
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(seconds(2));
+					return true;
+				}
+			});
+			when(resultSet.getString(1)).thenReturn("funk");
+
+			this.instrumentedResultSet = Instrumenter.delegate(ResultSet.class, resultSet);
+		}
+
+		@Test
+		public void itTimesNext() throws Exception {
+			instrumentedResultSet.next();
+
+			assertThat(Stopwatch.getInstance().wasCalled(), is(true));
+			assertThat(Stopwatch.getInstance().getElapsedTime(), is(roughly(2)));
+
+			verify(resultSet).next();
+		}
+
+		@Test
+		public void itTimesNextAsFetchTimeAndCountsRows() throws Exception {
+			instrumentedResultSet.next();
+
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.FETCH), is(roughly(2)));
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.EXECUTION), is(0L));
+			assertThat(Stopwatch.getInstance().getRowsFetched(), is(1L));
+		}
+
+		@Test
+		public void itProxiesOtherMethodCallsThrough() throws Exception {
+			assertThat(instrumentedResultSet.getString(1), is("funk"));
+			assertThat(Stopwatch.getInstance().wasCalled(), is(false));
+		}
+	}
+}
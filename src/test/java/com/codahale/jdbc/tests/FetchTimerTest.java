@@ -0,0 +1,151 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.Category;
+import com.codahale.jdbc.InstrumentingDriver;
+import com.codahale.jdbc.JdbcStatistics;
+import com.codahale.jdbc.Stopwatch;
+
+@RunWith(Enclosed.class)
+public class FetchTimerTest {
+	private static Statement connect(String options) throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		final Properties info = new Properties();
+		info.setProperty("user", "sa");
+		info.setProperty("password", "");
+
+		final Connection connection = new InstrumentingDriver().connect("jdbc:perf-hsqldb;" + options + ":mem:FetchTimerTest", info);
+		final Statement statement = connection.createStatement();
+		statement.execute("DROP TABLE rows IF EXISTS");
+		statement.execute("CREATE TABLE rows (id INTEGER)");
+		for (int i = 0; i < 100; i++) {
+			statement.execute("INSERT INTO rows VALUES (" + i + ")");
+		}
+		return statement;
+	}
+
+	private static int drain(ResultSet results) throws Exception {
+		int rows = 0;
+		while (results.next()) {
+			rows++;
+		}
+		return rows;
+	}
+
+	public static class Timing_A_Whole_ResultSet {
+		@Before
+		@After
+		public void reset() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+
+		private void itTimesTheResultSetAsOneFetch(String options) throws Exception {
+			final Statement statement = connect(options);
+			final ResultSet results = statement.executeQuery("SELECT * FROM rows");
+			Stopwatch.getInstance().reset();
+			JdbcStatistics.getInstance().snapshotAndReset();
+
+			assertThat(drain(results), is(100));
+
+			final JdbcStatistics.Snapshot snapshot = JdbcStatistics.getInstance().snapshotAndReset();
+			assertThat(snapshot.getCount(Category.FETCH), is(1L));
+			assertThat(Stopwatch.getInstance().getRowsFetched(), is(100L));
+			assertThat(Stopwatch.getInstance().getElapsedNanos(Bucket.FETCH), is(snapshot.getTotalNanos(Category.FETCH)));
+			assertThat(Stopwatch.getInstance().getElapsedNanos(), is(snapshot.getTotalNanos(Category.FETCH)));
+			assertThat(Stopwatch.getInstance().wasCalled(), is(true));
+
+			results.close();
+			assertThat(JdbcStatistics.getInstance().snapshot().getCount(Category.FETCH), is(0L));
+		}
+
+		@Test
+		public void itTimesTheResultSetAsOneFetchWithProxies() throws Exception {
+			itTimesTheResultSetAsOneFetch("fetch.timing=resultset");
+		}
+
+		@Test
+		public void itTimesTheResultSetAsOneFetchWithDelegates() throws Exception {
+			itTimesTheResultSetAsOneFetch("fetch.timing=resultset;dispatch=delegate");
+		}
+
+		private void itTakesQueriesRunWhileIteratingOutOfTheFetch(String options) throws Exception {
+			final Statement statement = connect(options);
+			final Statement inner = statement.getConnection().createStatement();
+			final ResultSet results = statement.executeQuery("SELECT * FROM rows");
+			Stopwatch.getInstance().reset();
+
+			final long start = System.nanoTime();
+			while (results.next()) {
+				assertThat(drain(inner.executeQuery("SELECT * FROM rows WHERE id = " + results.getInt(1))), is(1));
+			}
+			final long wall = System.nanoTime() - start;
+
+			final Stopwatch stopwatch = Stopwatch.getInstance();
+			assertThat(stopwatch.getRowsFetched(), is(200L));
+			assertTrue(stopwatch.getElapsedNanos(Bucket.EXECUTION) > 0);
+			assertThat(stopwatch.getElapsedNanos(),
+					is(stopwatch.getElapsedNanos(Bucket.EXECUTION) + stopwatch.getElapsedNanos(Bucket.FETCH)));
+			assertTrue(stopwatch.getElapsedNanos() <= wall);
+		}
+
+		@Test
+		public void itTakesQueriesRunWhileIteratingOutOfTheFetchWithProxies() throws Exception {
+			itTakesQueriesRunWhileIteratingOutOfTheFetch("fetch.timing=resultset");
+		}
+
+		@Test
+		public void itTakesQueriesRunWhileIteratingOutOfTheFetchWithDelegates() throws Exception {
+			itTakesQueriesRunWhileIteratingOutOfTheFetch("fetch.timing=resultset;dispatch=delegate");
+		}
+
+		@Test
+		public void itStopsTimingWhenClosedEarly() throws Exception {
+			final Statement statement = connect("fetch.timing=resultset");
+			final ResultSet results = statement.executeQuery("SELECT * FROM rows");
+			JdbcStatistics.getInstance().snapshotAndReset();
+
+			results.next();
+			results.next();
+			results.close();
+
+			assertThat(JdbcStatistics.getInstance().snapshotAndReset().getCount(Category.FETCH), is(1L));
+			assertThat(Stopwatch.getInstance().getRowsFetched(), is(2L));
+		}
+	}
+
+	public static class Timing_Fetch_Size_Boundaries {
+		@Before
+		@After
+		public void reset() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+
+		@Test
+		public void itTimesEachFetchOfABatch() throws Exception {
+			// HSQLDB always reports a fetch size of 1, so every call crosses
+			// a boundary
+			final Statement statement = connect("fetch.timing=boundary;dispatch=delegate");
+			final ResultSet results = statement.executeQuery("SELECT * FROM rows");
+			JdbcStatistics.getInstance().snapshotAndReset();
+
+			assertThat(drain(results), is(100));
+
+			assertThat(JdbcStatistics.getInstance().snapshotAndReset().getCount(Category.FETCH), is(101L));
+			assertThat(Stopwatch.getInstance().getRowsFetched(), is(100L));
+		}
+	}
+}
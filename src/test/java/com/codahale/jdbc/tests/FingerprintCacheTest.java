@@ -0,0 +1,74 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.FingerprintCache;
+
+@RunWith(Enclosed.class)
+public class FingerprintCacheTest {
+	public static class Fingerprinting_Statements {
+		private FingerprintCache cache;
+		
+		@Before
+		public void setup() throws Exception {
+			this.cache = new FingerprintCache(2);
+		}
+		
+		@Test
+		public void itReturnsInternedFingerprints() throws Exception {
+			final String a = cache.fingerprint("SELECT 1");
+			final String b = cache.fingerprint("select    2");
+			
+			assertThat(a, is("select ?"));
+			assertTrue(a == b);
+		}
+		
+		@Test
+		public void itCountsHitsAndMisses() throws Exception {
+			cache.fingerprint("SELECT 1");
+			cache.fingerprint("SELECT 1");
+			cache.fingerprint("SELECT 1");
+			cache.fingerprint("SELECT 2");
+			
+			assertThat(cache.getHitCount(), is(2L));
+			assertThat(cache.getMissCount(), is(2L));
+		}
+		
+		@Test
+		public void itPassesNullsThrough() throws Exception {
+			assertThat(cache.fingerprint(null), is(nullValue()));
+		}
+	}
+	
+	public static class A_Full_Cache {
+		private FingerprintCache cache;
+		
+		@Before
+		public void setup() throws Exception {
+			this.cache = new FingerprintCache(2);
+		}
+		
+		@Test
+		public void itEvictsTheLeastRecentlyUsedStatements() throws Exception {
+			cache.fingerprint("SELECT 1");
+			cache.fingerprint("SELECT 2");
+			cache.fingerprint("SELECT 2");
+			cache.fingerprint("SELECT 3");
+			
+			assertThat(cache.size(), is(2));
+			assertThat(cache.getEvictionCount(), is(1L));
+			
+			cache.fingerprint("SELECT 2");
+			assertThat(cache.getHitCount(), is(2L));
+			
+			cache.fingerprint("SELECT 1");
+			assertThat(cache.getMissCount(), is(4L));
+		}
+	}
+}
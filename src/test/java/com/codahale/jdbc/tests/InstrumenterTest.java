@@ -7,6 +7,10 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -14,11 +18,13 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
@@ -26,9 +32,16 @@ import org.junit.runner.RunWith;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.codahale.jdbc.BatchStatistics;
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.Category;
+import com.codahale.jdbc.JdbcStatistics;
 import com.codahale.jdbc.Stopwatch;
 import com.codahale.jdbc.Instrumented;
+import com.codahale.jdbc.InstrumentedBlob;
+import com.codahale.jdbc.InstrumentedReader;
 import com.codahale.jdbc.Instrumenter;
+import com.codahale.jdbc.QueryStatistics;
 
 @RunWith(Enclosed.class)
 public class InstrumenterTest {
@@ -116,6 +129,14 @@ public class InstrumenterTest {
 			
 			verify(connection).createBlob();
 		}
+		
+		@Test
+		public void itReusesProxyClassesForTheSameImplementation() throws Exception {
+			final Connection another = Instrumenter.instrument(Connection.class, connection);
+			
+			assertTrue(another.getClass() == instrumentedConnection.getClass());
+			assertTrue(instrumentedConnection.createStatement().getClass() == another.createStatement().getClass());
+		}
 	}
 	
 	public static class An_Instrumented_Array {
@@ -233,11 +254,214 @@ public class InstrumenterTest {
 		}
 	}
 	
+	public static class Recording_Query_Statistics {
+		private Statement statement;
+		private PreparedStatement preparedStatement;
+		private Connection connection, instrumentedConnection;
+		
+		@Before
+		public void setup() throws Exception {
+			QueryStatistics.getInstance().clear();
+			
+			this.statement = mock(Statement.class);
+			this.preparedStatement = mock(PreparedStatement.class);
+			this.connection = mock(Connection.class);
+			when(connection.createStatement()).thenReturn(statement);
+			when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+			
+			this.instrumentedConnection = Instrumenter.instrument(Connection.class, connection);
+		}
+		
+		@Test
+		public void itRecordsPreparedStatementExecutionsByTheirSQL() throws Exception {
+			final PreparedStatement statement = instrumentedConnection.prepareStatement("SELECT * FROM funk WHERE id = ?");
+			statement.executeQuery();
+			statement.executeQuery();
+			
+			assertThat(QueryStatistics.getInstance().snapshot().get("select * from funk where id = ?").getCount(), is(2L));
+		}
+		
+		@Test
+		public void itRecordsStatementExecutionsByTheirFingerprint() throws Exception {
+			instrumentedConnection.createStatement().executeUpdate("DELETE FROM funk WHERE id = 1");
+			instrumentedConnection.createStatement().executeUpdate("DELETE FROM funk WHERE id = 2");
+			
+			assertThat(QueryStatistics.getInstance().snapshot().get("delete from funk where id = ?").getCount(), is(2L));
+		}
+	}
+	
+	public static class Recording_Batch_Statistics {
+		private PreparedStatement preparedStatement;
+		private Connection connection, instrumentedConnection;
+		
+		@Before
+		public void setup() throws Exception {
+			BatchStatistics.getInstance().clear();
+			
+			this.preparedStatement = mock(PreparedStatement.class);
+			when(preparedStatement.executeBatch()).thenReturn(new int[] { 1, 1, Statement.SUCCESS_NO_INFO });
+			when(preparedStatement.executeUpdate()).thenReturn(1);
+			this.connection = mock(Connection.class);
+			when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+			
+			this.instrumentedConnection = Instrumenter.instrument(Connection.class, connection);
+		}
+		
+		@Test
+		public void itRecordsBatchSizesAndRowsAffected() throws Exception {
+			final PreparedStatement statement = instrumentedConnection.prepareStatement("INSERT INTO funk VALUES (?)");
+			statement.addBatch();
+			statement.addBatch();
+			statement.addBatch();
+			statement.executeBatch();
+			statement.addBatch();
+			statement.clearBatch();
+			statement.addBatch();
+			statement.executeBatch();
+			
+			final BatchStatistics.Snapshot snapshot = BatchStatistics.getInstance().snapshot().get("insert into funk values (?)");
+			assertThat(snapshot.getBatchCount(), is(2L));
+			assertThat(snapshot.getBatchedStatementCount(), is(4L));
+			assertThat(snapshot.getMaxBatchSize(), is(3L));
+			assertThat(snapshot.getRowsAffected(), is(4L));
+		}
+		
+		@Test
+		public void itFlagsRunsOfSingleRowUpdates() throws Exception {
+			final PreparedStatement statement = instrumentedConnection.prepareStatement("UPDATE funk SET x = ? WHERE id = ?");
+			for (int i = 0; i < 6; i++) {
+				statement.executeUpdate();
+			}
+			
+			final BatchStatistics.Snapshot snapshot = BatchStatistics.getInstance().snapshot().get("update funk set x = ? where id = ?");
+			assertThat(snapshot.getUpdateCount(), is(6L));
+			assertThat(snapshot.getRowsAffected(), is(6L));
+			assertThat(snapshot.getUnbatchedRunCount(), is(1L));
+			assertThat(snapshot.getUnbatchedUpdateCount(), is(6L));
+		}
+	}
+
+	public static class An_Instrumented_Blob {
+		private Blob blob;
+		private ResultSet resultSet, instrumentedResultSet;
+		
+		@Before
+		public void setup() throws Exception {
+			Stopwatch.getInstance().reset();
+			
+			this.blob = mock(Blob.class);
+			when(blob.getBytes(1, 10)).thenAnswer(new Answer<byte[]>() {
+				@Override
+				public byte[] answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(seconds(1));
+					return new byte[10];
+				}
+			});
+			when(blob.getBinaryStream()).thenReturn(new ByteArrayInputStream(new byte[100]));
+			this.resultSet = mock(ResultSet.class);
+			when(resultSet.getBlob(1)).thenReturn(blob);
+			when(resultSet.getCharacterStream(1)).thenReturn(new StringReader("0123456789"));
+			
+			this.instrumentedResultSet = Instrumenter.instrument(ResultSet.class, resultSet);
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+		
+		@Test
+		public void itReturnsInstrumentedBlobs() throws Exception {
+			assertThat(instrumentedResultSet.getBlob(1), is(instanceOf(InstrumentedBlob.class)));
+		}
+		
+		@Test
+		public void itTimesBlobReadsAsFetchTime() throws Exception {
+			instrumentedResultSet.getBlob(1).getBytes(1, 10);
+			
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.FETCH), is(roughly(1)));
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(10L));
+		}
+		
+		@Test
+		public void itCountsBytesReadFromStreams() throws Exception {
+			final InputStream stream = instrumentedResultSet.getBlob(1).getBinaryStream();
+			stream.read(new byte[64]);
+			assertThat(Stopwatch.getInstance().wasCalled(), is(true));
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(64L));
+			
+			while (stream.read() >= 0) {
+				// one byte at a time
+			}
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(64L));
+			
+			stream.close();
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(100L));
+		}
+		
+		@Test
+		public void itDoesNotTimeSingleByteReads() throws Exception {
+			final InputStream stream = instrumentedResultSet.getBlob(1).getBinaryStream();
+			stream.read();
+			stream.read();
+			
+			assertThat(Stopwatch.getInstance().wasCalled(), is(false));
+		}
+		
+		@Test
+		public void itCountsCharactersReadAsTwoBytes() throws Exception {
+			final Reader reader = instrumentedResultSet.getCharacterStream(1);
+			assertThat(reader, is(instanceOf(InstrumentedReader.class)));
+			reader.read(new char[4]);
+			
+			assertThat(Stopwatch.getInstance().getLobBytesRead(), is(8L));
+		}
+	}
+
+	public static class A_Failing_Statement {
+		private Statement statement, instrumentedStatement;
+		
+		@Before
+		public void setup() throws Exception {
+			JdbcStatistics.getInstance().snapshotAndReset();
+			
+			this.statement = mock(Statement.class);
+			when(statement.executeUpdate(anyString())).thenThrow(new SQLException("bad funk"));
+			
+			this.instrumentedStatement = Instrumenter.instrument(Statement.class, statement);
+		}
+		
+		@Test
+		public void itThrowsTheOriginalException() throws Exception {
+			try {
+				instrumentedStatement.executeUpdate("DELETE FROM funk");
+				fail("should have thrown a SQLException");
+			} catch (SQLException e) {
+				assertThat(e.getMessage(), is("bad funk"));
+			}
+		}
+		
+		@Test
+		public void itRecordsTheError() throws Exception {
+			try {
+				instrumentedStatement.executeUpdate("DELETE FROM funk");
+			} catch (SQLException e) {
+				// expected
+			}
+			
+			final JdbcStatistics.Snapshot snapshot = JdbcStatistics.getInstance().snapshot();
+			assertThat(snapshot.getCount(Category.UPDATE), is(1L));
+			assertThat(snapshot.getErrorCount(Category.UPDATE), is(1L));
+		}
+	}
+	
 	public static class An_Instrumented_ResultSet {
 		private ResultSet resultSet, instrumentedResultSet;
 		
 		@Before
 		public void setup() throws Exception {
+			Stopwatch.getInstance().reset();
+			
 			this.resultSet = mock(ResultSet.class);
 			when(resultSet.next()).thenAnswer(new Answer<Boolean>() {
 				@Override
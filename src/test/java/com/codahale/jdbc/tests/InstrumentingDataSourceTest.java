@@ -0,0 +1,133 @@
+package com.codahale.jdbc.tests;
+
+import static com.codahale.jdbc.tests.InstrumenterTest.instrumented;
+import static com.codahale.jdbc.tests.StopwatchTest.roughly;
+import static com.codahale.jdbc.tests.StopwatchTest.seconds;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.InstrumentedConnection;
+import com.codahale.jdbc.InstrumentingDataSource;
+import com.codahale.jdbc.Stopwatch;
+
+@RunWith(Enclosed.class)
+public class InstrumentingDataSourceTest {
+	public static class Borrowing_A_Connection {
+		private DataSource pool;
+		private InstrumentingDataSource dataSource;
+
+		@After
+		public void reset() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+
+		@Before
+		public void setup() throws Exception {
+			Stopwatch.getInstance().reset();
+
+			this.pool = mock(DataSource.class);
+			when(pool.getConnection()).thenAnswer(new Answer<Connection>() {
+				@Override
+				public Connection answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(seconds(1));
+					return mock(Connection.class);
+				}
+			});
+			this.dataSource = new InstrumentingDataSource(pool);
+		}
+
+		@Test
+		public void itReturnsAnInstrumentedConnection() throws Exception {
+			assertThat(dataSource.getConnection(), is(instrumented()));
+		}
+
+		@Test
+		public void itReturnsADelegatingConnectionIfAsked() throws Exception {
+			final Properties settings = new Properties();
+			settings.setProperty("perf.dispatch", "delegate");
+
+			assertThat(new InstrumentingDataSource(pool, settings).getConnection(), is(instanceOf(InstrumentedConnection.class)));
+		}
+
+		@Test
+		public void itTimesTheWaitAsConnectionTime() throws Exception {
+			dataSource.getConnection();
+
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.CONNECTION), is(roughly(1)));
+			assertThat(Stopwatch.getInstance().getElapsedTime(Bucket.EXECUTION), is(0L));
+			assertThat(dataSource.getBorrowLatency().getCount(), is(1L));
+			assertTrue(dataSource.getBorrowLatency().getMax() >= seconds(1) * 1000000L);
+		}
+
+		@Test
+		public void itDoesNotTimeQueriesAsWaiting() throws Exception {
+			dataSource.getConnection().commit();
+
+			assertThat(dataSource.getBorrowLatency().getCount(), is(1L));
+		}
+
+		@Test
+		public void itTracksBorrowedConnections() throws Exception {
+			final Connection first = dataSource.getConnection();
+			final Connection second = dataSource.getConnection();
+			assertThat(dataSource.getBorrowedCount(), is(2));
+
+			first.close();
+			first.close();
+			assertThat(dataSource.getBorrowedCount(), is(1));
+
+			second.close();
+			assertThat(dataSource.getBorrowedCount(), is(0));
+		}
+
+		@Test
+		public void itTracksBorrowedDelegatingConnections() throws Exception {
+			final Properties settings = new Properties();
+			settings.setProperty("perf.dispatch", "delegate");
+			final InstrumentingDataSource delegating = new InstrumentingDataSource(pool, settings);
+
+			final Connection connection = delegating.getConnection();
+			assertThat(delegating.getBorrowedCount(), is(1));
+
+			connection.close();
+			assertThat(delegating.getBorrowedCount(), is(0));
+		}
+
+		@Test
+		public void itDoesNotCountFailedBorrows() throws Exception {
+			doThrow(new SQLException("pool exhausted")).when(pool).getConnection();
+
+			try {
+				dataSource.getConnection();
+				fail("should have thrown an SQLException but didn't");
+			} catch (SQLException e) {
+				assertThat(e.getMessage(), is("pool exhausted"));
+			}
+
+			assertThat(dataSource.getBorrowedCount(), is(0));
+			assertThat(Stopwatch.getInstance().wasCalled(), is(true));
+		}
+
+		@Test
+		public void itUnwrapsToItselfOrTheUnderlyingDataSource() throws Exception {
+			assertThat(dataSource.unwrap(InstrumentingDataSource.class), is(sameInstance(dataSource)));
+			assertThat(dataSource.isWrapperFor(InstrumentingDataSource.class), is(true));
+		}
+	}
+}
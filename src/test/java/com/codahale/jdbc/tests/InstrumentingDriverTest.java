@@ -4,25 +4,37 @@ import static com.codahale.jdbc.tests.InstrumenterTest.instrumented;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 import static org.junit.matchers.JUnitMatchers.*;
+import static org.mockito.Mockito.*;
 
 import java.io.FileInputStream;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.logging.Logger;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.Category;
+import com.codahale.jdbc.ConnectionStatistics;
 import com.codahale.jdbc.Instrumented;
+import com.codahale.jdbc.InstrumentedConnection;
 import com.codahale.jdbc.InstrumentingDriver;
+import com.codahale.jdbc.JdbcStatistics;
+import com.codahale.jdbc.Stopwatch;
 import com.google.common.collect.Lists;
 
 @RunWith(Enclosed.class)
@@ -135,5 +147,221 @@ public class InstrumentingDriverTest {
 			assertThat(connection, is(instrumented()));
 			assertTrue((((Instrumented) connection).getOriginalClass()).equals(org.hsqldb.jdbc.jdbcConnection.class));
 		}
+		
+		@Test
+		public void itReturnsADelegatingConnectionIfAsked() throws Exception {
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			
+			final Connection connection = driver.connect("jdbc:perf-hsqldb;dispatch=delegate:mem:JDBCPerfWrapperTest", info);
+			assertThat(connection, is(instanceOf(InstrumentedConnection.class)));
+			assertTrue((((Instrumented) connection).getOriginalClass()).equals(org.hsqldb.jdbc.jdbcConnection.class));
+		}
+		
+		@Test
+		public void itTimesConnecting() throws Exception {
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			
+			Stopwatch.getInstance().reset();
+			driver.connect("jdbc:perf-hsqldb:mem:JDBCPerfWrapperTest", info);
+			
+			assertThat(Stopwatch.getInstance().wasCalled(), is(true));
+			assertThat(Stopwatch.getInstance().getElapsedNanos(Bucket.CONNECTION), is(Stopwatch.getInstance().getElapsedNanos()));
+			Stopwatch.getInstance().reset();
+		}
+	}
+	
+	public static class Sampling {
+		private InstrumentingDriver driver;
+		private Properties info;
+		
+		@Before
+		public void setup() throws Exception {
+			this.driver = new InstrumentingDriver();
+			Class.forName("org.hsqldb.jdbcDriver");
+			this.info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+		}
+		
+		@Test
+		public void itOnlyInstrumentsOneInNConnections() throws Exception {
+			int instrumented = 0;
+			for (int i = 0; i < 4; i++) {
+				if (driver.connect("jdbc:perf-hsqldb;sample.connections=2:mem:JDBCPerfWrapperTest", info) instanceof Instrumented) {
+					instrumented++;
+				}
+			}
+			
+			assertThat(instrumented, is(2));
+		}
+		
+		@Test
+		public void itExtrapolatesFromOneInNCalls() throws Exception {
+			final Connection connection = driver.connect("jdbc:perf-hsqldb;sample.calls=10:mem:JDBCPerfWrapperTest", info);
+			final Statement statement = connection.createStatement();
+			JdbcStatistics.getInstance().snapshotAndReset();
+			
+			for (int i = 0; i < 1000; i++) {
+				statement.executeQuery("CALL 1").close();
+			}
+			
+			final JdbcStatistics.Snapshot snapshot = JdbcStatistics.getInstance().snapshotAndReset();
+			assertThat(snapshot.isSampled(), is(true));
+			assertTrue(snapshot.getCount(Category.QUERY) % 10 == 0);
+			assertTrue(snapshot.getCount(Category.QUERY) > 600);
+			assertTrue(snapshot.getCount(Category.QUERY) < 1400);
+			assertThat(Stopwatch.getInstance().isSampled(), is(true));
+			Stopwatch.getInstance().reset();
+		}
+	}
+	
+	public static class Resolving_The_Underlying_Driver {
+		public static class FakeDriver implements Driver {
+			private final String name;
+			private volatile boolean failing, declining;
+			private int connections, accepts;
+			
+			public FakeDriver(String name) {
+				this.name = name;
+			}
+			
+			@Override
+			public boolean acceptsURL(String url) throws SQLException {
+				accepts++;
+				return url.startsWith("jdbc:fake:");
+			}
+			
+			@Override
+			public Connection connect(String url, Properties info) throws SQLException {
+				if (failing) {
+					throw new SQLException(name + " is down");
+				}
+				if (declining) {
+					return null;
+				}
+				connections++;
+				return mock(Connection.class);
+			}
+			
+			@Override
+			public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+				return new DriverPropertyInfo[] { new DriverPropertyInfo("url", url) };
+			}
+			
+			@Override
+			public int getMajorVersion() {
+				return 1;
+			}
+			
+			@Override
+			public int getMinorVersion() {
+				return 0;
+			}
+			
+			@Override
+			public boolean jdbcCompliant() {
+				return false;
+			}
+			
+			@Override
+			public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+				throw new SQLFeatureNotSupportedException();
+			}
+		}
+		
+		private final FakeDriver first = new FakeDriver("first"), second = new FakeDriver("second");
+		private InstrumentingDriver driver;
+		
+		@Before
+		public void setup() throws Exception {
+			this.driver = new InstrumentingDriver();
+			DriverManager.registerDriver(first);
+			ConnectionStatistics.getInstance().clear();
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			DriverManager.deregisterDriver(first);
+			DriverManager.deregisterDriver(second);
+			ConnectionStatistics.getInstance().clear();
+		}
+		
+		@Test
+		public void itRewritesTheURLForTheUnderlyingDriver() throws Exception {
+			final DriverPropertyInfo[] properties = driver.getPropertyInfo("jdbc:perf-fake;dispatch=delegate://example.com/db?user=sa", new Properties());
+			
+			assertThat(properties[0].value, is("jdbc:fake://example.com/db?user=sa"));
+		}
+		
+		@Test
+		public void itReusesTheResolvedDriver() throws Exception {
+			driver.connect("jdbc:perf-fake://example.com/db", new Properties());
+			driver.connect("jdbc:perf-fake://example.com/db", new Properties());
+			
+			assertThat(first.connections, is(2));
+			assertThat(first.accepts, is(1));
+		}
+		
+		@Test
+		public void itResolvesTheDriverAgainOnceItDeclinesTheURL() throws Exception {
+			driver.connect("jdbc:perf-fake://example.com/db", new Properties());
+			first.declining = true;
+			assertThat(driver.connect("jdbc:perf-fake://example.com/db", new Properties()), is(nullValue()));
+			DriverManager.deregisterDriver(first);
+			DriverManager.registerDriver(second);
+			driver.connect("jdbc:perf-fake://example.com/db", new Properties());
+			
+			assertThat(first.connections, is(1));
+			assertThat(second.connections, is(1));
+		}
+		
+		@Test
+		public void itOnlyDropsTheOldestDriverOnceFull() throws Exception {
+			for (int i = 0; i <= 1000; i++) {
+				driver.getPropertyInfo("jdbc:perf-fake://example.com/db" + i, new Properties());
+			}
+			final int accepts = first.accepts;
+			driver.getPropertyInfo("jdbc:perf-fake://example.com/db500", new Properties());
+			
+			assertThat(first.accepts, is(accepts));
+		}
+		
+		@Test
+		public void itResolvesTheDriverAgainAfterAFailure() throws Exception {
+			driver.connect("jdbc:perf-fake://example.com/db", new Properties());
+			first.failing = true;
+			
+			try {
+				driver.connect("jdbc:perf-fake://example.com/db", new Properties());
+				fail("should have thrown an SQLException but didn't");
+			} catch (SQLException e) {
+				assertThat(e.getMessage(), is("first is down"));
+			}
+			first.failing = false;
+			driver.connect("jdbc:perf-fake://example.com/db", new Properties());
+			
+			assertThat(first.connections, is(2));
+			assertThat(first.accepts, is(2));
+		}
+		
+		@Test
+		public void itRecordsConnectsAndFailuresByDatabase() throws Exception {
+			driver.connect("jdbc:perf-fake://example.com/db?password=secret", new Properties());
+			first.failing = true;
+			try {
+				driver.connect("jdbc:perf-fake://example.com/db?password=secret", new Properties());
+			} catch (SQLException e) {
+				// expected
+			}
+			
+			final ConnectionStatistics.Snapshot snapshot = ConnectionStatistics.getInstance().snapshot().get("jdbc:fake://example.com/db");
+			assertThat(snapshot.getCount(), is(2L));
+			assertThat(snapshot.getFailureCount(), is(1L));
+			assertThat(snapshot.getFailureRate(), is(0.5));
+		}
 	}
 }
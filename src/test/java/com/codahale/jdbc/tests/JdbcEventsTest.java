@@ -0,0 +1,162 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.InstrumentingDriver;
+
+@RunWith(Enclosed.class)
+public class JdbcEventsTest {
+	abstract static class Recording_JDBC_Calls {
+		private Recording recording;
+		private File file;
+		
+		protected abstract String getUrl();
+		
+		@Before
+		public void setup() throws Exception {
+			Class.forName("org.hsqldb.jdbcDriver");
+			this.file = File.createTempFile("jdbc-events", ".jfr");
+			this.recording = new Recording();
+			recording.enable("com.codahale.jdbc.JdbcExecute").withThreshold(Duration.ZERO).withStackTrace();
+			recording.enable("com.codahale.jdbc.JdbcFetch").withThreshold(Duration.ZERO);
+			recording.enable("com.codahale.jdbc.JdbcConnect").withThreshold(Duration.ZERO);
+			recording.enable("com.codahale.jdbc.JdbcCommit").withThreshold(Duration.ZERO);
+			recording.start();
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			recording.close();
+			file.delete();
+		}
+		
+		private List<RecordedEvent> stop(String name) throws Exception {
+			recording.stop();
+			recording.dump(file.toPath());
+			final List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+			for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+				if (event.getEventType().getName().equals(name)) {
+					events.add(event);
+				}
+			}
+			return events;
+		}
+		
+		private Connection connect() throws Exception {
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			final Connection connection = new InstrumentingDriver().connect(getUrl(), info);
+			final Statement statement = connection.createStatement();
+			statement.execute("DROP TABLE events IF EXISTS");
+			statement.execute("CREATE TABLE events (id INTEGER)");
+			statement.close();
+			return connection;
+		}
+		
+		@Test
+		public void itRecordsConnects() throws Exception {
+			connect().close();
+			
+			final List<RecordedEvent> events = stop("com.codahale.jdbc.JdbcConnect");
+			assertThat(events.size(), is(1));
+			assertThat(events.get(0).getString("database"), is("jdbc:hsqldb:mem:JdbcEventsTest"));
+			assertThat(events.get(0).getLong("connection") > 0, is(true));
+			assertThat(events.get(0).getBoolean("succeeded"), is(true));
+		}
+		
+		@Test
+		public void itRecordsExecutionsWithTheirFingerprintRowsAndConnection() throws Exception {
+			final Connection connection = connect();
+			final Statement statement = connection.createStatement();
+			statement.executeUpdate("INSERT INTO events VALUES (1)");
+			statement.close();
+			connection.close();
+			
+			RecordedEvent insert = null;
+			for (RecordedEvent event : stop("com.codahale.jdbc.JdbcExecute")) {
+				if ("update".equals(event.getString("kind"))) {
+					insert = event;
+				}
+			}
+			assertThat(insert, is(notNullValue()));
+			assertThat(insert.getString("fingerprint"), is("insert into events values (?)"));
+			assertThat(insert.getLong("rows"), is(1L));
+			assertThat(insert.getLong("connection") > 0, is(true));
+			assertThat(insert.getStackTrace(), is(notNullValue()));
+		}
+		
+		@Test
+		public void itRecordsFetches() throws Exception {
+			final Connection connection = connect();
+			final Statement statement = connection.createStatement();
+			statement.executeUpdate("INSERT INTO events VALUES (1)");
+			final ResultSet results = statement.executeQuery("SELECT id FROM events");
+			while (results.next()) {
+				results.getInt(1);
+			}
+			results.close();
+			connection.close();
+			
+			long rows = 0;
+			for (RecordedEvent event : stop("com.codahale.jdbc.JdbcFetch")) {
+				assertThat(event.getString("fingerprint"), is("select id from events"));
+				rows += event.getLong("rows");
+			}
+			assertThat(rows, is(1L));
+		}
+		
+		@Test
+		public void itRecordsCommits() throws Exception {
+			final Connection connection = connect();
+			connection.setAutoCommit(false);
+			connection.createStatement().executeUpdate("INSERT INTO events VALUES (1)");
+			connection.commit();
+			connection.close();
+			
+			// setAutoCommit and commit
+			assertThat(stop("com.codahale.jdbc.JdbcCommit").size(), is(2));
+		}
+	}
+	
+	public static class Recording_Proxied_Calls extends Recording_JDBC_Calls {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb:mem:JdbcEventsTest";
+		}
+	}
+	
+	public static class Recording_Delegated_Calls extends Recording_JDBC_Calls {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;dispatch=delegate:mem:JdbcEventsTest";
+		}
+	}
+	
+	public static class Recording_Whole_Result_Sets extends Recording_JDBC_Calls {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;fetch.timing=resultset:mem:JdbcEventsTest";
+		}
+	}
+}
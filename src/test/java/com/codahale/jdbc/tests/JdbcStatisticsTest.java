@@ -0,0 +1,118 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.Category;
+import com.codahale.jdbc.JdbcStatistics;
+
+@RunWith(Enclosed.class)
+public class JdbcStatisticsTest {
+	public static class Recording_Calls {
+		private final JdbcStatistics statistics = JdbcStatistics.getInstance();
+		
+		@Before
+		public void setup() throws Exception {
+			statistics.snapshotAndReset();
+		}
+		
+		@Test
+		public void itRecordsCallsByCategory() throws Exception {
+			statistics.record(Category.QUERY, 100, true);
+			statistics.record(Category.QUERY, 300, false);
+			statistics.record(Category.FETCH, 10, true);
+			
+			final JdbcStatistics.Snapshot snapshot = statistics.snapshot();
+			assertThat(snapshot.getCount(Category.QUERY), is(2L));
+			assertThat(snapshot.getTotalNanos(Category.QUERY), is(400L));
+			assertThat(snapshot.getErrorCount(Category.QUERY), is(1L));
+			assertThat(snapshot.getMaxNanos(Category.QUERY), is(300L));
+			assertThat(snapshot.getCount(Category.FETCH), is(1L));
+			assertThat(snapshot.getCount(Category.UPDATE), is(0L));
+		}
+		
+		@Test
+		public void itExtrapolatesSampledCalls() throws Exception {
+			statistics.record(Category.QUERY, 100, true);
+			assertThat(statistics.snapshot().isSampled(), is(false));
+			
+			statistics.record(Category.QUERY, 200, false, 10);
+			
+			final JdbcStatistics.Snapshot snapshot = statistics.snapshotAndReset();
+			assertThat(snapshot.getCount(Category.QUERY), is(11L));
+			assertThat(snapshot.getTotalNanos(Category.QUERY), is(2100L));
+			assertThat(snapshot.getErrorCount(Category.QUERY), is(10L));
+			assertThat(snapshot.getMaxNanos(Category.QUERY), is(200L));
+			assertThat(snapshot.isSampled(), is(true));
+			assertThat(statistics.snapshot().isSampled(), is(false));
+		}
+	}
+	
+	public static class Resetting_The_Statistics {
+		private final JdbcStatistics statistics = JdbcStatistics.getInstance();
+		
+		@Before
+		public void setup() throws Exception {
+			statistics.snapshotAndReset();
+		}
+		
+		@Test
+		public void itResetsAfterASnapshotIfAsked() throws Exception {
+			statistics.record(Category.UPDATE, 100, true);
+			
+			assertThat(statistics.snapshotAndReset().getCount(Category.UPDATE), is(1L));
+			assertThat(statistics.snapshot().getCount(Category.UPDATE), is(0L));
+			assertThat(statistics.snapshot().getMaxNanos(Category.UPDATE), is(0L));
+		}
+		
+		@Test
+		public void itLosesNothingAcrossConcurrentResets() throws Exception {
+			final ExecutorService executor = Executors.newFixedThreadPool(8);
+			final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int i = 0; i < 8; i++) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < 10000; j++) {
+							statistics.record(Category.BATCH, 2, true);
+						}
+						return null;
+					}
+				});
+			}
+			
+			final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (Callable<Void> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			
+			long count = 0, nanos = 0;
+			for (Future<Void> future : futures) {
+				final JdbcStatistics.Snapshot snapshot = statistics.snapshotAndReset();
+				count += snapshot.getCount(Category.BATCH);
+				nanos += snapshot.getTotalNanos(Category.BATCH);
+				future.get();
+			}
+			executor.shutdown();
+			
+			final JdbcStatistics.Snapshot last = statistics.snapshotAndReset();
+			count += last.getCount(Category.BATCH);
+			nanos += last.getTotalNanos(Category.BATCH);
+			
+			assertThat(count, is(80000L));
+			assertThat(nanos, is(160000L));
+		}
+	}
+}
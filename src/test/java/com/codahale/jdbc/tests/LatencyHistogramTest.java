@@ -0,0 +1,106 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.LatencyHistogram;
+
+@RunWith(Enclosed.class)
+public class LatencyHistogramTest {
+	public static void assertRoughly(long expected, long actual) {
+		assertTrue("expected ~" + expected + " but was " + actual, Math.abs(expected - actual) <= expected * 0.035);
+	}
+	
+	public static class An_Empty_Histogram {
+		private LatencyHistogram.Snapshot snapshot;
+		
+		@Before
+		public void setup() throws Exception {
+			this.snapshot = new LatencyHistogram().snapshot();
+		}
+		
+		@Test
+		public void itHasNoValues() throws Exception {
+			assertThat(snapshot.getCount(), is(0L));
+			assertThat(snapshot.getTotal(), is(0L));
+			assertThat(snapshot.getMax(), is(0L));
+			assertThat(snapshot.get99thPercentile(), is(0L));
+		}
+	}
+	
+	public static class A_Histogram_Of_A_Thousand_Latencies {
+		private LatencyHistogram.Snapshot snapshot;
+		
+		@Before
+		public void setup() throws Exception {
+			final LatencyHistogram histogram = new LatencyHistogram();
+			for (int i = 1; i <= 1000; i++) {
+				histogram.record(i * 1000000L);
+			}
+			this.snapshot = histogram.snapshot();
+		}
+		
+		@Test
+		public void itCountsThem() throws Exception {
+			assertThat(snapshot.getCount(), is(1000L));
+		}
+		
+		@Test
+		public void itTotalsThem() throws Exception {
+			assertThat(snapshot.getTotal(), is(500500000000L));
+		}
+		
+		@Test
+		public void itKnowsTheExactMax() throws Exception {
+			assertThat(snapshot.getMax(), is(1000000000L));
+		}
+		
+		@Test
+		public void itCalculatesPercentilesWithinThreePercent() throws Exception {
+			assertRoughly(500000000L, snapshot.get50thPercentile());
+			assertRoughly(990000000L, snapshot.get99thPercentile());
+			assertRoughly(999000000L, snapshot.get999thPercentile());
+		}
+	}
+	
+	public static class A_Histogram_Of_Sampled_Latencies {
+		@Test
+		public void itExtrapolatesCountsAndTotals() throws Exception {
+			final LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(2000000, 10);
+			histogram.record(4000000, 10);
+			
+			final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+			assertThat(snapshot.getCount(), is(20L));
+			assertThat(snapshot.getTotal(), is(60000000L));
+			assertThat(snapshot.getMax(), is(4000000L));
+			assertRoughly(2000000L, snapshot.get50thPercentile());
+			assertThat(snapshot.isSampled(), is(true));
+		}
+		
+		@Test
+		public void itIsNotSampledIfEveryValueIsRecorded() throws Exception {
+			final LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(2000000);
+			
+			assertThat(histogram.snapshot().isSampled(), is(false));
+		}
+	}
+	
+	public static class A_Histogram_Of_Huge_Latencies {
+		@Test
+		public void itClampsThemToTheHighestBucket() throws Exception {
+			final LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(Long.MAX_VALUE / 2);
+			
+			final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+			assertThat(snapshot.getMax(), is(Long.MAX_VALUE / 2));
+			assertTrue(snapshot.get50thPercentile() > 0);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.InstrumentingDriver;
+import com.codahale.jdbc.PayloadStatistics;
+
+@RunWith(Enclosed.class)
+public class PayloadStatisticsTest {
+	abstract static class Measuring_Result_Sets {
+		private Connection connection;
+		
+		protected abstract String getUrl();
+		
+		@Before
+		public void setup() throws Exception {
+			Class.forName("org.hsqldb.jdbcDriver");
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			this.connection = new InstrumentingDriver().connect(getUrl(), info);
+			
+			final Statement statement = connection.createStatement();
+			statement.execute("DROP TABLE payloads IF EXISTS");
+			statement.execute("CREATE TABLE payloads (id INTEGER, body VARCHAR(100))");
+			statement.execute("INSERT INTO payloads VALUES (1, 'short')");
+			statement.execute("INSERT INTO payloads VALUES (2, 'a much longer body')");
+			statement.close();
+			PayloadStatistics.getInstance().clear();
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			connection.close();
+		}
+		
+		@Test
+		public void itMeasuresTheColumnsRead() throws Exception {
+			final Statement statement = connection.createStatement();
+			final ResultSet results = statement.executeQuery("SELECT id, body FROM payloads ORDER BY id");
+			while (results.next()) {
+				results.getInt(1);
+				results.getString("body");
+			}
+			results.close();
+			
+			final PayloadStatistics.Snapshot snapshot = PayloadStatistics.getInstance().snapshot().get("select id, body from payloads order by id");
+			assertThat(snapshot.getResultSetCount(), is(1L));
+			assertThat(snapshot.getRowCount(), is(2L));
+			assertThat(snapshot.getColumnReadCount(), is(4L));
+			assertThat(snapshot.getBytes(), is(4L + 10 + 4 + 36));
+			assertThat(snapshot.getWidestRowBytes(), is(40L));
+			assertThat(snapshot.getMeanRowBytes(), is(27.0));
+		}
+		
+		@Test
+		public void itPublishesOnClosingEarly() throws Exception {
+			final ResultSet results = connection.createStatement().executeQuery("SELECT body FROM payloads ORDER BY id");
+			results.next();
+			results.getObject(1);
+			results.close();
+			
+			final PayloadStatistics.Snapshot snapshot = PayloadStatistics.getInstance().snapshot().get("select body from payloads order by id");
+			assertThat(snapshot.getRowCount(), is(1L));
+			assertThat(snapshot.getBytes(), is(10L));
+		}
+	}
+	
+	public static class Measuring_Proxied_Result_Sets extends Measuring_Result_Sets {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;payload=true:mem:PayloadStatisticsTest";
+		}
+	}
+	
+	public static class Measuring_Delegating_Result_Sets extends Measuring_Result_Sets {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;payload=true;dispatch=delegate:mem:PayloadStatisticsTest";
+		}
+	}
+	
+	public static class Not_Measuring_By_Default {
+		@Test
+		public void itRecordsNothingUnlessAsked() throws Exception {
+			Class.forName("org.hsqldb.jdbcDriver");
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			final Connection connection = new InstrumentingDriver().connect("jdbc:perf-hsqldb:mem:PayloadStatisticsTest", info);
+			PayloadStatistics.getInstance().clear();
+			
+			final ResultSet results = connection.createStatement().executeQuery("CALL 1");
+			results.next();
+			results.getInt(1);
+			results.close();
+			connection.close();
+			
+			assertThat(PayloadStatistics.getInstance().snapshot().isEmpty(), is(true));
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.Category;
+import com.codahale.jdbc.JdbcStatistics;
+import com.codahale.jdbc.PrometheusExporter;
+import com.codahale.jdbc.QueryStatistics;
+
+@RunWith(Enclosed.class)
+public class PrometheusExporterTest {
+	abstract static class Running_An_Exporter {
+		final PrometheusExporter exporter = new PrometheusExporter(0);
+		
+		@Before
+		public void setup() throws Exception {
+			JdbcStatistics.getInstance().snapshotAndReset();
+			QueryStatistics.getInstance().clear();
+			exporter.start();
+		}
+		
+		@After
+		public void teardown() throws Exception {
+			exporter.stop();
+		}
+		
+		HttpURLConnection open(String path) throws Exception {
+			return (HttpURLConnection) new URL("http://localhost:" + exporter.getPort() + path).openConnection();
+		}
+		
+		String scrape() throws Exception {
+			final HttpURLConnection connection = open("/metrics");
+			assertThat(connection.getResponseCode(), is(200));
+			assertThat(connection.getContentType(), is(PrometheusExporter.CONTENT_TYPE));
+			
+			final InputStream input = connection.getInputStream();
+			try {
+				final ByteArrayOutputStream output = new ByteArrayOutputStream();
+				final byte[] buffer = new byte[4096];
+				int n;
+				while ((n = input.read(buffer)) != -1) {
+					output.write(buffer, 0, n);
+				}
+				return output.toString("UTF-8");
+			} finally {
+				input.close();
+			}
+		}
+	}
+	
+	public static class Serving_Metrics extends Running_An_Exporter {
+		@Test
+		public void itExportsCallsByCategory() throws Exception {
+			JdbcStatistics.getInstance().record(Category.QUERY, 1500000000L, true);
+			JdbcStatistics.getInstance().record(Category.QUERY, 250000000L, false);
+			
+			final String metrics = scrape();
+			assertThat(metrics, containsString("# TYPE jdbc_calls_total counter\n"));
+			assertThat(metrics, containsString("jdbc_calls_total{category=\"query\"} 2\n"));
+			assertThat(metrics, containsString("jdbc_calls_total{category=\"update\"} 0\n"));
+			assertThat(metrics, containsString("jdbc_call_errors_total{category=\"query\"} 1\n"));
+			assertThat(metrics, containsString("jdbc_call_seconds_total{category=\"query\"} 1.75\n"));
+			assertThat(metrics, containsString("jdbc_call_max_seconds{category=\"query\"} 1.5\n"));
+		}
+		
+		@Test
+		public void itExportsQueryHistograms() throws Exception {
+			QueryStatistics.getInstance().record("SELECT ? FROM t", 2000000L);
+			QueryStatistics.getInstance().record("SELECT ? FROM t", 20000000000L);
+			
+			final String metrics = scrape();
+			assertThat(metrics, containsString("# TYPE jdbc_query_seconds histogram\n"));
+			assertThat(metrics, containsString("jdbc_query_seconds_bucket{query=\"SELECT ? FROM t\",le=\"0.001\"} 0\n"));
+			assertThat(metrics, containsString("jdbc_query_seconds_bucket{query=\"SELECT ? FROM t\",le=\"0.0025\"} 1\n"));
+			assertThat(metrics, containsString("jdbc_query_seconds_bucket{query=\"SELECT ? FROM t\",le=\"10\"} 1\n"));
+			assertThat(metrics, containsString("jdbc_query_seconds_bucket{query=\"SELECT ? FROM t\",le=\"+Inf\"} 2\n"));
+			assertThat(metrics, containsString("jdbc_query_seconds_sum{query=\"SELECT ? FROM t\"} 20.002\n"));
+			assertThat(metrics, containsString("jdbc_query_seconds_count{query=\"SELECT ? FROM t\"} 2\n"));
+		}
+		
+		@Test
+		public void itEscapesLabelValues() throws Exception {
+			QueryStatistics.getInstance().record("SELECT \"a\\b\"\nFROM café", 1000L);
+			
+			assertThat(scrape(), containsString("jdbc_query_seconds_count{query=\"SELECT \\\"a\\\\b\\\"\\nFROM café\"} 1\n"));
+		}
+		
+		@Test
+		public void itReusesItsBufferAcrossScrapes() throws Exception {
+			for (int i = 0; i < 200; i++) {
+				QueryStatistics.getInstance().record("SELECT " + i, 1000L);
+			}
+			final String first = scrape();
+			
+			QueryStatistics.getInstance().clear();
+			final String second = scrape();
+			
+			assertThat(first.length() > second.length(), is(true));
+			assertThat(second, not(containsString("SELECT ")));
+			assertThat(second.endsWith("# TYPE jdbc_query_seconds histogram\n"), is(true));
+		}
+		
+		@Test
+		public void itOnlyServesMetrics() throws Exception {
+			assertThat(open("/other").getResponseCode(), is(404));
+		}
+	}
+	
+	public static class Running_In_The_Background extends Running_An_Exporter {
+		@Test
+		public void itOnlyRunsDaemonThreads() throws Exception {
+			assertThat(Thread.currentThread().isDaemon(), is(false));
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (thread.getName().startsWith("HTTP-Dispatcher") || thread.getName().startsWith("jdbc-prometheus")) {
+					assertThat(thread.getName(), thread.isDaemon(), is(true));
+				}
+			}
+		}
+		
+		@Test
+		public void itStopsServing() throws Exception {
+			exporter.stop();
+			
+			assertThat(exporter.getPort(), is(-1));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.codahale.jdbc.tests;
+
+import static com.codahale.jdbc.tests.StopwatchTest.roughly;
+import static com.codahale.jdbc.tests.StopwatchTest.seconds;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.Instrumenter;
+import com.codahale.jdbc.RequestContext;
+import com.codahale.jdbc.Stopwatch;
+
+@RunWith(Enclosed.class)
+public class RequestContextTest {
+	public static class Binding_A_Context {
+		private final RequestContext context = RequestContext.create();
+
+		@Test
+		public void itHasNoContextByDefault() throws Exception {
+			assertThat(RequestContext.current(), is(nullValue()));
+		}
+
+		@Test
+		public void itIsTheCurrentContextWhileRunning() throws Exception {
+			final RequestContext current = context.call(new Callable<RequestContext>() {
+				@Override
+				public RequestContext call() throws Exception {
+					return RequestContext.current();
+				}
+			});
+
+			assertThat(current, is(sameInstance(context)));
+			assertThat(RequestContext.current(), is(nullValue()));
+		}
+
+		@Test
+		public void itRestoresTheOuterContextWhenNested() throws Exception {
+			final RequestContext inner = RequestContext.create();
+			final RequestContext outer = context.call(new Callable<RequestContext>() {
+				@Override
+				public RequestContext call() throws Exception {
+					inner.run(new Runnable() {
+						@Override
+						public void run() {
+							assertThat(RequestContext.current(), is(sameInstance(inner)));
+						}
+					});
+					return RequestContext.current();
+				}
+			});
+
+			assertThat(outer, is(sameInstance(context)));
+		}
+
+		@Test
+		public void itPassesExceptionsThrough() throws Exception {
+			final Exception failure = new Exception("oh noes");
+			try {
+				context.call(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						throw failure;
+					}
+				});
+				fail("should have thrown an exception but didn't");
+			} catch (Exception e) {
+				assertThat(e, is(sameInstance(failure)));
+			}
+		}
+	}
+
+	public static class Recording_Into_A_Context {
+		private final RequestContext context = RequestContext.create();
+		private PreparedStatement statement;
+		private ResultSet resultSet;
+
+		@Before
+		@After
+		public void reset() throws Exception {
+			Stopwatch.getInstance().reset();
+		}
+
+		@Before
+		public void setup() throws Exception {
+			this.resultSet = mock(ResultSet.class);
+			when(resultSet.next()).thenReturn(true);
+
+			final PreparedStatement raw = mock(PreparedStatement.class);
+			when(raw.executeQuery()).thenAnswer(new Answer<ResultSet>() {
+				@Override
+				public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+					Thread.sleep(seconds(1));
+					return resultSet;
+				}
+			});
+			this.statement = Instrumenter.instrument(PreparedStatement.class, raw);
+
+			// warm up the proxy classes so their creation isn't timed
+			statement.executeQuery().next();
+			Stopwatch.getInstance().reset();
+		}
+
+		private final Callable<Void> query = new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				statement.executeQuery().next();
+				return null;
+			}
+		};
+
+		@Test
+		public void itRecordsCallsIntoTheContextInsteadOfTheStopwatch() throws Exception {
+			context.call(query);
+
+			assertThat(context.getElapsedTime(), is(roughly(1)));
+			assertThat(context.getElapsedTime(Bucket.EXECUTION), is(roughly(1)));
+			assertThat(context.getRowsFetched(), is(1L));
+			assertThat(context.getCallCount(), is(2L));
+			assertThat(Stopwatch.getInstance().wasCalled(), is(false));
+			assertThat(Stopwatch.getInstance().getElapsedNanos(), is(0L));
+		}
+
+		@Test
+		public void itFollowsTheRequestOntoOtherThreads() throws Exception {
+			final ExecutorService executor = Executors.newFixedThreadPool(2);
+			try {
+				context.call(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						executor.submit(RequestContext.current().wrap(query)).get();
+						executor.submit(RequestContext.current().wrap(query)).get();
+						return null;
+					}
+				});
+			} finally {
+				executor.shutdown();
+			}
+
+			assertThat(context.getElapsedTime(), is(roughly(2)));
+			assertThat(context.getRowsFetched(), is(2L));
+		}
+	}
+}
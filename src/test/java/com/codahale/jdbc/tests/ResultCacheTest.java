@@ -0,0 +1,254 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.InstrumentingDriver;
+import com.codahale.jdbc.Stopwatch;
+
+@RunWith(Enclosed.class)
+public class ResultCacheTest {
+	abstract static class Caching_Query_Results {
+		private Connection connection;
+
+		protected abstract String getUrl();
+
+		private Properties info() {
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			info.setProperty("perf.resultcache.queries", "SELECT name FROM countries WHERE code = ? | SELECT name FROM countries WHERE code = 'NZ' | SELECT name FROM countries ORDER BY code DESC");
+			info.setProperty("perf.resultcache.tables", "countries");
+			return info;
+		}
+
+		@Before
+		public void setup() throws Exception {
+			Class.forName("org.hsqldb.jdbcDriver");
+			this.connection = new InstrumentingDriver().connect(getUrl(), info());
+
+			final Statement statement = connection.createStatement();
+			statement.execute("DROP TABLE countries IF EXISTS");
+			statement.execute("DROP TABLE cities IF EXISTS");
+			statement.execute("CREATE TABLE countries (code VARCHAR(2), name VARCHAR(100))");
+			statement.execute("CREATE TABLE cities (name VARCHAR(100))");
+			statement.execute("INSERT INTO countries VALUES ('NZ', 'New Zealand')");
+			statement.execute("INSERT INTO countries VALUES ('FR', 'France')");
+			statement.close();
+
+			Stopwatch.getInstance().reset();
+		}
+
+		@After
+		public void teardown() throws Exception {
+			connection.close();
+			Stopwatch.getInstance().reset();
+		}
+
+		private List<String> names(String code) throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT name FROM countries WHERE code = ?");
+			statement.setString(1, code);
+			final List<String> names = names(statement.executeQuery());
+			statement.close();
+			return names;
+		}
+
+		private List<String> names(ResultSet results) throws Exception {
+			final List<String> names = new ArrayList<String>();
+			while (results.next()) {
+				names.add(results.getString(1));
+			}
+			results.close();
+			return names;
+		}
+
+		private void execute(String sql) throws Exception {
+			final Statement statement = connection.createStatement();
+			statement.executeUpdate(sql);
+			statement.close();
+		}
+
+		@Test
+		public void itServesRepeatedQueriesFromTheCache() throws Exception {
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(2L));
+		}
+
+		@Test
+		public void itKeysResultsByParameters() throws Exception {
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+			assertThat(names("FR").toString(), is("[France]"));
+
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(0L));
+		}
+
+		@Test
+		public void itCachesQueriesWithoutParameters() throws Exception {
+			final Statement statement = connection.createStatement();
+			assertThat(names(statement.executeQuery("SELECT name FROM countries WHERE code = 'NZ'")).toString(), is("[New Zealand]"));
+			assertThat(names(statement.executeQuery("SELECT name FROM countries WHERE code = 'NZ'")).toString(), is("[New Zealand]"));
+			statement.close();
+
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(1L));
+		}
+
+		@Test
+		public void itLeavesOtherQueriesAlone() throws Exception {
+			final Statement statement = connection.createStatement();
+			assertThat(names(statement.executeQuery("SELECT name FROM countries ORDER BY code")).toString(), is("[France, New Zealand]"));
+			assertThat(names(statement.executeQuery("SELECT name FROM countries ORDER BY code")).toString(), is("[France, New Zealand]"));
+			statement.close();
+
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(0L));
+		}
+
+		@Test
+		public void itInvalidatesResultsWhenTheirTablesAreWritten() throws Exception {
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+			execute("UPDATE countries SET name = 'Aotearoa' WHERE code = 'NZ'");
+
+			assertThat(names("NZ").toString(), is("[Aotearoa]"));
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(0L));
+		}
+
+		@Test
+		public void itDoesNotShareResultsBetweenDatabases() throws Exception {
+			final Connection other = new InstrumentingDriver().connect(getUrl().replace("ResultCacheTest", "ResultCacheOtherTest"), info());
+			final Statement statement = other.createStatement();
+			statement.execute("DROP TABLE countries IF EXISTS");
+			statement.execute("CREATE TABLE countries (code VARCHAR(2), name VARCHAR(100))");
+			statement.execute("INSERT INTO countries VALUES ('NZ', 'Aotearoa')");
+			statement.close();
+
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+			final PreparedStatement query = other.prepareStatement("SELECT name FROM countries WHERE code = ?");
+			query.setString(1, "NZ");
+			assertThat(names(query.executeQuery()).toString(), is("[Aotearoa]"));
+			query.close();
+			other.close();
+
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(0L));
+		}
+
+		@Test
+		public void itPassesResultsTooLargeToCacheThrough() throws Exception {
+			execute("INSERT INTO countries VALUES ('AU', 'Australia')");
+			final Properties info = info();
+			info.setProperty("perf.resultcache.bytes", "40");
+			final Connection small = new InstrumentingDriver().connect(getUrl(), info);
+			final Statement statement = small.createStatement();
+			assertThat(names(statement.executeQuery("SELECT name FROM countries ORDER BY code DESC")).toString(), is("[New Zealand, France, Australia]"));
+			assertThat(names(statement.executeQuery("SELECT name FROM countries ORDER BY code DESC")).toString(), is("[New Zealand, France, Australia]"));
+			statement.close();
+			small.close();
+
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(0L));
+		}
+
+		@Test
+		public void itInvalidatesResultsAgainWhenTheWritingTransactionCommits() throws Exception {
+			connection.setAutoCommit(false);
+			execute("UPDATE countries SET name = 'Aotearoa' WHERE code = 'NZ'");
+			assertThat(names("NZ").toString(), is("[Aotearoa]"));
+			connection.commit();
+			connection.setAutoCommit(true);
+
+			assertThat(names("NZ").toString(), is("[Aotearoa]"));
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(0L));
+		}
+
+		@Test
+		public void itInvalidatesResultsAgainWhenTheWritingTransactionRollsBack() throws Exception {
+			connection.setAutoCommit(false);
+			execute("UPDATE countries SET name = 'Aotearoa' WHERE code = 'NZ'");
+			assertThat(names("NZ").toString(), is("[Aotearoa]"));
+			connection.rollback();
+			connection.setAutoCommit(true);
+
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+		}
+
+		@Test
+		public void itKeysParametersByTheirTargetType() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT name FROM countries WHERE code = ?");
+			statement.setObject(1, "NZ", Types.VARCHAR);
+			assertThat(names(statement.executeQuery()).toString(), is("[New Zealand]"));
+			statement.setObject(1, "NZ", Types.CHAR);
+			assertThat(names(statement.executeQuery()).toString(), is("[New Zealand]"));
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(0L));
+
+			statement.setObject(1, "NZ", Types.VARCHAR);
+			assertThat(names(statement.executeQuery()).toString(), is("[New Zealand]"));
+			statement.close();
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(1L));
+		}
+
+		@Test
+		public void itKeepsResultsWhenOtherTablesAreWritten() throws Exception {
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+			execute("INSERT INTO cities VALUES ('Wellington')");
+
+			assertThat(names("NZ").toString(), is("[New Zealand]"));
+			assertThat(Stopwatch.getInstance().getCacheHits(), is(1L));
+		}
+
+		@Test
+		public void itDoesNotCountHitsAsDatabaseTime() throws Exception {
+			names("NZ");
+			final long elapsed = Stopwatch.getInstance().getElapsedNanos();
+			names("NZ");
+
+			assertThat(Stopwatch.getInstance().getElapsedNanos(), is(elapsed));
+		}
+
+		@Test(expected=SQLFeatureNotSupportedException.class)
+		public void itHandsOutReadOnlyResults() throws Exception {
+			names("NZ");
+			final PreparedStatement statement = connection.prepareStatement("SELECT name FROM countries WHERE code = ?");
+			statement.setString(1, "NZ");
+			final ResultSet results = statement.executeQuery();
+			results.next();
+			results.updateString(1, "Aotearoa");
+		}
+	}
+
+	public static class Caching_Proxied_Queries extends Caching_Query_Results {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb:mem:ResultCacheTest";
+		}
+	}
+
+	public static class Caching_Delegated_Queries extends Caching_Query_Results {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;dispatch=delegate:mem:ResultCacheTest";
+		}
+	}
+
+	public static class Caching_Delegated_Queries_With_A_Statement_Cache extends Caching_Query_Results {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;dispatch=delegate;statementcache.size=4:mem:ResultCacheTest";
+		}
+	}
+}
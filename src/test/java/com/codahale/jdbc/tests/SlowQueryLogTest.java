@@ -0,0 +1,164 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Scanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.Category;
+import com.codahale.jdbc.InstrumentingDriver;
+import com.codahale.jdbc.SlowQueryLog;
+
+@RunWith(Enclosed.class)
+public class SlowQueryLogTest {
+	private static List<String> lines(File file) throws Exception {
+		final List<String> lines = new LinkedList<String>();
+		if (file.exists()) {
+			final FileInputStream input = new FileInputStream(file);
+			final Scanner scanner = new Scanner(input, "UTF-8");
+			while (scanner.hasNextLine()) {
+				lines.add(scanner.nextLine());
+			}
+			scanner.close();
+			input.close();
+		}
+		return lines;
+	}
+
+	public static class A_Slow_Query_Log {
+		private File file;
+		private SlowQueryLog log;
+
+		@Before
+		public void setup() throws Exception {
+			this.file = File.createTempFile("slow", ".log");
+			file.delete();
+			this.log = new SlowQueryLog(file, 4, 1024 * 1024);
+		}
+
+		@After
+		public void teardown() throws Exception {
+			file.delete();
+			new File(file.getPath() + ".1").delete();
+		}
+
+		@Test
+		public void itWritesEachCallOnALine() throws Exception {
+			log.start();
+			assertThat(log.publish(Category.QUERY, "select * from funk where id = ?", 1500000000L), is(true));
+			log.stop();
+
+			final List<String> lines = lines(file);
+			assertThat(lines.size(), is(1));
+
+			final String[] fields = lines.get(0).split("\t");
+			assertThat(fields.length, is(5));
+			assertThat(fields[1], is(Thread.currentThread().getName()));
+			assertThat(fields[2], is("1500.000"));
+			assertThat(fields[3], is("QUERY"));
+			assertThat(fields[4], is("select * from funk where id = ?"));
+			assertThat(log.getWrittenCount(), is(1L));
+		}
+
+		@Test
+		public void itDropsCallsInsteadOfBlockingWhenFull() throws Exception {
+			for (int i = 0; i < 6; i++) {
+				log.publish(Category.UPDATE, "update funk set id = ?", i);
+			}
+
+			assertThat(log.getDroppedCount(), is(2L));
+
+			log.start();
+			log.stop();
+
+			assertThat(lines(file).size(), is(4));
+			assertThat(log.getWrittenCount(), is(4L));
+		}
+
+		@Test
+		public void itReusesTheBufferOnceDrained() throws Exception {
+			log.start();
+			for (int i = 0; i < 20; i++) {
+				while (!log.publish(Category.FETCH, null, i)) {
+					Thread.sleep(1);
+				}
+			}
+			log.stop();
+
+			assertThat(lines(file).size(), is(20));
+		}
+
+		@Test
+		public void itRollsTheFileOverWhenItGetsTooBig() throws Exception {
+			final SlowQueryLog small = new SlowQueryLog(file, 4, 100);
+			small.start();
+			for (int i = 0; i < 3; i++) {
+				while (!small.publish(Category.QUERY, "select * from funk where id = ?", i)) {
+					Thread.sleep(1);
+				}
+			}
+			small.stop();
+
+			assertThat(lines(new File(file.getPath() + ".1")).size(), is(2));
+			assertThat(lines(file).size(), is(1));
+		}
+	}
+
+	public static class Configuring_A_Connection {
+		private File file;
+
+		@Before
+		public void setup() throws Exception {
+			Class.forName("org.hsqldb.jdbcDriver");
+			this.file = File.createTempFile("slow", ".log");
+			file.delete();
+		}
+
+		@Test
+		public void itLogsCallsOverTheThresholdFromTheURL() throws Exception {
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			info.setProperty("perf.slowquery.file", file.getPath());
+
+			final Connection connection = new InstrumentingDriver().connect("jdbc:perf-hsqldb;slowquery.threshold=0:mem:SlowQueryLogTest", info);
+			final Statement statement = connection.createStatement();
+			statement.execute("CREATE TABLE funk (id INTEGER)");
+			statement.execute("INSERT INTO funk VALUES (1)");
+			final ResultSet results = statement.executeQuery("SELECT * FROM funk WHERE id = 1");
+			while (results.next()) {
+				// read it all
+			}
+			connection.close();
+
+			final SlowQueryLog log = SlowQueryLog.getInstance(file.getPath());
+			final long deadline = System.currentTimeMillis() + 5000;
+			while (log.getWrittenCount() < 6 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			log.stop();
+
+			final List<String> queries = new LinkedList<String>();
+			for (String line : lines(file)) {
+				queries.add(line.substring(line.lastIndexOf('\t') + 1));
+			}
+			assertThat(queries.contains("select * from funk where id = ?"), is(true));
+			assertThat(queries.contains("insert into funk values (?)"), is(true));
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.codahale.jdbc.tests;
+
+import static com.codahale.jdbc.SqlNormalizer.normalize;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+@RunWith(Enclosed.class)
+public class SqlNormalizerTest {
+	public static class Replacing_Literals {
+		@Test
+		public void itReplacesNumericLiterals() throws Exception {
+			assertThat(normalize("SELECT * FROM funk WHERE id = 42 AND x > 1.5e-3"), is("select * from funk where id = ? and x > ?"));
+		}
+		
+		@Test
+		public void itDoesNotReplaceDigitsInIdentifiers() throws Exception {
+			assertThat(normalize("SELECT t1.col2 FROM table3 t1"), is("select t1.col2 from table3 t1"));
+		}
+		
+		@Test
+		public void itReplacesStringLiterals() throws Exception {
+			assertThat(normalize("SELECT * FROM funk WHERE name = 'O''Brien' AND x = 'ab'"), is("select * from funk where name = ? and x = ?"));
+		}
+		
+		@Test
+		public void itDoesNotTreatBackslashesAsEscapes() throws Exception {
+			assertThat(normalize("SELECT * FROM files WHERE path = 'C:\\' AND size > 10"), is("select * from files where path = ? and size > ?"));
+		}
+	}
+	
+	public static class Collapsing_In_Lists {
+		@Test
+		public void itCollapsesInLists() throws Exception {
+			assertThat(normalize("SELECT * FROM funk WHERE id IN (1, 2, 3) OR name in('a','b') OR x IN (?, ?)"),
+					is("select * from funk where id in (?) or name in (?) or x in (?)"));
+		}
+		
+		@Test
+		public void itDoesNotCollapseSubqueries() throws Exception {
+			assertThat(normalize("SELECT * FROM funk WHERE id IN (SELECT id FROM bar WHERE x = 1)"),
+					is("select * from funk where id in (select id from bar where x = ?)"));
+		}
+	}
+	
+	public static class Tidying_Formatting {
+		@Test
+		public void itCollapsesWhitespaceAndRemovesComments() throws Exception {
+			assertThat(normalize("  SELECT *\n\tFROM funk -- trailing\n  WHERE /* inline */ id = ?  "), is("select * from funk where id = ?"));
+		}
+		
+		@Test
+		public void itPreservesQuotedIdentifiers() throws Exception {
+			assertThat(normalize("SELECT \"MixedCase\" FROM `Funk`"), is("select \"MixedCase\" from `Funk`"));
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.jdbc.InstrumentingDataSource;
+import com.codahale.jdbc.StatementCacheStatistics;
+
+@RunWith(Enclosed.class)
+public class StatementCacheTest {
+	abstract static class Caching_Statements {
+		private final List<PreparedStatement> prepared = new ArrayList<PreparedStatement>();
+		private Connection raw;
+		private Connection connection;
+		
+		protected abstract String getDispatch();
+		
+		@Before
+		public void setup() throws Exception {
+			StatementCacheStatistics.getInstance().clear();
+			
+			this.raw = mock(Connection.class);
+			final Answer<PreparedStatement> prepare = new Answer<PreparedStatement>() {
+				@Override
+				public PreparedStatement answer(InvocationOnMock invocation) throws Throwable {
+					final PreparedStatement statement = mock(PreparedStatement.class);
+					prepared.add(statement);
+					return statement;
+				}
+			};
+			when(raw.prepareStatement(anyString(), anyInt(), anyInt())).thenAnswer(prepare);
+			when(raw.prepareStatement(anyString(), anyInt())).thenAnswer(prepare);
+			final CallableStatement call = mock(CallableStatement.class);
+			when(raw.prepareCall(anyString(), anyInt(), anyInt())).thenReturn(call);
+			
+			final DataSource pool = mock(DataSource.class);
+			when(pool.getConnection()).thenReturn(raw);
+			final Properties settings = new Properties();
+			settings.setProperty("perf.dispatch", getDispatch());
+			settings.setProperty("perf.statementcache.size", "2");
+			this.connection = new InstrumentingDataSource(pool, settings).getConnection();
+		}
+		
+		@Test
+		public void itReusesClosedStatements() throws Exception {
+			connection.prepareStatement("SELECT 1").close();
+			connection.prepareStatement("SELECT 1").close();
+			
+			verify(raw, times(1)).prepareStatement("SELECT 1", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			verify(prepared.get(0), never()).close();
+			verify(prepared.get(0), times(2)).clearParameters();
+			
+			final StatementCacheStatistics.Snapshot statistics = StatementCacheStatistics.getInstance().snapshot();
+			assertThat(statistics.getHitCount(), is(1L));
+			assertThat(statistics.getMissCount(), is(1L));
+			assertThat(statistics.getHitRate(), is(0.5));
+		}
+		
+		@Test
+		public void itKeysStatementsByResultSetTypeAndConcurrency() throws Exception {
+			connection.prepareStatement("SELECT 1").close();
+			connection.prepareStatement("SELECT 1", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+			
+			assertThat(prepared.size(), is(2));
+			assertThat(StatementCacheStatistics.getInstance().snapshot().getHitCount(), is(0L));
+		}
+		
+		@Test
+		public void itCachesCallableStatements() throws Exception {
+			connection.prepareCall("CALL a()").close();
+			
+			assertThat(connection.prepareCall("CALL a()"), is(notNullValue()));
+			verify(raw, times(1)).prepareCall("CALL a()", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		}
+		
+		@Test
+		public void itEvictsTheLeastRecentlyUsedStatement() throws Exception {
+			connection.prepareStatement("SELECT 1").close();
+			connection.prepareStatement("SELECT 2").close();
+			connection.prepareStatement("SELECT 3").close();
+			
+			verify(prepared.get(0)).close();
+			verify(prepared.get(1), never()).close();
+			verify(prepared.get(2), never()).close();
+			assertThat(StatementCacheStatistics.getInstance().snapshot().getEvictionCount(), is(1L));
+		}
+		
+		@Test
+		public void itClosesAStatementPreparedWhileAnotherIsInUse() throws Exception {
+			final PreparedStatement first = connection.prepareStatement("SELECT 1");
+			final PreparedStatement second = connection.prepareStatement("SELECT 1");
+			first.close();
+			second.close();
+			
+			verify(prepared.get(0), never()).close();
+			verify(prepared.get(1)).close();
+		}
+		
+		@Test
+		public void itReportsReleasedStatementsAsClosed() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			statement.close();
+			
+			assertThat(statement.isClosed(), is(true));
+		}
+		
+		@Test
+		public void itFailsCallsToReleasedStatements() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			statement.close();
+			
+			try {
+				statement.executeQuery();
+				fail("should have thrown an SQLException but didn't");
+			} catch (SQLException e) {
+				assertThat(e.getMessage(), is("Statement is closed"));
+			}
+			verify(prepared.get(0), never()).executeQuery();
+		}
+		
+		@Test
+		public void itClosesTheCurrentResultSetOnRelease() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			final ResultSet results = mock(ResultSet.class);
+			when(prepared.get(0).getResultSet()).thenReturn(results);
+			statement.close();
+			
+			verify(results).close();
+		}
+		
+		@Test
+		public void itResetsOptionsChangedByTheLastUser() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			statement.setMaxRows(1);
+			statement.close();
+			
+			verify(prepared.get(0)).setMaxRows(0);
+			verify(prepared.get(0)).setQueryTimeout(0);
+			verify(prepared.get(0), never()).close();
+			connection.prepareStatement("SELECT 1");
+			assertThat(prepared.size(), is(1));
+		}
+		
+		@Test
+		public void itLeavesUnchangedOptionsAlone() throws Exception {
+			connection.prepareStatement("SELECT 1").close();
+			
+			verify(prepared.get(0), never()).setMaxRows(anyInt());
+		}
+		
+		@Test
+		public void itClosesStatementsWhoseOptionsCannotBeReset() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			statement.setCursorName("c");
+			statement.close();
+			
+			verify(prepared.get(0)).close();
+			connection.prepareStatement("SELECT 1");
+			assertThat(prepared.size(), is(2));
+		}
+		
+		@Test
+		public void itClosesTheConnectionEvenIfAnIdleStatementCannotBeClosed() throws Exception {
+			connection.prepareStatement("SELECT 1").close();
+			doThrow(new SQLException("broken")).when(prepared.get(0)).close();
+			
+			try {
+				connection.close();
+				fail("should have thrown an SQLException but didn't");
+			} catch (SQLException e) {
+				assertThat(e.getMessage(), is("broken"));
+			}
+			verify(raw).close();
+		}
+		
+		@Test
+		public void itHandsBackTheConnectionAndStatementTheyCameFrom() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			final ResultSet results = mock(ResultSet.class);
+			when(prepared.get(0).executeQuery()).thenReturn(results);
+			
+			assertThat(statement.getConnection(), is(sameInstance(connection)));
+			assertThat(statement.executeQuery().getStatement(), is(sameInstance((Statement) statement)));
+		}
+		
+		@Test
+		public void itReusesStatementsClosedThroughTheirResultSets() throws Exception {
+			final PreparedStatement statement = connection.prepareStatement("SELECT 1");
+			final ResultSet results = mock(ResultSet.class);
+			when(prepared.get(0).executeQuery()).thenReturn(results);
+			statement.executeQuery().getStatement().close();
+			connection.prepareStatement("SELECT 1").close();
+			
+			verify(prepared.get(0), never()).close();
+			assertThat(StatementCacheStatistics.getInstance().snapshot().getHitCount(), is(1L));
+		}
+		
+		@Test
+		public void itDoesNotCacheStatementsWhichReturnGeneratedKeys() throws Exception {
+			connection.prepareStatement("INSERT INTO t VALUES (1)", Statement.RETURN_GENERATED_KEYS).close();
+			
+			verify(prepared.get(0)).close();
+		}
+		
+		@Test
+		public void itClosesIdleStatementsWithTheConnection() throws Exception {
+			connection.prepareStatement("SELECT 1").close();
+			final PreparedStatement inUse = connection.prepareStatement("SELECT 2");
+			connection.close();
+			
+			verify(prepared.get(0)).close();
+			verify(prepared.get(1), never()).close();
+			
+			inUse.close();
+			verify(prepared.get(1)).close();
+		}
+	}
+	
+	public static class Caching_Proxied_Statements extends Caching_Statements {
+		@Override
+		protected String getDispatch() {
+			return "proxy";
+		}
+	}
+	
+	public static class Caching_Delegated_Statements extends Caching_Statements {
+		@Override
+		protected String getDispatch() {
+			return "delegate";
+		}
+	}
+}
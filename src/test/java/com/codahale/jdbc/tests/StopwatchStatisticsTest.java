@@ -0,0 +1,88 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.CallDistribution;
+import com.codahale.jdbc.Stopwatch;
+import com.codahale.jdbc.StopwatchStatistics;
+
+@RunWith(Enclosed.class)
+public class StopwatchStatisticsTest {
+	public static class Merging_Requests {
+		private Statement statement;
+		
+		@Before
+		public void setup() throws Exception {
+			this.statement = StopwatchTest.counted(mock(Statement.class));
+			clear();
+		}
+		
+		@After
+		public void clear() throws Exception {
+			Stopwatch.getInstance().reset();
+			StopwatchStatistics.getInstance().clear();
+		}
+		
+		private void request(int calls) throws Exception {
+			for (int i = 0; i < calls; i++) {
+				statement.execute("SELECT 1");
+			}
+			Stopwatch.getInstance().reset();
+		}
+		
+		@Test
+		public void itAddsUpEveryRequest() throws Exception {
+			request(1);
+			request(5);
+			
+			final CallDistribution calls = StopwatchStatistics.getInstance().snapshot();
+			assertThat(StopwatchStatistics.getInstance().getRequestCount(), is(2L));
+			assertThat(calls.getCount(), is(6L));
+			assertTrue(calls.getTotalNanos() > 0);
+			assertTrue(calls.getMaxNanos() > 0);
+			
+			long bucketed = 0;
+			for (int i = 0; i < CallDistribution.BUCKETS; i++) {
+				bucketed += calls.getBucketCount(i);
+			}
+			assertThat(bucketed, is(6L));
+		}
+		
+		@Test
+		public void itIgnoresRequestsWithoutCalls() throws Exception {
+			request(0);
+			
+			assertThat(StopwatchStatistics.getInstance().getRequestCount(), is(0L));
+		}
+		
+		@Test
+		public void itForgetsEverythingWhenCleared() throws Exception {
+			request(3);
+			StopwatchStatistics.getInstance().clear();
+			
+			assertThat(StopwatchStatistics.getInstance().getRequestCount(), is(0L));
+			assertThat(StopwatchStatistics.getInstance().snapshot().getCount(), is(0L));
+			assertThat(StopwatchStatistics.getInstance().snapshot().getPercentile(99), is(0L));
+		}
+	}
+	
+	public static class Bucketing_Latencies {
+		@Test
+		public void itHasDoublingBuckets() throws Exception {
+			assertThat(CallDistribution.getUpperBound(0), is(65536L));
+			assertThat(CallDistribution.getUpperBound(1), is(131072L));
+			assertThat(CallDistribution.getUpperBound(CallDistribution.BUCKETS - 2), is(1L << 34));
+			assertThat(CallDistribution.getUpperBound(CallDistribution.BUCKETS - 1), is(Long.MAX_VALUE));
+		}
+	}
+}
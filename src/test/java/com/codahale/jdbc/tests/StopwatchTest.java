@@ -2,21 +2,35 @@ package com.codahale.jdbc.tests;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
+import java.sql.Connection;
+import java.sql.Statement;
 import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import javax.sql.DataSource;
+
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.CallDistribution;
+import com.codahale.jdbc.Instrumenter;
+import com.codahale.jdbc.InstrumentingDataSource;
+import com.codahale.jdbc.RepeatedQuery;
 import com.codahale.jdbc.Stopwatch;
+import com.codahale.jdbc.StopwatchStatistics;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -44,6 +58,28 @@ public class StopwatchTest {
 		};
 	}
 	
+	private static void assertElapsed(long atLeast, long lessThan, long actual) {
+		assertTrue("expected " + atLeast + "-" + lessThan + "ms but was " + actual, actual >= atLeast && actual < lessThan);
+	}
+	
+	/**
+	 * Returns {@code mock}, instrumented on a connection which counts calls
+	 * and queries in the stopwatch.
+	 */
+	public static Statement counted(Statement mock) throws Exception {
+		final Connection connection = mock(Connection.class);
+		when(connection.createStatement()).thenReturn(mock);
+		final DataSource pool = mock(DataSource.class);
+		when(pool.getConnection()).thenReturn(connection);
+		final Properties settings = new Properties();
+		settings.setProperty("perf.stopwatch.calls", "true");
+		settings.setProperty("perf.stopwatch.queries", "true");
+		final Statement statement = new InstrumentingDataSource(pool, settings).getConnection().createStatement();
+		// forget borrowing the connection
+		Stopwatch.getInstance().reset();
+		return statement;
+	}
+	
 	@Before
 	@After
 	public void resetCounter() throws Exception {
@@ -63,37 +99,163 @@ public class StopwatchTest {
 	@Test
 	public void itRecordsTheElapsedTimeForASingleEvent() throws Exception {
 		Stopwatch.getInstance().start();
-			Thread.sleep(seconds(2));
+			Thread.sleep(5);
 		Stopwatch.getInstance().stop();
 		
-		assertThat(Stopwatch.getInstance().getElapsedTime(), is(roughly(2)));
+		assertElapsed(5, 50, Stopwatch.getInstance().getElapsedTime());
 		assertThat(Stopwatch.getInstance().wasCalled(), is(true));
 	}
 	
+	@Test
+	public void itRecordsTheElapsedTimeInNanoseconds() throws Exception {
+		Stopwatch.getInstance().start();
+			Thread.sleep(5);
+		Stopwatch.getInstance().stop();
+		
+		assertThat(Stopwatch.getInstance().getElapsedNanos() / 1000000, is(Stopwatch.getInstance().getElapsedTime()));
+		assertTrue(Stopwatch.getInstance().getElapsedNanos() >= 5000000L);
+	}
+	
+	@Test
+	public void itForgetsEverythingWhenReset() throws Exception {
+		Stopwatch.getInstance().start();
+		Stopwatch.getInstance().stop();
+		Stopwatch.getInstance().reset();
+		
+		assertThat(Stopwatch.getInstance().getElapsedNanos(), is(0L));
+		assertThat(Stopwatch.getInstance().wasCalled(), is(false));
+	}
+	
+	@Test
+	public void itDoesNotAddManualTimingsToAnyBucket() throws Exception {
+		Stopwatch.getInstance().start();
+			Thread.sleep(1);
+		Stopwatch.getInstance().stop();
+		
+		for (Bucket bucket : Bucket.values()) {
+			assertThat(Stopwatch.getInstance().getElapsedNanos(bucket), is(0L));
+		}
+		assertThat(Stopwatch.getInstance().getRowsFetched(), is(0L));
+	}
+	
+	@Test
+	public void itCountsRepeatedQueries() throws Exception {
+		final Statement statement = counted(mock(Statement.class));
+		for (int i = 0; i < 12; i++) {
+			statement.executeQuery("SELECT * FROM comments WHERE post_id = " + i);
+		}
+		statement.executeUpdate("UPDATE posts SET views = views + 1");
+		
+		assertThat(Stopwatch.getInstance().hasRepeatedQueries(10), is(true));
+		assertThat(Stopwatch.getInstance().hasRepeatedQueries(12), is(false));
+		
+		final List<RepeatedQuery> repeated = Stopwatch.getInstance().getRepeatedQueries(10);
+		assertThat(repeated.size(), is(1));
+		assertThat(repeated.get(0).getQuery(), is("select * from comments where post_id = ?"));
+		assertThat(repeated.get(0).getCount(), is(12L));
+		assertTrue(repeated.get(0).getElapsedNanos() > 0);
+		assertThat(Stopwatch.getInstance().getRepeatedQueries(0).size(), is(2));
+	}
+	
+	@Test
+	public void itCountsManyDistinctQueries() throws Exception {
+		final Statement statement = counted(mock(Statement.class));
+		for (int i = 0; i < 100; i++) {
+			for (int j = 0; j <= i % 3; j++) {
+				statement.execute("SELECT column" + i + " FROM things");
+			}
+		}
+		
+		assertThat(Stopwatch.getInstance().getRepeatedQueries(0).size(), is(100));
+		assertThat(Stopwatch.getInstance().getRepeatedQueries(2).size(), is(33));
+	}
+	
+	@Test
+	public void itForgetsRepeatedQueriesWhenReset() throws Exception {
+		final Statement statement = counted(mock(Statement.class));
+		statement.executeQuery("SELECT 1");
+		statement.executeQuery("SELECT 1");
+		Stopwatch.getInstance().reset();
+		statement.executeQuery("SELECT 1");
+		
+		assertThat(Stopwatch.getInstance().getRepeatedQueries(0).get(0).getCount(), is(1L));
+	}
+	
+	@Test
+	public void itCountsCallsAndTheSlowestOfThem() throws Exception {
+		final Statement mock = mock(Statement.class);
+		when(mock.execute("SELECT SLEEP(1)")).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(5);
+				return true;
+			}
+		});
+		final Statement statement = counted(mock);
+		statement.execute("SELECT 1");
+		statement.execute("SELECT SLEEP(1)");
+		statement.execute("SELECT 2");
+		
+		assertThat(Stopwatch.getInstance().getCallCount(), is(3L));
+		assertTrue(Stopwatch.getInstance().getMaxCallTime() >= 5);
+		
+		final CallDistribution calls = Stopwatch.getInstance().getCallDistribution();
+		assertThat(calls.getCount(), is(3L));
+		assertThat(calls.getMaxNanos(), is(Stopwatch.getInstance().getMaxCallNanos()));
+		assertTrue(calls.getPercentile(50) < 5000000L);
+		assertThat(calls.getPercentile(100), is(calls.getMaxNanos()));
+	}
+	
+	@Test
+	public void itMergesCallsIntoTheGlobalStatisticsWhenReset() throws Exception {
+		final Statement statement = counted(mock(Statement.class));
+		final long requests = StopwatchStatistics.getInstance().getRequestCount();
+		final long count = StopwatchStatistics.getInstance().snapshot().getCount();
+		statement.execute("SELECT 1");
+		statement.execute("SELECT 2");
+		Stopwatch.getInstance().reset();
+		
+		assertThat(Stopwatch.getInstance().getCallCount(), is(0L));
+		assertThat(Stopwatch.getInstance().getMaxCallNanos(), is(0L));
+		assertThat(StopwatchStatistics.getInstance().getRequestCount(), is(requests + 1));
+		assertThat(StopwatchStatistics.getInstance().snapshot().getCount(), is(count + 2));
+	}
+	
+	@Test
+	public void itOnlyCountsCallsAndQueriesOnConnectionsWhichAskForThem() throws Exception {
+		final Statement statement = Instrumenter.instrument(Statement.class, mock(Statement.class));
+		statement.executeQuery("SELECT 1");
+		statement.executeQuery("SELECT 1");
+		
+		assertThat(Stopwatch.getInstance().getCallCount(), is(0L));
+		assertThat(Stopwatch.getInstance().getRepeatedQueries(0).isEmpty(), is(true));
+		assertTrue(Stopwatch.getInstance().getElapsedNanos(Bucket.EXECUTION) > 0);
+	}
+	
 	@Test
 	public void itRecordsTheElapsedTimeForMultipleEvents() throws Exception {
 		Stopwatch.getInstance().start();
-			Thread.sleep(seconds(2));
+			Thread.sleep(5);
 		Stopwatch.getInstance().stop();
-		Thread.sleep(seconds(2));
+		Thread.sleep(50);
 		Stopwatch.getInstance().start();
-			Thread.sleep(seconds(2));
+			Thread.sleep(5);
 		Stopwatch.getInstance().stop();
 		
-		assertThat(Stopwatch.getInstance().getElapsedTime(), is(roughly(4)));
+		assertElapsed(10, 50, Stopwatch.getInstance().getElapsedTime());
 		assertThat(Stopwatch.getInstance().wasCalled(), is(true));
 	}
 	
 	@Test
 	public void itRecordsTheTotalElapsedTimeForNestedEvents() throws Exception {
 		Stopwatch.getInstance().start();
-			Thread.sleep(seconds(2));
+			Thread.sleep(5);
 			Stopwatch.getInstance().start();
-				Thread.sleep(seconds(2));
+				Thread.sleep(30);
 			Stopwatch.getInstance().stop();
 		Stopwatch.getInstance().stop();
 		
-		assertThat(Stopwatch.getInstance().getElapsedTime(), is(roughly(4)));
+		assertElapsed(35, 65, Stopwatch.getInstance().getElapsedTime());
 		assertThat(Stopwatch.getInstance().wasCalled(), is(true));
 	}
 	
@@ -105,7 +267,7 @@ public class StopwatchTest {
 			@Override
 			public Long call() throws Exception {
 				Stopwatch.getInstance().start();
-					Thread.sleep(seconds(4));
+					Thread.sleep(100);
 				Stopwatch.getInstance().stop();
 				return Stopwatch.getInstance().getElapsedTime();
 			}
@@ -115,7 +277,7 @@ public class StopwatchTest {
 			@Override
 			public Long call() throws Exception {
 				Stopwatch.getInstance().start();
-					Thread.sleep(seconds(2));
+					Thread.sleep(10);
 				Stopwatch.getInstance().stop();
 				return Stopwatch.getInstance().getElapsedTime();
 			}
@@ -125,7 +287,7 @@ public class StopwatchTest {
 			@Override
 			public Long call() throws Exception {
 				Stopwatch.getInstance().start();
-					Thread.sleep(seconds(3));
+					Thread.sleep(50);
 				Stopwatch.getInstance().stop();
 				return Stopwatch.getInstance().getElapsedTime();
 			}
@@ -147,9 +309,9 @@ public class StopwatchTest {
 			}
 		);
 		
-		assertThat(results.get(0), is(roughly(4)));
-		assertThat(results.get(1), is(roughly(2)));
-		assertThat(results.get(2), is(roughly(3)));
+		assertElapsed(100, 1000, results.get(0));
+		assertElapsed(10, 50, results.get(1));
+		assertElapsed(50, 100, results.get(2));
 		assertThat(Stopwatch.getInstance().wasCalled(), is(false));
 	}
 }
@@ -0,0 +1,142 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.junit.matchers.JUnitMatchers.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.InstrumentingDriver;
+import com.codahale.jdbc.Timeline;
+
+@RunWith(Enclosed.class)
+public class TimelineTest {
+	abstract static class Recording_A_Timeline {
+		private Connection connection;
+
+		protected abstract String getUrl();
+
+		@Before
+		public void setup() throws Exception {
+			Class.forName("org.hsqldb.jdbcDriver");
+			Timeline.getInstance().start();
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			this.connection = new InstrumentingDriver().connect(getUrl(), info);
+			execute("DROP TABLE timeline IF EXISTS");
+			execute("CREATE TABLE timeline (id INTEGER)");
+			execute("INSERT INTO timeline VALUES (1)");
+			execute("INSERT INTO timeline VALUES (2)");
+			execute("INSERT INTO timeline VALUES (3)");
+		}
+
+		@After
+		public void teardown() throws Exception {
+			Timeline.getInstance().stop();
+			connection.close();
+		}
+
+		private void execute(String sql) throws Exception {
+			final Statement statement = connection.createStatement();
+			statement.execute(sql);
+			statement.close();
+		}
+
+		private void query() throws Exception {
+			final Statement statement = connection.createStatement();
+			final ResultSet results = statement.executeQuery("SELECT id FROM timeline WHERE id > 1");
+			while (results.next()) {
+				// read every row
+			}
+			results.close();
+			statement.close();
+		}
+
+		@Test
+		public void itRecordsEachCallInOrder() throws Exception {
+			query();
+			Timeline.getInstance().stop();
+
+			final String trace = Timeline.getInstance().toChromeTrace();
+			assertThat(trace.indexOf("\"name\":\"connect\""), is(not(-1)));
+			assertThat(trace.indexOf("\"name\":\"connect\"") < trace.indexOf("\"name\":\"execute\""), is(true));
+			assertThat(trace.indexOf("\"name\":\"execute\"") < trace.indexOf("\"name\":\"query\""), is(true));
+			assertThat(trace, containsString("\"sql\":\"select id from timeline where id > ?\""));
+		}
+
+		@Test
+		public void itMergesFetchesFromTheSameResultSet() throws Exception {
+			query();
+			Timeline.getInstance().stop();
+
+			final String trace = Timeline.getInstance().toChromeTrace();
+			final int fetch = trace.indexOf("\"name\":\"fetch\"");
+			assertThat(fetch, is(not(-1)));
+			assertThat(trace.indexOf("\"name\":\"fetch\"", fetch + 1), is(-1));
+			assertThat(trace.substring(fetch), containsString("\"args\":{\"rows\":2,\"calls\":3,"));
+		}
+
+		@Test
+		public void itWritesChromeTraceEvents() throws Exception {
+			Timeline.getInstance().stop();
+
+			final String trace = Timeline.getInstance().toChromeTrace();
+			assertThat(trace.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[{\"name\":\"thread_name\",\"ph\":\"M\""), is(true));
+			assertThat(trace, containsString("\"ph\":\"X\",\"pid\":1,\"tid\":" + Thread.currentThread().getId() + ",\"ts\":"));
+			assertThat(trace, containsString("\"sql\":\"insert into timeline values (?)\""));
+			assertThat(trace.endsWith("]}\n"), is(true));
+		}
+
+		@Test
+		public void itOnlyRecordsWhileStarted() throws Exception {
+			Timeline.getInstance().stop();
+			final int calls = Timeline.getInstance().getCallCount();
+			query();
+
+			assertThat(Timeline.getInstance().isRecording(), is(false));
+			assertThat(Timeline.getInstance().getCallCount(), is(calls));
+		}
+
+		@Test
+		public void itOverwritesTheOldestCallsOnceFull() throws Exception {
+			for (int i = 0; i < Timeline.CAPACITY; i++) {
+				execute("SELECT COUNT(*) FROM timeline");
+			}
+
+			assertThat(Timeline.getInstance().getCallCount(), is(Timeline.CAPACITY));
+			assertThat(Timeline.getInstance().getDroppedCount(), is(6L));
+			assertThat(Timeline.getInstance().toChromeTrace(), not(containsString("\"name\":\"connect\"")));
+		}
+
+		@Test
+		public void itStartsOverWhenRestarted() throws Exception {
+			Timeline.getInstance().start();
+
+			assertThat(Timeline.getInstance().getCallCount(), is(0));
+		}
+	}
+
+	public static class Recording_Proxied_Calls extends Recording_A_Timeline {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb:mem:TimelineTest";
+		}
+	}
+
+	public static class Recording_Delegated_Calls extends Recording_A_Timeline {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;dispatch=delegate:mem:TimelineTest";
+		}
+	}
+}
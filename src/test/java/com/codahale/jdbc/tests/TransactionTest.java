@@ -0,0 +1,190 @@
+package com.codahale.jdbc.tests;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+
+import com.codahale.jdbc.Bucket;
+import com.codahale.jdbc.Category;
+import com.codahale.jdbc.InstrumentingDriver;
+import com.codahale.jdbc.JdbcStatistics;
+import com.codahale.jdbc.OpenTransaction;
+import com.codahale.jdbc.Stopwatch;
+import com.codahale.jdbc.TransactionStatistics;
+import com.codahale.jdbc.TransactionWatchdog;
+
+@RunWith(Enclosed.class)
+public class TransactionTest {
+	abstract static class Tracking_Transactions {
+		private final List<OpenTransaction> reported = new CopyOnWriteArrayList<OpenTransaction>();
+		private final TransactionWatchdog.Listener listener = new TransactionWatchdog.Listener() {
+			@Override
+			public void longTransaction(OpenTransaction transaction) {
+				reported.add(transaction);
+			}
+		};
+		private Connection connection;
+
+		protected abstract String getUrl();
+
+		@Before
+		public void setup() throws Exception {
+			Class.forName("org.hsqldb.jdbcDriver");
+			TransactionStatistics.getInstance().clear();
+			TransactionWatchdog.getInstance().addListener(listener);
+			final Properties info = new Properties();
+			info.setProperty("user", "sa");
+			info.setProperty("password", "");
+			info.setProperty("perf.transaction.threshold", "100");
+			this.connection = new InstrumentingDriver().connect(getUrl(), info);
+			execute("DROP TABLE accounts IF EXISTS");
+			execute("CREATE TABLE accounts (id INTEGER, balance INTEGER)");
+			Stopwatch.getInstance().reset();
+		}
+
+		@After
+		public void teardown() throws Exception {
+			TransactionWatchdog.getInstance().removeListener(listener);
+			connection.close();
+			Stopwatch.getInstance().reset();
+		}
+
+		private void execute(String sql) throws Exception {
+			final Statement statement = connection.createStatement();
+			statement.executeUpdate(sql);
+			statement.close();
+		}
+
+		@Test
+		public void itTimesTransactionControl() throws Exception {
+			final long before = JdbcStatistics.getInstance().snapshot().getCount(Category.TRANSACTION);
+			connection.setAutoCommit(false);
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			connection.releaseSavepoint(connection.setSavepoint("one"));
+			connection.commit();
+
+			assertThat(JdbcStatistics.getInstance().snapshot().getCount(Category.TRANSACTION), is(before + 4));
+			assertTrue(Stopwatch.getInstance().getElapsedNanos(Bucket.TRANSACTION) > 0);
+		}
+
+		@Test
+		public void itRecordsHowLongTransactionsStayOpen() throws Exception {
+			connection.setAutoCommit(false);
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			Thread.sleep(20);
+			connection.commit();
+
+			final TransactionStatistics.Snapshot snapshot = TransactionStatistics.getInstance().snapshot();
+			assertThat(snapshot.getCommitCount(), is(1L));
+			assertThat(snapshot.getRollbackCount(), is(0L));
+			assertTrue(snapshot.getDurations().getMax() >= 20000000L);
+		}
+
+		@Test
+		public void itRecordsRollbacks() throws Exception {
+			connection.setAutoCommit(false);
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			connection.rollback();
+
+			assertThat(TransactionStatistics.getInstance().snapshot().getRollbackCount(), is(1L));
+		}
+
+		@Test
+		public void itCommitsWhenAutoCommitIsTurnedBackOn() throws Exception {
+			connection.setAutoCommit(false);
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			connection.setAutoCommit(true);
+
+			assertThat(TransactionStatistics.getInstance().snapshot().getCommitCount(), is(1L));
+		}
+
+		@Test
+		public void itIgnoresStatementsInAutoCommitMode() throws Exception {
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			execute("INSERT INTO accounts VALUES (2, 100)");
+
+			assertThat(TransactionStatistics.getInstance().snapshot().getDurations().getCount(), is(0L));
+			assertThat(TransactionWatchdog.getInstance().getOpenTransactions().size(), is(0));
+		}
+
+		@Test
+		public void itCountsTransactionsLeftOpenOnCloseAsRolledBack() throws Exception {
+			connection.setAutoCommit(false);
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			connection.close();
+
+			assertThat(TransactionStatistics.getInstance().snapshot().getRollbackCount(), is(1L));
+		}
+
+		@Test
+		public void itReportsLongTransactionsWithTheirSql() throws Exception {
+			connection.setAutoCommit(false);
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			execute("UPDATE accounts SET balance = 50 WHERE id = 1");
+			assertThat(TransactionWatchdog.getInstance().getOpenTransactions().size(), is(1));
+
+			for (int i = 0; i < 50 && reported.isEmpty(); i++) {
+				Thread.sleep(20);
+			}
+			connection.commit();
+
+			assertThat(reported.size(), is(1));
+			final OpenTransaction transaction = reported.get(0);
+			assertTrue(transaction.getOpenTime() >= 100);
+			assertThat(transaction.getThreadName(), is(Thread.currentThread().getName()));
+			assertThat(transaction.getStatementCount(), is(2));
+			assertThat(transaction.getStatements().get(0), is("insert into accounts values (?, ?)"));
+			assertThat(transaction.getStatements().get(1), is("update accounts set balance = ? where id = ?"));
+			assertThat(TransactionWatchdog.getInstance().getOpenTransactions().size(), is(0));
+		}
+
+		@Test
+		public void itReportsEachLongTransactionOnTheSameConnection() throws Exception {
+			connection.setAutoCommit(false);
+			for (int expected = 1; expected <= 2; expected++) {
+				execute("INSERT INTO accounts VALUES (1, 100)");
+				for (int i = 0; i < 50 && reported.size() < expected; i++) {
+					Thread.sleep(20);
+				}
+				connection.commit();
+			}
+
+			assertThat(reported.size(), is(2));
+		}
+
+		@Test
+		public void itDoesNotReportShortTransactions() throws Exception {
+			connection.setAutoCommit(false);
+			execute("INSERT INTO accounts VALUES (1, 100)");
+			connection.commit();
+			Thread.sleep(250);
+
+			assertThat(reported.size(), is(0));
+		}
+	}
+
+	public static class Tracking_Proxied_Transactions extends Tracking_Transactions {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb:mem:TransactionTest";
+		}
+	}
+
+	public static class Tracking_Delegated_Transactions extends Tracking_Transactions {
+		@Override
+		protected String getUrl() {
+			return "jdbc:perf-hsqldb;dispatch=delegate:mem:TransactionTest";
+		}
+	}
+}